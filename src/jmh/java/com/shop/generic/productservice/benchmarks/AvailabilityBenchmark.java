@@ -0,0 +1,90 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.cache.AvailabilityIndex;
+import com.shop.generic.productservice.cache.ProductCache;
+import com.shop.generic.productservice.services.ProductService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * "Which of these products are in stock?" answered by the {@link AvailabilityIndex}, against
+ * fetching the products with {@link ProductService#getProductsByIds(List)} and checking their
+ * stock status, which is what the storefront did before, both cached and uncached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AvailabilityBenchmark {
+
+    @Param({"100000"})
+    private int catalogueSize;
+
+    @Param({"100", "1000", "10000"})
+    private int requestSize;
+
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+    private ProductCache productCache;
+    private List<Integer> requestedIds;
+    private int[] requestedIdArray;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = BenchmarkContext.start(this.catalogueSize);
+        this.productService = this.context.getBean(ProductService.class);
+        this.productCache = this.context.getBean(ProductCache.class);
+        //The catalogue is seeded after startup, so the index has to be built again
+        this.context.getBean(AvailabilityIndex.class).rebuild();
+        this.requestedIds = ProductMultiGetBenchmark.randomIds(this.requestSize,
+                this.catalogueSize);
+        this.requestedIdArray = this.requestedIds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public byte[] checkAvailability() {
+        return this.productService.checkAvailability(this.requestedIdArray);
+    }
+
+    @Benchmark
+    public boolean[] filterProducts() {
+        return inStock(this.productService.getProductsByIds(this.requestedIds));
+    }
+
+    @Benchmark
+    public boolean[] filterProductsUncached() {
+        this.productCache.invalidateAll(this.requestedIds);
+        return inStock(this.productService.getProductsByIds(this.requestedIds));
+    }
+
+    private static boolean[] inStock(final List<ProductDTO> products) {
+        final boolean[] inStock = new boolean[products.size()];
+        for (int i = 0; i < inStock.length; i++) {
+            inStock[i] = products.get(i).stockStatus() == StockStatus.AVAILABLE;
+        }
+        return inStock;
+    }
+}
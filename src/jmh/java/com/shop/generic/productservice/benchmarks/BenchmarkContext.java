@@ -0,0 +1,44 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.shop.generic.productservice.ProductServiceApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Starts the service against its own H2 in-memory database, seeded with a catalogue of the given
+ * size. Product IDs run from 1 to the catalogue size, and every product starts with enough stock
+ * that benchmarks can keep buying it for the whole run.
+ */
+final class BenchmarkContext {
+
+    static final int INITIAL_STOCK = Integer.MAX_VALUE / 2;
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(final int catalogueSize, final String... properties) {
+        final ConfigurableApplicationContext context = new SpringApplicationBuilder(
+                ProductServiceApplication.class)
+                .properties("server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:benchmark-" + System.nanoTime()
+                                + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+                        "spring.output.ansi.enabled=NEVER",
+                        "logging.level.root=WARN")
+                .properties(properties)
+                .run();
+        new TransactionTemplate(context.getBean(PlatformTransactionManager.class))
+                .executeWithoutResult(status -> seedCatalogue(context.getBean(JdbcTemplate.class),
+                        catalogueSize));
+        return context;
+    }
+
+    private static void seedCatalogue(final JdbcTemplate jdbcTemplate, final int catalogueSize) {
+        jdbcTemplate.update("""
+                INSERT INTO products (product_id, name, price, stock_status, stock_count)
+                SELECT X, CONCAT('Product ', X), 19.99, 'AVAILABLE', ?
+                FROM SYSTEM_RANGE(1, ?)""", INITIAL_STOCK, catalogueSize);
+    }
+}
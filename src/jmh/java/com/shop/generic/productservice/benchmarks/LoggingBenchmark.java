@@ -0,0 +1,125 @@
+package com.shop.generic.productservice.benchmarks;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The logging done for one stock update request, before and after moving to summary logging, with
+ * both a synchronous and an asynchronous appender. Output goes to a stream that discards it, so
+ * this measures formatting and appender overhead rather than disk or console speed. Run with
+ * {@code -prof gc} to compare allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class LoggingBenchmark {
+
+    @Param({"1", "50"})
+    private int basketSize;
+
+    @Param({"sync", "async"})
+    private String appender;
+
+    private LoggerContext loggerContext;
+    private Logger log;
+    private List<PurchaseProductDTO> basket;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() {
+        this.loggerContext = new LoggerContext();
+        final PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(this.loggerContext);
+        encoder.setPattern("%d{yyyy-MM-dd'T'HH:mm:ss.SSSXXX} %5p [%t] %-40.40logger{39} : %m%n");
+        encoder.start();
+
+        final OutputStreamAppender<ILoggingEvent> outputAppender = new OutputStreamAppender<>();
+        outputAppender.setContext(this.loggerContext);
+        outputAppender.setEncoder(encoder);
+        outputAppender.setOutputStream(OutputStream.nullOutputStream());
+        outputAppender.start();
+
+        final Appender<ILoggingEvent> rootAppender;
+        if ("async".equals(this.appender)) {
+            final AsyncAppender asyncAppender = new AsyncAppender();
+            asyncAppender.setContext(this.loggerContext);
+            asyncAppender.addAppender(outputAppender);
+            asyncAppender.setQueueSize(8192);
+            asyncAppender.setNeverBlock(true);
+            asyncAppender.start();
+            rootAppender = asyncAppender;
+        } else {
+            rootAppender = outputAppender;
+        }
+
+        this.log = this.loggerContext.getLogger(LoggingBenchmark.class);
+        this.log.setLevel(Level.INFO);
+        this.log.setAdditive(false);
+        this.log.addAppender(rootAppender);
+
+        this.basket = new ArrayList<>(this.basketSize);
+        for (int i = 1; i <= this.basketSize; i++) {
+            this.basket.add(new PurchaseProductDTO(i, 2));
+        }
+    }
+
+    @TearDown(org.openjdk.jmh.annotations.Level.Trial)
+    public void tearDown() {
+        this.loggerContext.stop();
+    }
+
+    /**
+     * The whole basket logged by the controller, then two lines per basket line in the service
+     */
+    @Benchmark
+    public void perLineInfoLogging() {
+        this.log.info("Received request to update products: {}", this.basket);
+        for (final PurchaseProductDTO purchase : this.basket) {
+            this.log.info("Updating product {} stock value from {} to {}", purchase.productId(),
+                    100, 100 - purchase.quantity());
+            this.log.info("Product {} stock updated", purchase.productId());
+        }
+    }
+
+    /**
+     * Per line detail at DEBUG behind a level guard, and one INFO summary for the request
+     */
+    @Benchmark
+    public void summaryLogging() {
+        final long startTime = System.nanoTime();
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Received request to update products: {}", this.basket);
+            this.basket.forEach(purchase -> this.log.debug("Product {} stock decremented by {}",
+                    purchase.productId(), purchase.quantity()));
+        }
+        this.log.info("Stock updated for {} products in {} ms", this.basket.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+}
@@ -0,0 +1,186 @@
+package com.shop.generic.productservice.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Drives POST /products/update over HTTP with more concurrent clients than the connection pool
+ * can serve, with the concurrency limits on and then off, and prints the latency seen by the
+ * clients at each level of load. With the limits on, p99 for the purchases that go through should
+ * stay close to the unloaded latency, and the excess should come back as fast 503s. With them off,
+ * every purchase queues on the pool, and p99 grows with the load until requests time out.
+ * <p>
+ * JMH measures throughput of a fixed number of threads, not what happens to latency when the
+ * offered load passes capacity, hence a plain main method. Run with:
+ * <pre>
+ * mvn -Pjmh -DskipTests verify -Djmh.args=none
+ * mvn dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) \
+ *     com.shop.generic.productservice.benchmarks.OverloadHarness
+ * </pre>
+ * Other settings: harness.clients (a comma separated list of concurrent client counts),
+ * harness.duration (how long to run each, as an ISO-8601 duration), harness.poolSize (the Hikari
+ * pool size) and harness.authorization (an Authorization header for the service's security).
+ */
+public final class OverloadHarness {
+
+    private static final int CATALOGUE_SIZE = 1000;
+    //Purchases contend for the same rows, as they do during a sale
+    private static final int HOT_PRODUCTS = 10;
+    private static final Duration WARM_UP = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private OverloadHarness() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int[] clientCounts = Arrays.stream(
+                        System.getProperty("harness.clients", "8,64,256,1024").split(","))
+                .map(String::trim).mapToInt(Integer::parseInt).toArray();
+        final Duration duration = Duration.parse(System.getProperty("harness.duration", "PT10S"));
+        final int poolSize = Integer.getInteger("harness.poolSize", 4);
+        final String authorization = System.getProperty("harness.authorization");
+
+        System.out.printf("%-8s %8s %10s %10s %10s %10s %10s %10s %10s%n", "limits", "clients",
+                "ok/s", "p50 (ms)", "p99 (ms)", "max (ms)", "503/s", "503 p99", "errors");
+        for (final boolean limitsEnabled : new boolean[]{true, false}) {
+            final ConfigurableApplicationContext context = BenchmarkContext.start(CATALOGUE_SIZE,
+                    "product-service.concurrency-limits.enabled=" + limitsEnabled,
+                    "spring.datasource.hikari.maximum-pool-size=" + poolSize,
+                    "spring.datasource.hikari.connection-timeout=5000",
+                    "gsshop-common.auth.enabled=false");
+            try {
+                final URI uri = URI.create("http://localhost:"
+                        + context.getEnvironment().getProperty("local.server.port")
+                        + context.getEnvironment().getProperty("server.servlet.context-path", "")
+                        + "/products/update");
+                final HttpClient client = HttpClient.newBuilder()
+                        .executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+                run(client, uri, authorization, clientCounts[0], WARM_UP);
+                for (final int clients : clientCounts) {
+                    final Results results = run(client, uri, authorization, clients, duration);
+                    final long[] ok = results.accepted();
+                    final long[] rejected = results.rejected();
+                    System.out.printf("%-8s %8d %10d %10s %10s %10s %10d %10s %10d%n",
+                            limitsEnabled ? "on" : "off", clients,
+                            ok.length / Math.max(1, duration.toSeconds()),
+                            millis(ok, 0.5), millis(ok, 0.99), millis(ok, 1),
+                            rejected.length / Math.max(1, duration.toSeconds()),
+                            millis(rejected, 0.99), results.errors());
+                }
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the given number of clients, each sending its next purchase as soon as the last one is
+     * answered, whatever the answer. Clients do not honour Retry-After, so the offered load stays
+     * the same with the limits on and off.
+     */
+    private static Results run(final HttpClient client, final URI uri,
+            final String authorization, final int clients, final Duration duration) {
+        final long deadline = System.nanoTime() + duration.toNanos();
+        final List<Results> perClient = new ArrayList<>(clients);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                final Results results = new Results();
+                perClient.add(results);
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        final long sentAt = System.nanoTime();
+                        try {
+                            final int status = client.send(buildRequest(uri, authorization),
+                                    HttpResponse.BodyHandlers.discarding()).statusCode();
+                            results.record(status, System.nanoTime() - sentAt);
+                        } catch (final IOException e) {
+                            //Counted as an error
+                            results.record(-1, System.nanoTime() - sentAt);
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        final Results merged = new Results();
+        perClient.forEach(merged::addAll);
+        return merged;
+    }
+
+    private static HttpRequest buildRequest(final URI uri, final String authorization) {
+        final int productId = ThreadLocalRandom.current().nextInt(1, HOT_PRODUCTS + 1);
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "[{\"productId\":" + productId + ",\"quantity\":1}]"));
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        return builder.build();
+    }
+
+    private static String millis(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        final int index = Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1);
+        return String.format("%.1f", sorted[index] / 1_000_000.0);
+    }
+
+    /**
+     * Latencies of accepted and rejected purchases, and a count of the rest. Each client records
+     * into its own, so nothing is shared while the clients run
+     */
+    private static final class Results {
+
+        private final List<Long> accepted = new ArrayList<>();
+        private final List<Long> rejected = new ArrayList<>();
+        private long errors;
+
+        void record(final int status, final long latencyNanos) {
+            switch (status) {
+                case 200 -> this.accepted.add(latencyNanos);
+                case 503 -> this.rejected.add(latencyNanos);
+                default -> this.errors++;
+            }
+        }
+
+        void addAll(final Results other) {
+            this.accepted.addAll(other.accepted);
+            this.rejected.addAll(other.rejected);
+            this.errors += other.errors;
+        }
+
+        long[] accepted() {
+            return sorted(this.accepted);
+        }
+
+        long[] rejected() {
+            return sorted(this.rejected);
+        }
+
+        /**
+         * @return requests that got neither a 200 nor a 503, including those that timed out
+         */
+        long errors() {
+            return this.errors;
+        }
+
+        private static long[] sorted(final List<Long> latencies) {
+            return latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.shop.generic.productservice.util.ProductIdIndex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Finding which requested IDs were not returned by the database, with {@link ProductIdIndex}
+ * against the nested stream scan it replaced. A tenth of the requested IDs are missing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductIdIndexBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    private int requestSize;
+
+    private List<Integer> requestedIds;
+    private List<Integer> foundIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.requestedIds = ProductMultiGetBenchmark.randomIds(this.requestSize,
+                Integer.MAX_VALUE - 1);
+        this.foundIds = new ArrayList<>(this.requestedIds.subList(0, this.requestSize * 9 / 10));
+    }
+
+    @Benchmark
+    public void productIdIndex(final Blackhole blackhole) {
+        final ProductIdIndex index = ProductIdIndex.of(this.requestedIds);
+        final boolean[] found = new boolean[index.size()];
+        for (final Integer foundId : this.foundIds) {
+            found[index.indexOf(foundId)] = true;
+        }
+        for (int position = 0; position < found.length; position++) {
+            if (!found[position]) {
+                blackhole.consume(index.idAt(position));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Integer> nestedStreamScan() {
+        return this.requestedIds.stream()
+                .filter(id -> this.foundIds.stream().noneMatch(foundId -> foundId.equals(id)))
+                .toList();
+    }
+}
@@ -0,0 +1,80 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.productservice.cache.ProductCache;
+import com.shop.generic.productservice.services.ProductService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * {@link ProductService#getProductsByIds(List)} against request sizes the order service actually
+ * sends. The uncached variant invalidates the requested products first, so it measures the
+ * database and mapping cost rather than the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductMultiGetBenchmark {
+
+    @Param({"100000"})
+    private int catalogueSize;
+
+    @Param({"10", "100", "1000", "10000"})
+    private int requestSize;
+
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+    private ProductCache productCache;
+    private List<Integer> requestedIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = BenchmarkContext.start(this.catalogueSize);
+        this.productService = this.context.getBean(ProductService.class);
+        this.productCache = this.context.getBean(ProductCache.class);
+        this.requestedIds = randomIds(this.requestSize, this.catalogueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public List<ProductDTO> getProductsByIds() {
+        return this.productService.getProductsByIds(this.requestedIds);
+    }
+
+    @Benchmark
+    public List<ProductDTO> getProductsByIdsUncached() {
+        this.productCache.invalidateAll(this.requestedIds);
+        return this.productService.getProductsByIds(this.requestedIds);
+    }
+
+    static List<Integer> randomIds(final int count, final int maxId) {
+        final List<Integer> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(ThreadLocalRandom.current().nextInt(1, maxId + 1));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,111 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.productservice.repositories.ProductCatalogueRepository.VersionedProduct;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The uncached reads behind {@link com.shop.generic.productservice.services.ProductService}, with
+ * managed entities copied into DTOs as they used to be read against the projections they are read
+ * with now: the JPQL DTO projection for the whole catalogue, and the versioned JDBC reads for
+ * single products and batches. Run with -prof gc and compare gc.alloc.rate.norm, the bytes
+ * allocated per read, between the entity and projection variants.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductProjectionBenchmark {
+
+    @Param({"1000", "100000"})
+    private int catalogueSize;
+
+    @Param({"100"})
+    private int batchSize;
+
+    private ConfigurableApplicationContext context;
+    private ProductRepository productRepository;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = BenchmarkContext.start(this.catalogueSize);
+        this.productRepository = this.context.getBean(ProductRepository.class);
+        this.transactionTemplate = new TransactionTemplate(
+                this.context.getBean(PlatformTransactionManager.class));
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public List<ProductDTO> findAllEntities() {
+        return this.transactionTemplate.execute(status -> this.productRepository.findAll()
+                .stream().map(ProductDTO::new).toList());
+    }
+
+    @Benchmark
+    public List<ProductDTO> findAllProjection() {
+        return this.productRepository.findAllProductDTOs();
+    }
+
+    @Benchmark
+    public ProductDTO findByIdEntity() {
+        return this.transactionTemplate.execute(status -> this.productRepository
+                .findById(randomProductId()).map(ProductDTO::new).orElseThrow());
+    }
+
+    @Benchmark
+    public VersionedProduct findByIdProjection() {
+        return this.productRepository.findVersionedProduct(randomProductId()).orElseThrow();
+    }
+
+    @Benchmark
+    public List<ProductDTO> findBatchEntities() {
+        final List<Integer> productIds = randomProductIds();
+        return this.transactionTemplate.execute(status -> this.productRepository
+                .findAllById(productIds).stream().map(ProductDTO::new).toList());
+    }
+
+    @Benchmark
+    public List<VersionedProduct> findBatchProjection() {
+        return this.productRepository.findVersionedProducts(randomProductIds());
+    }
+
+    private List<Integer> randomProductIds() {
+        final List<Integer> productIds = new ArrayList<>(this.batchSize);
+        for (int i = 0; i < this.batchSize; i++) {
+            productIds.add(randomProductId());
+        }
+        return productIds;
+    }
+
+    private int randomProductId() {
+        return ThreadLocalRandom.current().nextInt(1, this.catalogueSize + 1);
+    }
+}
@@ -0,0 +1,76 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.productservice.cache.ProductCache;
+import com.shop.generic.productservice.services.ProductService;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Single product and full catalogue reads of {@link ProductService}. The uncached variant
+ * invalidates the product it is about to read first, so it measures the database and mapping cost
+ * rather than the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductReadBenchmark {
+
+    @Param({"1000", "100000"})
+    private int catalogueSize;
+
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+    private ProductCache productCache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = BenchmarkContext.start(this.catalogueSize);
+        this.productService = this.context.getBean(ProductService.class);
+        this.productCache = this.context.getBean(ProductCache.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public List<ProductDTO> findAllProducts() {
+        return this.productService.findAllProducts();
+    }
+
+    @Benchmark
+    public ProductDTO retrieveProductById() {
+        return this.productService.retrieveProductById(randomProductId());
+    }
+
+    @Benchmark
+    public ProductDTO retrieveProductByIdUncached() {
+        final int productId = randomProductId();
+        this.productCache.invalidateAll(List.of(productId));
+        return this.productService.retrieveProductById(productId);
+    }
+
+    private int randomProductId() {
+        return ThreadLocalRandom.current().nextInt(1, this.catalogueSize + 1);
+    }
+}
@@ -0,0 +1,117 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.common.rest.response.RestApiResponse;
+import com.shop.generic.productservice.rest.converters.ProductListCodec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The formats a list of products can be sent in: JSON, CBOR and the {@link ProductListCodec}
+ * layout, each as is and gzipped as Tomcat would over the compression threshold. Prints the
+ * payload sizes at the start of each trial. Run with {@code -prof gc} for the allocation per
+ * response alongside the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseFormatBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int productCount;
+
+    @Param({"json", "cbor", "binary"})
+    private String format;
+
+    private final ObjectMapper jsonMapper = JsonMapper.builder().findAndAddModules().build();
+    private final ObjectMapper cborMapper = CBORMapper.builder().findAndAddModules().build();
+    private RestApiResponse<List<ProductDTO>> response;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final List<ProductDTO> products = new ArrayList<>(this.productCount);
+        for (int i = 1; i <= this.productCount; i++) {
+            products.add(new ProductDTO(i, "Product " + i, new BigDecimal("19.99"),
+                    StockStatus.AVAILABLE, 100));
+        }
+        this.response = new RestApiResponse<>(null, null, products, LocalDateTime.now());
+        this.encoded = serialize();
+        System.out.printf("%n%s with %d products: %d bytes, %d gzipped%n", this.format,
+                this.productCount, this.encoded.length, serializeGzipped().length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        write(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serializeGzipped() throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            write(gzipOutputStream);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * The caller's side, reading the products back
+     */
+    @Benchmark
+    public List<ProductDTO> deserialize() throws IOException {
+        return switch (this.format) {
+            case "json" -> this.jsonMapper.readValue(this.encoded, ProductsResponse.class)
+                    .result();
+            case "cbor" -> this.cborMapper.readValue(this.encoded, ProductsResponse.class)
+                    .result();
+            default -> ProductListCodec.decode(new ByteArrayInputStream(this.encoded));
+        };
+    }
+
+    private void write(final OutputStream outputStream) throws IOException {
+        switch (this.format) {
+            case "json" -> this.jsonMapper.writeValue(outputStream, this.response);
+            case "cbor" -> this.cborMapper.writeValue(outputStream, this.response);
+            default -> ProductListCodec.encode(this.response.getResult(), outputStream);
+        }
+    }
+
+    /**
+     * What a caller would read a response into, ignoring everything but the products
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record ProductsResponse(List<ProductDTO> result) {
+
+    }
+}
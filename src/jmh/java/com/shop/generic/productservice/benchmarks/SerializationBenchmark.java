@@ -0,0 +1,71 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.common.rest.response.RestApiResponse;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turning entities into the response body: mapping {@link Product} to {@link ProductDTO}, and
+ * Jackson serialization of the {@link RestApiResponse} the controller returns
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int productCount;
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+    private List<Product> products;
+    private RestApiResponse<List<ProductDTO>> response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.products = new ArrayList<>(this.productCount);
+        for (int i = 1; i <= this.productCount; i++) {
+            final Product product = new Product();
+            product.setProductId(i);
+            product.setName("Product " + i);
+            product.setPrice(new BigDecimal("19.99"));
+            product.setStockStatus(StockStatus.AVAILABLE);
+            product.setStockCount(100);
+            this.products.add(product);
+        }
+        this.response = new RestApiResponse<>(null, null, mapToDTOs(), LocalDateTime.now());
+    }
+
+    @Benchmark
+    public List<ProductDTO> mapToDTOs() {
+        return this.products.stream().map(ProductDTO::new).toList();
+    }
+
+    @Benchmark
+    public byte[] serializeResponse() throws IOException {
+        return this.objectMapper.writeValueAsBytes(this.response);
+    }
+}
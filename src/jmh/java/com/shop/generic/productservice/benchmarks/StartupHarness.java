@@ -0,0 +1,133 @@
+package com.shop.generic.productservice.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures what a rolling deploy feels like, which JMH cannot, as it needs a fresh JVM each time:
+ * how long a new instance takes to serve its first product read once it reports ready, and how
+ * slow its first thousand reads are. Starts the packaged service as a child process several times and
+ * prints the results for each run.
+ * <p>
+ * Compare a plain build against the startup profile, for example:
+ * <pre>
+ * mvn -Pjmh -DskipTests verify -Djmh.args=none
+ * java -cp target/test-classes \
+ *     -Dharness.jar=target/product-service-0.0.1-SNAPSHOT.jar \
+ *     com.shop.generic.productservice.benchmarks.StartupHarness
+ * mvn -Pstartup -DskipTests package
+ * java -cp target/test-classes \
+ *     -Dharness.jar=target/cds/product-service-0.0.1-SNAPSHOT.jar \
+ *     "-Dharness.jvmArgs=-XX:SharedArchiveFile=target/cds/application.jsa
+ *     -Dspring.aot.enabled=true -Dspring.profiles.active=startup" \
+ *     com.shop.generic.productservice.benchmarks.StartupHarness
+ * </pre>
+ * Other settings: harness.runs, harness.port, harness.path (the read to time, relative to the
+ * context path) and harness.authorization (an Authorization header for the service's security).
+ */
+public final class StartupHarness {
+
+    private static final int MEASURED_REQUESTS = 1000;
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    private StartupHarness() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Path jar = Path.of(System.getProperty("harness.jar"));
+        final List<String> jvmArgs = Arrays.stream(
+                        System.getProperty("harness.jvmArgs", "").split("\\s+"))
+                .filter(arg -> !arg.isBlank()).toList();
+        final int runs = Integer.getInteger("harness.runs", 5);
+        final int port = Integer.getInteger("harness.port", 18081);
+        final String baseUri = "http://localhost:" + port + "/product-service";
+        final URI uri = URI.create(baseUri + System.getProperty("harness.path", "/products/1"));
+        final URI readinessUri = URI.create(baseUri + "/actuator/health/readiness");
+        final String authorization = System.getProperty("harness.authorization");
+
+        System.out.printf("%-4s %22s %10s %10s %10s %10s%n", "run", "first request (ms)",
+                "p50 (us)", "p99 (us)", "max (us)", "total (ms)");
+        for (int run = 1; run <= runs; run++) {
+            final List<String> command = new ArrayList<>(List.of(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+            command.addAll(jvmArgs);
+            //The local profile seeds sample products to read
+            command.addAll(List.of("-jar", jar.toString(), "--server.port=" + port,
+                    "--spring.profiles.include=local"));
+            final long startedAt = System.nanoTime();
+            final Process process = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            try {
+                final HttpClient client = HttpClient.newHttpClient();
+                final HttpRequest request = buildRequest(uri, authorization);
+                //Like a load balancer, only send traffic once the instance reports ready
+                awaitSuccess(client, buildRequest(readinessUri, authorization), startedAt);
+                final long firstRequestNanos = awaitSuccess(client, request, startedAt)
+                        - startedAt;
+
+                final long[] latencies = new long[MEASURED_REQUESTS];
+                final long measuringFrom = System.nanoTime();
+                for (int i = 0; i < MEASURED_REQUESTS; i++) {
+                    final long requestedAt = System.nanoTime();
+                    client.send(request, HttpResponse.BodyHandlers.discarding());
+                    latencies[i] = System.nanoTime() - requestedAt;
+                }
+                final long totalNanos = System.nanoTime() - measuringFrom;
+                Arrays.sort(latencies);
+
+                System.out.printf("%-4d %22d %10d %10d %10d %10d%n", run,
+                        firstRequestNanos / 1_000_000, percentile(latencies, 0.5) / 1000,
+                        percentile(latencies, 0.99) / 1000,
+                        latencies[latencies.length - 1] / 1000, totalNanos / 1_000_000);
+            } finally {
+                process.destroy();
+                process.waitFor();
+            }
+        }
+    }
+
+    private static HttpRequest buildRequest(final URI uri, final String authorization) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(uri).GET();
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Polls until the service answers the request successfully. Connection failures just mean it
+     * is not listening yet.
+     *
+     * @return when the first successful response arrived, in {@link System#nanoTime()} terms
+     */
+    private static long awaitSuccess(final HttpClient client, final HttpRequest request,
+            final long startedAt) throws InterruptedException {
+        while (System.nanoTime() - startedAt < STARTUP_TIMEOUT.toNanos()) {
+            try {
+                final HttpResponse<Void> response = client.send(request,
+                        HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() / 100 == 2) {
+                    return System.nanoTime();
+                }
+            } catch (final IOException e) {
+                //Not listening yet
+            }
+            Thread.sleep(5);
+        }
+        throw new IllegalStateException("The service did not answer within " + STARTUP_TIMEOUT);
+    }
+
+    private static long percentile(final long[] sorted, final double percentile) {
+        return sorted[(int) Math.ceil(percentile * sorted.length) - 1];
+    }
+}
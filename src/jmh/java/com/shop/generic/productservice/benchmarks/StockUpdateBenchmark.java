@@ -0,0 +1,104 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.services.ProductService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * {@link ProductService#updateProductsStock(List)} against the per-line findById and update loop
+ * it replaced. Baskets are drawn from a small set of hot products so concurrent threads contend
+ * for the same rows, as they do during a sale. Run with -t to change the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class StockUpdateBenchmark {
+
+    @Param({"1000"})
+    private int catalogueSize;
+
+    @Param({"10"})
+    private int hotProducts;
+
+    @Param({"1", "10", "100", "1000"})
+    private int basketSize;
+
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+    private ProductRepository productRepository;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = BenchmarkContext.start(this.catalogueSize);
+        this.productService = this.context.getBean(ProductService.class);
+        this.productRepository = this.context.getBean(ProductRepository.class);
+        this.transactionTemplate = this.context.getBean(TransactionTemplate.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public void updateProductsStock() {
+        this.productService.updateProductsStock(randomBasket());
+    }
+
+    /**
+     * The original implementation: read each product, subtract in Java and write the result back.
+     * Lines are sorted so the baseline does not deadlock, which the original could. It also loses
+     * updates under contention, so it is only here for its cost.
+     */
+    @Benchmark
+    public void legacyReadModifyWriteLoop() {
+        final List<PurchaseProductDTO> basket = randomBasket();
+        basket.sort((a, b) -> Integer.compare(a.productId(), b.productId()));
+        this.transactionTemplate.executeWithoutResult(status -> {
+            for (final PurchaseProductDTO purchase : basket) {
+                final Product product = this.productRepository.findById(purchase.productId())
+                        .orElseThrow();
+                this.productRepository.updateStockCountByProductId(
+                        product.getStockCount() - purchase.quantity(), purchase.productId());
+            }
+        });
+    }
+
+    private List<PurchaseProductDTO> randomBasket() {
+        final List<PurchaseProductDTO> basket = new ArrayList<>(this.basketSize);
+        for (int i = 0; i < this.basketSize; i++) {
+            //Mostly hot products, with the rest of the basket spread over the catalogue
+            final int productId = i % 2 == 0
+                    ? ThreadLocalRandom.current().nextInt(1, this.hotProducts + 1)
+                    : ThreadLocalRandom.current().nextInt(1, this.catalogueSize + 1);
+            basket.add(new PurchaseProductDTO(productId, 1));
+        }
+        return basket;
+    }
+}
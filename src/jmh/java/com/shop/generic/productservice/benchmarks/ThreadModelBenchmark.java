@@ -0,0 +1,120 @@
+package com.shop.generic.productservice.benchmarks;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Tomcat on platform threads, the default pool of 200, against a virtual thread per request, with
+ * and without the gate in front of the connection pool. Each operation sends a burst of
+ * concurrent requests over HTTP to one endpoint and waits for every answer, so the score is how
+ * long a burst of that size takes to clear. The concurrency limits are off, so every request is
+ * served however long it waits.
+ * <p>
+ * Watch /actuator/pinning, or the product.virtual.thread.pinned timer, during the virtual thread
+ * runs to see whether the JDBC driver pins carrier threads under load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ThreadModelBenchmark {
+
+    private static final int CATALOGUE_SIZE = 10_000;
+    //Purchases contend for the same rows, as they do during a sale
+    private static final int HOT_PRODUCTS = 10;
+
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    @Param({"false", "true"})
+    private boolean dataSourceGate;
+
+    @Param({"100", "1000"})
+    private int concurrency;
+
+    private ConfigurableApplicationContext context;
+    private ExecutorService clientExecutor;
+    private HttpClient client;
+    private String baseUri;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = BenchmarkContext.start(CATALOGUE_SIZE,
+                "spring.threads.virtual.enabled=" + this.virtualThreads,
+                "product-service.datasource-gate.enabled=" + this.dataSourceGate,
+                "product-service.concurrency-limits.enabled=false",
+                "gsshop-common.auth.enabled=false");
+        this.baseUri = "http://localhost"
+                + ":" + this.context.getEnvironment().getProperty("local.server.port")
+                + this.context.getEnvironment().getProperty("server.servlet.context-path", "");
+        this.clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.client = HttpClient.newBuilder().executor(this.clientExecutor).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.clientExecutor.close();
+        this.context.close();
+    }
+
+    @Benchmark
+    public int readProducts() {
+        return burst(() -> HttpRequest.newBuilder(URI.create(this.baseUri + "/products/"
+                + ThreadLocalRandom.current().nextInt(1, CATALOGUE_SIZE + 1))).GET().build());
+    }
+
+    @Benchmark
+    public int updateStock() {
+        return burst(() -> HttpRequest.newBuilder(URI.create(this.baseUri + "/products/update"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("[{\"productId\":"
+                        + ThreadLocalRandom.current().nextInt(1, HOT_PRODUCTS + 1)
+                        + ",\"quantity\":1}]"))
+                .build());
+    }
+
+    /**
+     * @return how many requests succeeded, which should be all of them
+     */
+    private int burst(final Supplier<HttpRequest> requests) {
+        final List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(
+                this.concurrency);
+        for (int i = 0; i < this.concurrency; i++) {
+            responses.add(this.client.sendAsync(requests.get(),
+                    HttpResponse.BodyHandlers.discarding()));
+        }
+        int succeeded = 0;
+        for (final CompletableFuture<HttpResponse<Void>> response : responses) {
+            if (response.join().statusCode() == 200) {
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+}
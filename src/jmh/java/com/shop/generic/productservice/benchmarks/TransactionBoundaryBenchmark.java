@@ -0,0 +1,141 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.productservice.services.ProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * A stock update request under high concurrency against a small connection pool, with the
+ * transaction around the whole request as the controller used to have it, against the
+ * transaction around just the database work in the service with connections only taken at the
+ * first statement. Each request spends some time reading its body and writing its response, as it
+ * would on a real network.
+ * <p>
+ * Throughput is reported by JMH. The time spent waiting for a pooled connection, from the
+ * hikaricp.connections.acquire timer, is printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class TransactionBoundaryBenchmark {
+
+    private static final TypeReference<List<PurchaseProductDTO>> BASKET_TYPE =
+            new TypeReference<>() {
+            };
+
+    @Param({"1000"})
+    private int catalogueSize;
+
+    @Param({"10"})
+    private int poolSize;
+
+    @Param({"request", "service"})
+    private String transactionBoundary;
+
+    @Param({"1"})
+    private int requestIoMillis;
+
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+    private ObjectMapper objectMapper;
+    private TransactionTemplate transactionTemplate;
+    private MeterRegistry meterRegistry;
+    private long acquireCountBefore;
+    private double acquireNanosBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final boolean requestBoundary = "request".equals(this.transactionBoundary);
+        this.context = BenchmarkContext.start(this.catalogueSize,
+                "spring.datasource.hikari.maximum-pool-size=" + this.poolSize,
+                //Without lazy connections each transaction takes its connection up front
+                "product-service.lazy-connections.enabled=" + !requestBoundary);
+        this.productService = this.context.getBean(ProductService.class);
+        this.objectMapper = this.context.getBean(ObjectMapper.class);
+        this.transactionTemplate = new TransactionTemplate(
+                this.context.getBean(PlatformTransactionManager.class));
+        this.meterRegistry = this.context.getBean(MeterRegistry.class);
+        final Timer acquire = acquireTimer();
+        this.acquireCountBefore = acquire.count();
+        this.acquireNanosBefore = acquire.totalTime(TimeUnit.NANOSECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        final Timer acquire = acquireTimer();
+        final long acquisitions = acquire.count() - this.acquireCountBefore;
+        final double waitNanos = acquire.totalTime(TimeUnit.NANOSECONDS) - this.acquireNanosBefore;
+        System.out.printf("%nPool wait with the transaction around the %s: %d acquisitions, "
+                        + "mean %.1f µs, max %.1f µs%n", this.transactionBoundary, acquisitions,
+                acquisitions == 0 ? 0 : waitNanos / acquisitions / 1000,
+                acquire.max(TimeUnit.MICROSECONDS));
+        this.context.close();
+    }
+
+    @Benchmark
+    public byte[] updateProducts() throws Exception {
+        final byte[] body = this.objectMapper.writeValueAsBytes(randomBasket());
+        if ("request".equals(this.transactionBoundary)) {
+            return this.transactionTemplate.execute(status -> {
+                try {
+                    return handleRequest(body);
+                } catch (final IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        return handleRequest(body);
+    }
+
+    private byte[] handleRequest(final byte[] body) throws IOException, InterruptedException {
+        Thread.sleep(this.requestIoMillis);
+        this.productService.updateProductsStock(this.objectMapper.readValue(body, BASKET_TYPE));
+        final byte[] response = this.objectMapper.writeValueAsBytes(
+                Map.of("message", "Product stock successfully updated"));
+        Thread.sleep(this.requestIoMillis);
+        return response;
+    }
+
+    private List<PurchaseProductDTO> randomBasket() {
+        final List<PurchaseProductDTO> basket = new ArrayList<>(3);
+        for (int i = 0; i < 3; i++) {
+            basket.add(new PurchaseProductDTO(
+                    ThreadLocalRandom.current().nextInt(1, this.catalogueSize + 1), 1));
+        }
+        return basket;
+    }
+
+    private Timer acquireTimer() {
+        return this.meterRegistry.get("hikaricp.connections.acquire").timer();
+    }
+}
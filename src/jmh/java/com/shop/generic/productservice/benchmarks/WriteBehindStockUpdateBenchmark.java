@@ -0,0 +1,84 @@
+package com.shop.generic.productservice.benchmarks;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.productservice.services.ProductService;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * {@link ProductService#updateProductsStock(List)} with stock written straight to the database
+ * against the write-behind ledger, with every thread buying from the same few hot products as
+ * during a flash sale. The journal is written to a temporary directory, so put java.io.tmpdir on
+ * the disk being measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class WriteBehindStockUpdateBenchmark {
+
+    @Param({"1000"})
+    private int catalogueSize;
+
+    @Param({"1", "10"})
+    private int hotProducts;
+
+    @Param({"1", "10"})
+    private int basketSize;
+
+    @Param({"false", "true"})
+    private boolean writeBehind;
+
+    private Path journalDirectory;
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.journalDirectory = Files.createTempDirectory("stock-journal");
+        this.context = BenchmarkContext.start(this.catalogueSize,
+                "product-service.stock-ledger.enabled=" + this.writeBehind,
+                "product-service.stock-ledger.journal-directory=" + this.journalDirectory);
+        this.productService = this.context.getBean(ProductService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.context.close();
+        FileSystemUtils.deleteRecursively(this.journalDirectory);
+    }
+
+    @Benchmark
+    public void updateProductsStock() {
+        final List<PurchaseProductDTO> basket = new ArrayList<>(this.basketSize);
+        for (int i = 0; i < this.basketSize; i++) {
+            basket.add(new PurchaseProductDTO(
+                    ThreadLocalRandom.current().nextInt(1, this.hotProducts + 1), 1));
+        }
+        this.productService.updateProductsStock(basket);
+    }
+}
@@ -5,10 +5,12 @@ import com.shop.generic.common.CommonKafkaProducerAutoConfiguration;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication(exclude = {CommonKafkaProducerAutoConfiguration.class,
         CommonKafkaConsumerAutoConfiguration.class})
 @EntityScan("com.shop.generic.common.entities")
+@ConfigurationPropertiesScan
 public class ProductServiceApplication {
 
     public static void main(final String[] args) {
@@ -0,0 +1,281 @@
+package com.shop.generic.productservice.cache;
+
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.config.CatalogueProperties;
+import com.shop.generic.productservice.events.ProductStockUpdatedEvent;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Which products are in stock, held in memory as one bit per product ID, so that checking the
+ * availability of thousands of products never touches the database. Product IDs come from a
+ * sequence and so are dense, which makes a plain bitset as compact as anything cleverer: a million
+ * products take 125KB.
+ * <p>
+ * The index is built from a single scan of the available product IDs on startup, before the web
+ * server takes requests, and every committed stock update then queues the products it touched to
+ * be refreshed from the database. A single background thread works through the queue, so the
+ * purchase that committed never waits for the database or the index, and a product updated many
+ * times before its turn comes is only read once. Refreshes run one at a time and each re-reads the
+ * products after their updates committed, so a slow refresh can never overwrite a newer state with
+ * an older one. Readers never wait for either, but may see a product's availability from just
+ * before its latest update until the refresh lands.
+ * <p>
+ * The whole index is rebuilt periodically, to pick up products added or restocked outside the
+ * service. Products refreshed while a rebuild is scanning are queued again once it is swapped in,
+ * so no update is lost to the scan.
+ */
+@Component
+@Slf4j
+public class AvailabilityIndex implements SmartLifecycle {
+
+    private final ProductRepository productRepository;
+    private final TransactionTemplate scanTransactionTemplate;
+    private final int fetchSize;
+    private final int chunkSize;
+    //Serialises every write to the bits, and guards changedDuringRebuild
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    //Held from taking products off the queue until their refresh has been applied
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private final Set<Integer> pendingRefreshes = ConcurrentHashMap.newKeySet();
+    //Released whenever products are queued, to wake the refresh thread
+    private final Semaphore refreshesQueued = new Semaphore(0);
+    //Bit n of word n / 64 is set when product n is available, the same layout as BitSet
+    private volatile AtomicLongArray bits = new AtomicLongArray(0);
+    //Products refreshed while a rebuild is scanning, or null when no rebuild is running
+    private Set<Integer> changedDuringRebuild;
+    private volatile Thread refreshWorker;
+
+    public AvailabilityIndex(final ProductRepository productRepository,
+            final CatalogueProperties catalogueProperties,
+            final PlatformTransactionManager transactionManager) {
+        this.productRepository = productRepository;
+        this.fetchSize = catalogueProperties.streamFetchSize();
+        this.chunkSize = catalogueProperties.lookupChunkSize();
+        this.scanTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.scanTransactionTemplate.setReadOnly(true);
+    }
+
+    public boolean isAvailable(final int productId) {
+        return isSet(this.bits, productId);
+    }
+
+    /**
+     * @return one bit per requested product, set if the product exists and is in stock. The bit
+     * for {@code productIds[i]} is bit {@code 7 - i % 8} of byte {@code i / 8}, so the first
+     * product is the most significant bit of the first byte
+     */
+    public byte[] availability(final int[] productIds) {
+        final AtomicLongArray current = this.bits;
+        final byte[] packed = new byte[(productIds.length + 7) / 8];
+        for (int i = 0; i < productIds.length; i++) {
+            if (isSet(current, productIds[i])) {
+                packed[i >>> 3] |= (byte) (0x80 >>> (i & 7));
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Only queues the products once the update has committed, the refresh itself happens on the
+     * refresh thread
+     */
+    @TransactionalEventListener
+    public void onProductStockUpdated(final ProductStockUpdatedEvent event) {
+        queueRefresh(event.productIds());
+    }
+
+    /**
+     * Re-reads the stock status of every queued product from the database, on the calling thread.
+     * Once it returns, every product queued before it was called has been refreshed, including
+     * any the refresh thread was already part way through.
+     */
+    public void refreshPending() {
+        this.refreshLock.lock();
+        try {
+            final List<Integer> productIds = new ArrayList<>();
+            final Iterator<Integer> pending = this.pendingRefreshes.iterator();
+            while (pending.hasNext()) {
+                productIds.add(pending.next());
+                pending.remove();
+            }
+            if (!productIds.isEmpty()) {
+                refresh(productIds);
+            }
+        } finally {
+            this.refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the index with a fresh scan of the available products. Lookups carry on against
+     * the old index until the new one is complete.
+     */
+    @Scheduled(fixedDelayString = "${product-service.availability.rebuild-interval:PT5M}",
+            initialDelayString = "${product-service.availability.rebuild-interval:PT5M}")
+    public void rebuild() {
+        this.rebuildLock.lock();
+        try {
+            this.writeLock.lock();
+            try {
+                this.changedDuringRebuild = new HashSet<>();
+            } finally {
+                this.writeLock.unlock();
+            }
+
+            AtomicLongArray rebuilt = null;
+            try {
+                rebuilt = scan();
+            } finally {
+                this.writeLock.lock();
+                try {
+                    final List<Integer> changed = List.copyOf(this.changedDuringRebuild);
+                    this.changedDuringRebuild = null;
+                    if (rebuilt != null) {
+                        this.bits = rebuilt;
+                        queueRefresh(changed);
+                    }
+                } finally {
+                    this.writeLock.unlock();
+                }
+            }
+        } finally {
+            this.rebuildLock.unlock();
+        }
+    }
+
+    @Override
+    public void start() {
+        rebuild();
+        log.info("Built the availability index");
+        this.refreshWorker = Thread.ofPlatform().name("availability-refresh").daemon()
+                .start(this::refreshWhenQueued);
+    }
+
+    @Override
+    public void stop() {
+        final Thread thread = this.refreshWorker;
+        this.refreshWorker = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.refreshWorker != null;
+    }
+
+    /**
+     * Starts before the web server, so the first requests see every product
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    private AtomicLongArray scan() {
+        final BitSet available = new BitSet();
+        this.scanTransactionTemplate.executeWithoutResult(status -> this.productRepository
+                .streamProductIdsByStockStatus(StockStatus.AVAILABLE, this.fetchSize,
+                        available::set));
+        return new AtomicLongArray(available.toLongArray());
+    }
+
+    private void queueRefresh(final List<Integer> productIds) {
+        this.pendingRefreshes.addAll(productIds);
+        this.refreshesQueued.release();
+    }
+
+    private void refreshWhenQueued() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                this.refreshesQueued.acquire();
+            } catch (final InterruptedException e) {
+                return;
+            }
+            //Everything queued so far is picked up by this refresh
+            this.refreshesQueued.drainPermits();
+            try {
+                refreshPending();
+            } catch (final RuntimeException e) {
+                log.error("Could not refresh the availability of products, they will be corrected "
+                        + "by the next rebuild", e);
+            }
+        }
+    }
+
+    /**
+     * Must hold the refresh lock. The database is read without the write lock, which is only
+     * taken to apply what was read
+     */
+    private void refresh(final List<Integer> productIds) {
+        for (int from = 0; from < productIds.size(); from += this.chunkSize) {
+            final List<Integer> chunk = productIds.subList(from,
+                    Math.min(from + this.chunkSize, productIds.size()));
+            final Set<Integer> available = new HashSet<>(this.productRepository
+                    .findProductIdsByStockStatus(StockStatus.AVAILABLE, chunk));
+            this.writeLock.lock();
+            try {
+                chunk.forEach(productId -> set(productId, available.contains(productId)));
+                if (this.changedDuringRebuild != null) {
+                    this.changedDuringRebuild.addAll(chunk);
+                }
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Must hold the write lock. Words are only ever written under the lock, so a plain get and set
+     * is enough, and growing the array copies a consistent snapshot
+     */
+    private void set(final int productId, final boolean available) {
+        if (productId < 0) {
+            return;
+        }
+        final int word = productId >>> 6;
+        AtomicLongArray current = this.bits;
+        if (word >= current.length()) {
+            if (!available) {
+                return;
+            }
+            final AtomicLongArray grown = new AtomicLongArray(
+                    Math.max(word + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            this.bits = grown;
+            current = grown;
+        }
+        final long mask = 1L << productId;
+        final long value = current.get(word);
+        current.set(word, available ? value | mask : value & ~mask);
+    }
+
+    private static boolean isSet(final AtomicLongArray words, final int productId) {
+        if (productId < 0) {
+            return false;
+        }
+        final int word = productId >>> 6;
+        return word < words.length() && (words.get(word) & (1L << productId)) != 0;
+    }
+}
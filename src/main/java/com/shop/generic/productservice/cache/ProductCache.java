@@ -0,0 +1,143 @@
+package com.shop.generic.productservice.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.shop.generic.productservice.config.ProductCacheProperties;
+import com.shop.generic.productservice.events.ProductStockUpdatedEvent;
+import com.shop.generic.productservice.repositories.ProductCatalogueRepository.VersionedProduct;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Bounded, read-through cache of products, sitting in front of the product repository. Each
+ * product is cached with the version it was read at, so a cached product's ETag can be worked out
+ * without going to the database.
+ * <p>
+ * A reader can load a product from the database just before a stock update commits and try to
+ * cache it just after the update invalidated it, which would leave a stale entry behind. To stop
+ * that, callers take a {@link #currentStamp(int) stamp} before reading from the database, and the
+ * value is only cached if the product has not been invalidated since. The check and the write
+ * happen atomically for the key, and invalidations bump the stamp before removing entries, so an
+ * invalidation either makes the write a no-op or removes what it wrote.
+ * <p>
+ * Stamps, and the updates in flight, are kept per stripe of product IDs rather than for the whole
+ * cache. Under a steady stream of purchases a single stamp would hardly ever be unchanged by the
+ * time a read finished, so almost nothing would be cached. A purchase now only holds back the
+ * products that share a stripe with the ones it bought.
+ * <p>
+ * Updated products are invalidated twice: just before the update commits, and again once it has
+ * finished. Nothing is cached in between, so once an update has committed a reader can never be
+ * served the product as it was before, even while the update is still finishing. This is what
+ * lets the versions of uncached products be read before the products themselves, for an ETag.
+ */
+@Component
+@Slf4j
+public class ProductCache implements MeterBinder {
+
+    private static final int STRIPES = 1024;
+
+    private final Cache<Integer, VersionedProduct> cache;
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+    //Updates per stripe that are committing or have committed, but have not finished yet
+    private final AtomicIntegerArray updatesInFlight = new AtomicIntegerArray(STRIPES);
+
+    public ProductCache(final ProductCacheProperties properties) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.maximumSize())
+                .expireAfterWrite(properties.ttl())
+                .recordStats()
+                .build();
+    }
+
+    public Optional<VersionedProduct> get(final int productId) {
+        return Optional.ofNullable(this.cache.getIfPresent(productId));
+    }
+
+    /**
+     * @return the cached products among the given IDs, keyed by product ID. IDs that are not
+     * cached are left out
+     */
+    public Map<Integer, VersionedProduct> getAll(final Collection<Integer> productIds) {
+        return this.cache.getAllPresent(productIds);
+    }
+
+    /**
+     * @return a stamp to take before reading the product from the database, and pass back to
+     * {@link #put(int, VersionedProduct, long)}. It changes whenever the product, or another in
+     * the same stripe, is invalidated
+     */
+    public long currentStamp(final int productId) {
+        return this.invalidations.get(stripe(productId));
+    }
+
+    /**
+     * Caches a product read from the database, unless it, or another product in its stripe, was
+     * invalidated after the stamp was taken or has an update part way through committing
+     */
+    public void put(final int productId, final VersionedProduct product, final long stamp) {
+        final int stripe = stripe(productId);
+        this.cache.asMap().compute(productId, (id, existing) ->
+                this.invalidations.get(stripe) == stamp && this.updatesInFlight.get(stripe) == 0
+                        ? product : existing);
+    }
+
+    public void invalidateAll(final Collection<Integer> productIds) {
+        for (final int stripe : stripes(productIds)) {
+            this.invalidations.incrementAndGet(stripe);
+        }
+        this.cache.invalidateAll(productIds);
+    }
+
+    public CacheStats stats() {
+        return this.cache.stats();
+    }
+
+    /**
+     * Publishes the hit, miss and eviction counts as {@code cache.*} metrics
+     */
+    @Override
+    public void bindTo(final MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, this.cache, "products");
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+    public void onProductStockUpdated(final ProductStockUpdatedEvent event) {
+        log.debug("Invalidating cached products {}", event.productIds());
+        final int[] stripes = stripes(event.productIds());
+        for (final int stripe : stripes) {
+            this.updatesInFlight.incrementAndGet(stripe);
+        }
+        invalidateAll(event.productIds());
+        TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(final int status) {
+                        invalidateAll(event.productIds());
+                        for (final int stripe : stripes) {
+                            ProductCache.this.updatesInFlight.decrementAndGet(stripe);
+                        }
+                    }
+                });
+    }
+
+    private static int stripe(final int productId) {
+        return Math.floorMod(productId, STRIPES);
+    }
+
+    private static int[] stripes(final Collection<Integer> productIds) {
+        return productIds.stream().mapToInt(ProductCache::stripe).distinct().toArray();
+    }
+}
@@ -0,0 +1,21 @@
+package com.shop.generic.productservice.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for reading the full product catalogue
+ *
+ * @param defaultPageSize the page size used when a request does not ask for one
+ * @param maxPageSize     the largest page size a request can ask for
+ * @param streamFetchSize the number of rows the JDBC driver fetches at a time when streaming
+ * @param lookupChunkSize the most product IDs to put in a single database lookup, to stay within
+ *                        the database's limit on IN list size
+ */
+@ConfigurationProperties("product-service.catalogue")
+public record CatalogueProperties(@DefaultValue("100") int defaultPageSize,
+                                  @DefaultValue("1000") int maxPageSize,
+                                  @DefaultValue("500") int streamFetchSize,
+                                  @DefaultValue("1000") int lookupChunkSize) {
+
+}
@@ -0,0 +1,43 @@
+package com.shop.generic.productservice.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for the adaptive concurrency limits in front of the product endpoints
+ *
+ * @param enabled  whether requests over the limit are turned away
+ * @param read     the limit on product reads and catalogue pages
+ * @param bulkRead the limit on reads of the whole catalogue and of large batches of products
+ * @param write    the limit on stock updates and reservations
+ */
+@ConfigurationProperties("product-service.concurrency-limits")
+public record ConcurrencyLimitProperties(@DefaultValue("true") boolean enabled,
+                                         @DefaultValue Limit read,
+                                         @DefaultValue Limit bulkRead,
+                                         @DefaultValue Limit write) {
+
+    /**
+     * @param initialLimit     how many requests may run at once on startup
+     * @param minLimit         the limit never backs off below this
+     * @param maxLimit         the limit never grows above this
+     * @param latencyThreshold a request slower than this is taken as a sign of overload, and
+     *                         backs the limit off
+     * @param backoffRatio     what the limit is multiplied by when it backs off
+     * @param maxQueueSize     how many requests may wait for a slot once the limit is reached
+     * @param maxQueueTime     the longest a request waits for a slot before it is turned away
+     * @param retryAfter       how long turned away callers are asked to wait before retrying, at
+     *                         the least
+     */
+    public record Limit(@DefaultValue("20") int initialLimit,
+                        @DefaultValue("2") int minLimit,
+                        @DefaultValue("200") int maxLimit,
+                        @DefaultValue("250ms") Duration latencyThreshold,
+                        @DefaultValue("0.9") double backoffRatio,
+                        @DefaultValue("50") int maxQueueSize,
+                        @DefaultValue("50ms") Duration maxQueueTime,
+                        @DefaultValue("1s") Duration retryAfter) {
+
+    }
+}
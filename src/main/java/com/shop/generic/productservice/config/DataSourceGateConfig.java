@@ -0,0 +1,95 @@
+package com.shop.generic.productservice.config;
+
+import com.shop.generic.productservice.util.GatedDataSource;
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceUnwrapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Puts a {@link GatedDataSource} in front of the connection pool, sized to match it
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = "product-service.datasource-gate", name = "enabled",
+        havingValue = "true", matchIfMissing = true)
+public class DataSourceGateConfig {
+
+    //Used when the pool's size cannot be read, which is Hikari's default
+    private static final int DEFAULT_PERMITS = 10;
+
+    /**
+     * Static, and with the properties looked up lazily, so that creating the post processor does
+     * not bring other beans into being before every post processor is ready for them
+     */
+    @Bean
+    static BeanPostProcessor dataSourceGateBeanPostProcessor(
+            final ObjectProvider<DataSourceGateProperties> dataSourceGateProperties) {
+        return new DataSourceGateBeanPostProcessor(dataSourceGateProperties);
+    }
+
+    /**
+     * Other data sources, such as {@link LazyConnectionConfig}'s, may be put in front
+     */
+    @Bean
+    MeterBinder dataSourceGateMetrics(final DataSource dataSource) {
+        return meterRegistry -> {
+            final GatedDataSource gatedDataSource = DataSourceUnwrapper.unwrap(dataSource,
+                    GatedDataSource.class);
+            if (gatedDataSource != null) {
+                Gauge.builder("product.datasource.gate.waiting", gatedDataSource,
+                                GatedDataSource::waiting)
+                        .description("Threads waiting for a database connection")
+                        .register(meterRegistry);
+                Gauge.builder("product.datasource.gate.available", gatedDataSource,
+                                GatedDataSource::availablePermits)
+                        .description("Database connections free to be taken")
+                        .register(meterRegistry);
+            }
+        };
+    }
+
+    /**
+     * Ordered, so it wraps the pool before {@link LazyConnectionConfig}'s post processor wraps
+     * the result
+     */
+    private static final class DataSourceGateBeanPostProcessor implements BeanPostProcessor,
+            Ordered {
+
+        private final ObjectProvider<DataSourceGateProperties> dataSourceGateProperties;
+
+        private DataSourceGateBeanPostProcessor(
+                final ObjectProvider<DataSourceGateProperties> dataSourceGateProperties) {
+            this.dataSourceGateProperties = dataSourceGateProperties;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+            if (!(bean instanceof final DataSource dataSource)
+                    || bean instanceof GatedDataSource) {
+                return bean;
+            }
+            final DataSourceGateProperties properties = this.dataSourceGateProperties.getObject();
+            return new GatedDataSource(dataSource, properties.permits() > 0
+                    ? properties.permits() : poolSize(dataSource), properties.acquireTimeout());
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.LOWEST_PRECEDENCE - 1;
+        }
+    }
+
+    private static int poolSize(final DataSource dataSource) {
+        final HikariConfigMXBean hikari = DataSourceUnwrapper.unwrap(dataSource,
+                HikariConfigMXBean.class, HikariDataSource.class);
+        return hikari != null ? hikari.getMaximumPoolSize() : DEFAULT_PERMITS;
+    }
+}
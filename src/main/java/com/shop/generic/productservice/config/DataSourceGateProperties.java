@@ -0,0 +1,20 @@
+package com.shop.generic.productservice.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for the gate in front of the connection pool
+ *
+ * @param enabled        whether connections are taken through the gate
+ * @param permits        how many connections may be out at once. Zero matches the pool's maximum
+ *                       size
+ * @param acquireTimeout the longest to wait for a connection before giving up
+ */
+@ConfigurationProperties("product-service.datasource-gate")
+public record DataSourceGateProperties(@DefaultValue("true") boolean enabled,
+                                       @DefaultValue("0") int permits,
+                                       @DefaultValue("5s") Duration acquireTimeout) {
+
+}
@@ -0,0 +1,15 @@
+package com.shop.generic.productservice.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for idempotent stock updates
+ *
+ * @param ttl how long a key is remembered, and so how long a caller can safely retry with it
+ */
+@ConfigurationProperties("product-service.idempotency")
+public record IdempotencyProperties(@DefaultValue("24h") Duration ttl) {
+
+}
@@ -0,0 +1,45 @@
+package com.shop.generic.productservice.config;
+
+import com.shop.generic.productservice.util.LazyConnectionDataSource;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Puts a {@link LazyConnectionDataSource} in front of everything else, including the datasource
+ * gate, so a gate permit is only taken along with the real connection
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = "product-service.lazy-connections", name = "enabled",
+        havingValue = "true", matchIfMissing = true)
+public class LazyConnectionConfig {
+
+    @Bean
+    static BeanPostProcessor lazyConnectionBeanPostProcessor() {
+        return new LazyConnectionBeanPostProcessor();
+    }
+
+    /**
+     * Ordered last, after {@link DataSourceGateConfig}'s post processor has wrapped the pool
+     */
+    private static final class LazyConnectionBeanPostProcessor implements BeanPostProcessor,
+            Ordered {
+
+        @Override
+        public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+            if (!(bean instanceof final DataSource dataSource)
+                    || bean instanceof LazyConnectionDataSource) {
+                return bean;
+            }
+            return new LazyConnectionDataSource(dataSource);
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.LOWEST_PRECEDENCE;
+        }
+    }
+}
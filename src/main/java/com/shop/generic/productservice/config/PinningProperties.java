@@ -0,0 +1,26 @@
+package com.shop.generic.productservice.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for detecting virtual threads pinned to their carrier threads
+ *
+ * @param enabled    whether to watch for pinned virtual threads
+ * @param threshold  how long a virtual thread must stay pinned while blocked to be reported.
+ *                   Shorter pins cost little and are not worth the overhead of recording them
+ * @param maxSites   how many distinct places in the code pins are tracked for. Pins anywhere
+ *                   else are counted together
+ * @param stackDepth how many frames of a pin's stack trace to keep for the report. The JVM only
+ *                   records 64 frames by default, which may not reach the service's own code
+ *                   under Tomcat, Spring and Hibernate; raise it with
+ *                   -XX:FlightRecorderOptions:stackdepth=256
+ */
+@ConfigurationProperties("product-service.pinning")
+public record PinningProperties(@DefaultValue("true") boolean enabled,
+                                @DefaultValue("20ms") Duration threshold,
+                                @DefaultValue("100") int maxSites,
+                                @DefaultValue("30") int stackDepth) {
+
+}
@@ -0,0 +1,17 @@
+package com.shop.generic.productservice.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for the in-process product cache
+ *
+ * @param maximumSize the number of products to keep before the least used are evicted
+ * @param ttl         how long a product stays cached after it was loaded
+ */
+@ConfigurationProperties("product-service.cache")
+public record ProductCacheProperties(@DefaultValue("10000") long maximumSize,
+                                     @DefaultValue("5m") Duration ttl) {
+
+}
@@ -0,0 +1,24 @@
+package com.shop.generic.productservice.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for coalescing concurrent lookups of single products that miss the cache
+ *
+ * @param enabled      whether concurrent lookups share queries. When off, every lookup that misses
+ *                     the cache queries the database itself
+ * @param maxBatchSize the most products to look up in one query. Capped at the catalogue's lookup
+ *                     chunk size
+ * @param maxDelay     how long the first lookup in a batch waits for others to join it before the
+ *                     query is sent. Every lookup that misses the cache can take this much longer,
+ *                     in exchange for far fewer queries under load. Zero sends the query at once,
+ *                     so only lookups of a product whose query is already on its way are shared
+ */
+@ConfigurationProperties("product-service.lookup-coalescing")
+public record ProductLookupProperties(@DefaultValue("true") boolean enabled,
+                                      @DefaultValue("100") int maxBatchSize,
+                                      @DefaultValue("1ms") Duration maxDelay) {
+
+}
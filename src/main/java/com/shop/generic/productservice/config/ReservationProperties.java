@@ -0,0 +1,19 @@
+package com.shop.generic.productservice.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for stock reservations
+ *
+ * @param defaultTtl      how long a reservation holds its stock when the caller does not say
+ * @param maxTtl          the longest a caller can ask a reservation to hold its stock for
+ * @param expiryBatchSize the most expired reservations to release in one transaction
+ */
+@ConfigurationProperties("product-service.reservations")
+public record ReservationProperties(@DefaultValue("10m") Duration defaultTtl,
+                                    @DefaultValue("1h") Duration maxTtl,
+                                    @DefaultValue("500") int expiryBatchSize) {
+
+}
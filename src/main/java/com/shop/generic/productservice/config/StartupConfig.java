@@ -0,0 +1,31 @@
+package com.shop.generic.productservice.config;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Only takes effect with lazy initialization on, as in the startup profile
+ */
+@Configuration(proxyBeanMethods = false)
+public class StartupConfig {
+
+    /**
+     * Keeps the beans that work in the background out of lazy initialization, as nothing else
+     * would ever ask for them: lifecycle beans, and beans with scheduled methods, which are only
+     * scheduled once the bean has been created
+     */
+    @Bean
+    static LazyInitializationExcludeFilter backgroundBeansLazyInitializationExcludeFilter() {
+        return (beanName, beanDefinition, beanType) ->
+                SmartLifecycle.class.isAssignableFrom(beanType)
+                        || !MethodIntrospector.selectMethods(beanType,
+                        (MethodIntrospector.MetadataLookup<Scheduled>) method ->
+                                AnnotatedElementUtils.findMergedAnnotation(method,
+                                        Scheduled.class)).isEmpty();
+    }
+}
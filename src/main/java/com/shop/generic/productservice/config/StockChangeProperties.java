@@ -0,0 +1,28 @@
+package com.shop.generic.productservice.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for the stock change stream
+ *
+ * @param relayBatchSize      the most changes to move from the outbox in one transaction
+ * @param bufferSize          how many of the latest changes to keep in memory for subscribers.
+ *                            Subscribers further behind than this read from the database
+ * @param subscriberBatchSize the most changes to send a subscriber in one write
+ * @param heartbeatInterval   how long a subscriber can go without a change before a heartbeat
+ *                            is sent, so idle connections are not closed by proxies
+ * @param connectionTimeout   how long a subscriber stays connected before it has to reconnect
+ *                            and resume
+ * @param retention           how long published changes are kept for subscribers to resume from
+ */
+@ConfigurationProperties("product-service.stock-changes")
+public record StockChangeProperties(@DefaultValue("1000") int relayBatchSize,
+                                    @DefaultValue("10000") int bufferSize,
+                                    @DefaultValue("500") int subscriberBatchSize,
+                                    @DefaultValue("15s") Duration heartbeatInterval,
+                                    @DefaultValue("30m") Duration connectionTimeout,
+                                    @DefaultValue("24h") Duration retention) {
+
+}
@@ -0,0 +1,26 @@
+package com.shop.generic.productservice.config;
+
+import java.nio.file.Path;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings for write-behind stock updates
+ *
+ * @param enabled          whether purchases are taken from the in-memory ledger and written to
+ *                         the database in the background, instead of being written straight away.
+ *                         Only one instance may run with this on, and nothing else may change
+ *                         stock while it does
+ * @param journalDirectory where the journal of unwritten purchases is kept. Must be on durable
+ *                         local storage that survives a restart
+ * @param segmentSize      the size of each journal file
+ * @param flushBatchSize   the most products to update in one JDBC batch when flushing
+ */
+@ConfigurationProperties("product-service.stock-ledger")
+public record StockLedgerProperties(@DefaultValue("false") boolean enabled,
+                                    @DefaultValue("data/stock-journal") Path journalDirectory,
+                                    @DefaultValue("64MB") DataSize segmentSize,
+                                    @DefaultValue("1000") int flushBatchSize) {
+
+}
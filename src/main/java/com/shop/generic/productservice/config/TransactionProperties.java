@@ -0,0 +1,26 @@
+package com.shop.generic.productservice.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.transaction.annotation.Isolation;
+
+/**
+ * Settings for the transactions that update stock
+ *
+ * @param isolation      the isolation level to run them at
+ * @param timeout        how long one attempt may run before it is rolled back. Rounded down to
+ *                       whole seconds, with a minimum of one
+ * @param maxAttempts    how many times to run a transaction that failed on a deadlock or
+ *                       serialization failure, including the first attempt
+ * @param initialBackoff the longest to wait before the first retry. Doubled for each retry after
+ * @param maxBackoff     the longest to wait before any retry
+ */
+@ConfigurationProperties("product-service.transactions")
+public record TransactionProperties(@DefaultValue("READ_COMMITTED") Isolation isolation,
+                                    @DefaultValue("5s") Duration timeout,
+                                    @DefaultValue("3") int maxAttempts,
+                                    @DefaultValue("20ms") Duration initialBackoff,
+                                    @DefaultValue("500ms") Duration maxBackoff) {
+
+}
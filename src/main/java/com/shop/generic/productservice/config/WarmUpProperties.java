@@ -0,0 +1,22 @@
+package com.shop.generic.productservice.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for warming the service up before it reports ready
+ *
+ * @param enabled     whether to warm up on startup
+ * @param hotProducts how many of the best selling products to load into the cache and read
+ * @param iterations  how many times to run through the read endpoints. Enough for the JIT to
+ *                    compile the hot paths fully
+ * @param maxDuration the longest to spend warming up, however many iterations are left
+ */
+@ConfigurationProperties("product-service.warm-up")
+public record WarmUpProperties(@DefaultValue("false") boolean enabled,
+                               @DefaultValue("1000") int hotProducts,
+                               @DefaultValue("5000") int iterations,
+                               @DefaultValue("PT30S") Duration maxDuration) {
+
+}
@@ -0,0 +1,46 @@
+package com.shop.generic.productservice.config;
+
+import com.shop.generic.productservice.limits.ConcurrencyLimitInterceptor;
+import com.shop.generic.productservice.limits.ConcurrencyLimiters;
+import com.shop.generic.productservice.metrics.QueryCountInterceptor;
+import com.shop.generic.productservice.rest.converters.ProductListHttpMessageConverter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration(proxyBeanMethods = false)
+public class WebConfig implements WebMvcConfigurer {
+
+    //Not every slice test has metrics configured, so the registry is optional here
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    //Nor the concurrency limiters, which slice tests do not scan
+    private final ObjectProvider<ConcurrencyLimiters> concurrencyLimiters;
+
+    public WebConfig(final ObjectProvider<MeterRegistry> meterRegistry,
+            final ObjectProvider<ConcurrencyLimiters> concurrencyLimiters) {
+        this.meterRegistry = meterRegistry;
+        this.concurrencyLimiters = concurrencyLimiters;
+    }
+
+    @Override
+    public void addInterceptors(final InterceptorRegistry registry) {
+        //First, so requests turned away are not counted as requests that ran no statements
+        this.concurrencyLimiters.ifAvailable(concurrencyLimiters -> registry.addInterceptor(
+                new ConcurrencyLimitInterceptor(concurrencyLimiters)));
+        this.meterRegistry.ifAvailable(
+                meterRegistry -> registry.addInterceptor(new QueryCountInterceptor(meterRegistry)));
+    }
+
+    /**
+     * Last, so JSON stays the default for requests that accept anything. The CBOR converter Spring
+     * Boot adds when jackson-dataformat-cbor is present is likewise after JSON.
+     */
+    @Override
+    public void extendMessageConverters(final List<HttpMessageConverter<?>> converters) {
+        converters.add(new ProductListHttpMessageConverter());
+    }
+}
@@ -1,70 +1,301 @@
 package com.shop.generic.productservice.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.shop.generic.common.dtos.ProductDTO;
 import com.shop.generic.common.dtos.PurchaseProductDTO;
 import com.shop.generic.common.rest.response.RestApiResponse;
 import com.shop.generic.common.rest.response.RestApiResponseFactory;
+import com.shop.generic.productservice.dtos.IdempotentResultDTO;
+import com.shop.generic.productservice.dtos.ProductPageDTO;
+import com.shop.generic.productservice.dtos.StreamedProductBatchDTO;
+import com.shop.generic.productservice.exceptions.InvalidCursorException;
+import com.shop.generic.productservice.exceptions.InvalidProductIdsException;
 import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.limits.ConcurrencyLimited;
+import com.shop.generic.productservice.limits.EndpointClass;
+import com.shop.generic.productservice.rest.converters.ProductListCodec;
+import com.shop.generic.productservice.services.IdempotencyService;
 import com.shop.generic.productservice.services.ProductService;
+import com.shop.generic.productservice.util.LogSampler;
+import io.micrometer.core.annotation.Timed;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/products")
 @Slf4j
+@Timed("product.controller")
 public class ProductController {
 
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final String STOCK_UPDATED_MESSAGE = "Product stock successfully updated";
+
     private final ProductService productService;
+    private final IdempotencyService idempotencyService;
     private final RestApiResponseFactory restApiResponseFactory;
+    private final ObjectMapper objectMapper;
+    //Read requests are too frequent to log every one at INFO, so only a sample of them are
+    private final LogSampler readLogSampler;
 
     public ProductController(final ProductService productService,
-            final RestApiResponseFactory restApiResponseFactory) {
+            final IdempotencyService idempotencyService,
+            final RestApiResponseFactory restApiResponseFactory,
+            final ObjectMapper objectMapper,
+            @Value("${product-service.logging.read-sample-rate:100}") final int readSampleRate) {
         this.productService = productService;
+        this.idempotencyService = idempotencyService;
         this.restApiResponseFactory = restApiResponseFactory;
+        this.objectMapper = objectMapper;
+        this.readLogSampler = new LogSampler(readSampleRate);
     }
 
+    /**
+     * Like the other product reads, responds with an ETag, and with an empty 304 when the request's
+     * If-None-Match already has it, in which case the products are never read or serialized.
+     * Internal callers can ask for the products as CBOR, or in the more compact
+     * {@link ProductListCodec} format, through the Accept header. Every format gets the same tag,
+     * so it is a weak one, see {@link #weakETag(String)}.
+     */
     @GetMapping("/all")
-    public ResponseEntity<RestApiResponse<List<ProductDTO>>> retrieveAllProducts() {
-        log.info("Request made to get all products");
+    @ConcurrencyLimited(EndpointClass.BULK_READ)
+    public ResponseEntity<RestApiResponse<List<ProductDTO>>> retrieveAllProducts(
+            final WebRequest webRequest) {
+        if (this.readLogSampler.sample()) {
+            log.info("Request made to get all products (1 in {} requests logged)",
+                    this.readLogSampler.rate());
+        }
+        final String eTag = weakETag(this.productService.catalogueETag());
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT)
+                .body(this.restApiResponseFactory
+                        .createSuccessResponse(this.productService.findAllProducts()));
+    }
+
+    @GetMapping("/page")
+    @ConcurrencyLimited(EndpointClass.READ)
+    public ResponseEntity<RestApiResponse<ProductPageDTO>> retrieveProductsPage(
+            @RequestParam(required = false) final String cursor,
+            @RequestParam(required = false) final Integer size) throws InvalidCursorException {
+        if (this.readLogSampler.sample()) {
+            log.info("Request made to get a page of products after cursor {} (1 in {} requests "
+                    + "logged)", cursor, this.readLogSampler.rate());
+        }
         return ResponseEntity.ok(this.restApiResponseFactory.createSuccessResponse(
-                this.productService.findAllProducts()));
+                this.productService.findProductsPage(cursor, size)));
+    }
+
+    /**
+     * Streams the whole catalogue as newline delimited JSON, one product per line. Each product is
+     * written to the response as soon as it is read from the database, so memory use stays the same
+     * however large the catalogue is.
+     */
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @ConcurrencyLimited(EndpointClass.BULK_READ)
+    public ResponseEntity<StreamingResponseBody> streamAllProducts() {
+        if (this.readLogSampler.sample()) {
+            log.info("Request made to stream all products (1 in {} requests logged)",
+                    this.readLogSampler.rate());
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(outputStream -> {
+                    try (final SequenceWriter sequenceWriter = this.objectMapper.writer()
+                            .withRootValueSeparator("\n")
+                            .writeValues(outputStream)) {
+                        this.productService.streamAllProducts(productDTO -> {
+                            try {
+                                sequenceWriter.write(productDTO);
+                            } catch (final IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                    }
+                });
     }
 
     @GetMapping("/{productId}")
+    @ConcurrencyLimited(EndpointClass.READ)
     public ResponseEntity<RestApiResponse<ProductDTO>> retrieveProductById(
-            @PathVariable final String productId) throws ProductDoesNotExistException {
-        log.info("Request made to find product {}", productId);
-        final ProductDTO productDTO = this.productService.retrieveProductById(
-                Integer.parseInt(productId));
-        return ResponseEntity.ok(this.restApiResponseFactory.createSuccessResponse(productDTO));
+            @PathVariable final String productId, final WebRequest webRequest)
+            throws ProductDoesNotExistException {
+        if (this.readLogSampler.sample()) {
+            log.info("Request made to find product {} (1 in {} requests logged)", productId,
+                    this.readLogSampler.rate());
+        }
+        final int id = Integer.parseInt(productId);
+        final String eTag = weakETag(this.productService.productETag(id));
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+        final ProductDTO productDTO = this.productService.retrieveProductById(id);
+        return ResponseEntity.ok().eTag(eTag)
+                .body(this.restApiResponseFactory.createSuccessResponse(productDTO));
     }
 
-    @Transactional
+    /**
+     * Removes the purchased quantities from stock. Callers that may retry should send an
+     * Idempotency-Key header, unique to the purchase. A retry with the same key gets the original
+     * response back, marked with an Idempotent-Replayed header, without stock being decremented
+     * again. A key sent again with a different basket gets a 422, and the basket is not applied.
+     */
     @PostMapping(value = "/update", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ConcurrencyLimited(EndpointClass.WRITE)
     public ResponseEntity<RestApiResponse<String>> updateProducts(
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+            final String idempotencyKey,
             @RequestBody final List<PurchaseProductDTO> purchaseProductDTOS)
             throws ProductDoesNotExistException {
-        log.info("Received request to update products: {}", purchaseProductDTOS);
-        this.productService.updateProductsStock(purchaseProductDTOS);
-        return ResponseEntity.ok(
-                restApiResponseFactory.createSuccessResponse("Product stock successfully updated"));
+        if (log.isDebugEnabled()) {
+            log.debug("Received request to update products: {}", purchaseProductDTOS);
+        }
+        if (idempotencyKey == null) {
+            this.productService.updateProductsStock(purchaseProductDTOS);
+            return ResponseEntity.ok(
+                    restApiResponseFactory.createSuccessResponse(STOCK_UPDATED_MESSAGE));
+        }
+
+        final IdempotentResultDTO result = this.idempotencyService.executeOnce(idempotencyKey,
+                this.productService.basketHash(purchaseProductDTOS), () -> {
+                    this.productService.updateProductsStock(purchaseProductDTOS, idempotencyKey);
+                    return STOCK_UPDATED_MESSAGE;
+                });
+        return ResponseEntity.ok()
+                .header(IDEMPOTENT_REPLAYED_HEADER, String.valueOf(result.replayed()))
+                .body(restApiResponseFactory.createSuccessResponse(result.response()));
+    }
+
+    /**
+     * Looks up a batch of products from a JSON array of IDs in the request body, which avoids the
+     * URL length limit on {@link #getProducts(List, WebRequest)}. The products are written to the
+     * response a chunk at a time as they are looked up, so the whole batch is never held in memory.
+     * When partial results are not allowed, every product is checked to exist first, so a batch
+     * with unknown IDs still gets a 404 before anything is written.
+     *
+     * @param partial when true, products that do exist are returned along with a list of the IDs
+     *                that do not, instead of failing the whole request
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    @ConcurrencyLimited(EndpointClass.BULK_READ)
+    public ResponseEntity<StreamingResponseBody> getProductsBatch(
+            @RequestBody final int[] productIds,
+            @RequestParam(defaultValue = "false") final boolean partial)
+            throws ProductDoesNotExistException {
+        log.debug("Request made to fetch a batch of {} products", productIds.length);
+        if (!partial) {
+            this.productService.requireProducts(productIds);
+        }
+        final RestApiResponse<StreamedProductBatchDTO> response = this.restApiResponseFactory
+                .createSuccessResponse(new StreamedProductBatchDTO(
+                        consumer -> this.productService.streamProductsBatch(productIds, consumer)));
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(outputStream -> this.objectMapper.writeValue(outputStream, response));
     }
 
+    /**
+     * The same as {@link #getProductsBatch(int[], boolean)}, but with the IDs sent as packed
+     * big-endian 32-bit integers, for callers that want to skip JSON parsing of large requests
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    @ConcurrencyLimited(EndpointClass.BULK_READ)
+    public ResponseEntity<StreamingResponseBody> getProductsBatchPacked(
+            @RequestBody final byte[] packedProductIds,
+            @RequestParam(defaultValue = "false") final boolean partial)
+            throws ProductDoesNotExistException, InvalidProductIdsException {
+        return getProductsBatch(unpackProductIds(packedProductIds), partial);
+    }
+
+    /**
+     * Answers which of the given products are in stock, from memory rather than the database. The
+     * response is a bitmap with one bit per requested ID, in request order, starting from the most
+     * significant bit of the first byte. Products that do not exist are reported as not in stock.
+     */
+    @PostMapping(value = "/availability", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @ConcurrencyLimited(EndpointClass.READ)
+    public ResponseEntity<byte[]> checkAvailability(@RequestBody final int[] productIds) {
+        log.debug("Request made to check the availability of {} products", productIds.length);
+        return ResponseEntity.ok(this.productService.checkAvailability(productIds));
+    }
+
+    /**
+     * The same as {@link #checkAvailability(int[])}, but with the IDs sent as packed big-endian
+     * 32-bit integers, like {@link #getProductsBatchPacked(byte[], boolean)}
+     */
+    @PostMapping(value = "/availability", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+            produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @ConcurrencyLimited(EndpointClass.READ)
+    public ResponseEntity<byte[]> checkAvailabilityPacked(
+            @RequestBody final byte[] packedProductIds) throws InvalidProductIdsException {
+        return checkAvailability(unpackProductIds(packedProductIds));
+    }
+
+    private static int[] unpackProductIds(final byte[] packedProductIds)
+            throws InvalidProductIdsException {
+        if (packedProductIds.length % Integer.BYTES != 0) {
+            throw new InvalidProductIdsException(
+                    "Packed product IDs must be a whole number of 4 byte integers");
+        }
+        final IntBuffer buffer = ByteBuffer.wrap(packedProductIds).asIntBuffer();
+        final int[] productIds = new int[buffer.remaining()];
+        buffer.get(productIds);
+        return productIds;
+    }
+
+    /**
+     * Like {@link #retrieveAllProducts(WebRequest)}, also available as CBOR or in the
+     * {@link ProductListCodec} format
+     */
     @GetMapping
+    @ConcurrencyLimited(EndpointClass.READ)
     public ResponseEntity<RestApiResponse<List<ProductDTO>>> getProducts(
-            @RequestParam final List<Integer> productIds) {
-        log.info("Request made to fetch products {}", productIds);
+            @RequestParam final List<Integer> productIds, final WebRequest webRequest) {
+        if (log.isDebugEnabled()) {
+            log.debug("Request made to fetch products {}", productIds);
+        } else if (this.readLogSampler.sample()) {
+            log.info("Request made to fetch {} products (1 in {} requests logged)",
+                    productIds.size(), this.readLogSampler.rate());
+        }
+        final String eTag = weakETag(this.productService.productsETag(productIds));
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
         final List<ProductDTO> products = productService.getProductsByIds(productIds);
-        return ResponseEntity.ok(this.restApiResponseFactory.createSuccessResponse(products));
+        return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT)
+                .body(this.restApiResponseFactory.createSuccessResponse(products));
+    }
+
+    /**
+     * The service's tags identify the products, not the bytes of any one representation of them,
+     * which differ between JSON, CBOR and the product list format, and again once compressed. A
+     * strong tag promises identical bytes, so the tags are sent as weak ones. Tomcat also only
+     * compresses responses whose ETag is weak, or that have none.
+     */
+    private static String weakETag(final String tag) {
+        return "W/\"" + tag + "\"";
     }
 }
@@ -0,0 +1,113 @@
+package com.shop.generic.productservice.controllers;
+
+import com.shop.generic.productservice.config.StockChangeProperties;
+import com.shop.generic.productservice.dtos.StockChangeDTO;
+import com.shop.generic.productservice.services.StockChangeFeed;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+/**
+ * Streams committed stock changes as Server-Sent Events, so other services can keep their view of
+ * stock current without re-fetching the catalogue. Each change is a {@code stock-change} event
+ * whose ID is its sequence number, so a client that reconnects with the standard Last-Event-ID
+ * header carries on from the last change it saw. If the changes after that have been purged
+ * already, a {@code reset} event is sent first, after which the client should re-fetch the
+ * catalogue before applying the changes that follow.
+ */
+@RestController
+@RequestMapping("/products/changes")
+@Slf4j
+public class StockChangeController {
+
+    static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    private final StockChangeFeed stockChangeFeed;
+    private final StockChangeProperties stockChangeProperties;
+
+    public StockChangeController(final StockChangeFeed stockChangeFeed,
+            final StockChangeProperties stockChangeProperties) {
+        this.stockChangeFeed = stockChangeFeed;
+        this.stockChangeProperties = stockChangeProperties;
+    }
+
+    /**
+     * @param lastEventId the sequence number of the last change the client saw, sent by
+     *                    EventSource clients when they reconnect
+     * @param after       the same, for clients that cannot set headers. Use 0 to receive every
+     *                    retained change. With neither, only changes from now on are sent
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamStockChanges(
+            @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) final Long lastEventId,
+            @RequestParam(required = false) final Long after) {
+        final long from = lastEventId != null ? lastEventId
+                : after != null ? after : this.stockChangeFeed.latestSequence();
+        log.info("Stock change subscriber connected from sequence {}", from);
+
+        final SseEmitter emitter = new SseEmitter(
+                this.stockChangeProperties.connectionTimeout().toMillis());
+        final AtomicBoolean connected = new AtomicBoolean(true);
+        emitter.onCompletion(() -> connected.set(false));
+        emitter.onTimeout(() -> connected.set(false));
+        emitter.onError(e -> connected.set(false));
+        Thread.ofVirtual().name("stock-changes-subscriber")
+                .start(() -> sendChanges(emitter, connected, from));
+        return ResponseEntity.ok(emitter);
+    }
+
+    private void sendChanges(final SseEmitter emitter, final AtomicBoolean connected,
+            final long from) {
+        long sequence = from;
+        try {
+            while (connected.get()) {
+                final List<StockChangeDTO> changes = this.stockChangeFeed.changesAfter(sequence,
+                        this.stockChangeProperties.subscriberBatchSize(),
+                        this.stockChangeProperties.heartbeatInterval());
+                if (changes.isEmpty()) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                    continue;
+                }
+                //The whole batch is written and flushed at once
+                final Set<DataWithMediaType> batch = new LinkedHashSet<>();
+                if (changes.get(0).sequence() != sequence + 1) {
+                    batch.addAll(SseEmitter.event().name("reset")
+                            .data(Map.of("resumedAt", changes.get(0).sequence()),
+                                    MediaType.APPLICATION_JSON)
+                            .build());
+                }
+                for (final StockChangeDTO change : changes) {
+                    batch.addAll(stockChangeEvent(change).build());
+                }
+                emitter.send(batch);
+                sequence = changes.get(changes.size() - 1).sequence();
+            }
+        } catch (final IOException | IllegalStateException e) {
+            log.debug("Stock change subscriber disconnected at sequence {}", sequence);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emitter.complete();
+        }
+    }
+
+    private static SseEventBuilder stockChangeEvent(final StockChangeDTO change) {
+        return SseEmitter.event()
+                .id(Long.toString(change.sequence()))
+                .name("stock-change")
+                .data(change, MediaType.APPLICATION_JSON);
+    }
+}
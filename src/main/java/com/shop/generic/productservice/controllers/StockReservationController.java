@@ -0,0 +1,82 @@
+package com.shop.generic.productservice.controllers;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.rest.response.RestApiResponse;
+import com.shop.generic.common.rest.response.RestApiResponseFactory;
+import com.shop.generic.productservice.dtos.ReservationDTO;
+import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.exceptions.ReservationNotFoundException;
+import com.shop.generic.productservice.limits.ConcurrencyLimited;
+import com.shop.generic.productservice.limits.EndpointClass;
+import com.shop.generic.productservice.services.StockReservationService;
+import io.micrometer.core.annotation.Timed;
+import java.time.Duration;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Lets a caller hold stock while it completes an order, then either commit the hold as a
+ * purchase or release it. Holds that are neither are released when they expire.
+ */
+@RestController
+@RequestMapping("/products/reservations")
+@ConditionalOnProperty(prefix = "product-service.stock-ledger", name = "enabled",
+        havingValue = "false", matchIfMissing = true)
+@Slf4j
+@Timed("product.controller")
+public class StockReservationController {
+
+    private final StockReservationService stockReservationService;
+    private final RestApiResponseFactory restApiResponseFactory;
+
+    public StockReservationController(final StockReservationService stockReservationService,
+            final RestApiResponseFactory restApiResponseFactory) {
+        this.stockReservationService = stockReservationService;
+        this.restApiResponseFactory = restApiResponseFactory;
+    }
+
+    /**
+     * @param ttl how long to hold the stock for, as an ISO-8601 duration such as PT5M. Defaults
+     *            to the configured TTL
+     */
+    @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    @ConcurrencyLimited(EndpointClass.WRITE)
+    public ResponseEntity<RestApiResponse<ReservationDTO>> reserve(
+            @RequestBody final List<PurchaseProductDTO> purchaseProductDTOS,
+            @RequestParam(required = false) final Duration ttl)
+            throws ProductDoesNotExistException {
+        if (log.isDebugEnabled()) {
+            log.debug("Received request to reserve products: {}", purchaseProductDTOS);
+        }
+        return ResponseEntity.ok(this.restApiResponseFactory.createSuccessResponse(
+                this.stockReservationService.reserve(purchaseProductDTOS, ttl)));
+    }
+
+    @PostMapping(value = "/{reservationId}/commit", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ConcurrencyLimited(EndpointClass.WRITE)
+    public ResponseEntity<RestApiResponse<String>> commit(
+            @PathVariable final String reservationId) throws ReservationNotFoundException {
+        this.stockReservationService.commit(reservationId);
+        return ResponseEntity.ok(this.restApiResponseFactory.createSuccessResponse(
+                "Reservation successfully committed"));
+    }
+
+    @DeleteMapping(value = "/{reservationId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ConcurrencyLimited(EndpointClass.WRITE)
+    public ResponseEntity<RestApiResponse<String>> release(
+            @PathVariable final String reservationId) throws ReservationNotFoundException {
+        this.stockReservationService.release(reservationId);
+        return ResponseEntity.ok(this.restApiResponseFactory.createSuccessResponse(
+                "Reservation successfully released"));
+    }
+}
@@ -0,0 +1,26 @@
+package com.shop.generic.productservice.diagnostics;
+
+import com.shop.generic.productservice.dtos.PinningReportDTO;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * /actuator/pinning, where virtual threads have been pinned to their carrier threads since
+ * startup
+ */
+@Component
+@Endpoint(id = "pinning")
+public class PinningEndpoint {
+
+    private final VirtualThreadPinningMonitor virtualThreadPinningMonitor;
+
+    public PinningEndpoint(final VirtualThreadPinningMonitor virtualThreadPinningMonitor) {
+        this.virtualThreadPinningMonitor = virtualThreadPinningMonitor;
+    }
+
+    @ReadOperation
+    public PinningReportDTO pinning() {
+        return this.virtualThreadPinningMonitor.report();
+    }
+}
@@ -0,0 +1,203 @@
+package com.shop.generic.productservice.diagnostics;
+
+import com.shop.generic.productservice.config.PinningProperties;
+import com.shop.generic.productservice.dtos.PinningReportDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+/**
+ * Watches for virtual threads that block while pinned to their carrier thread, which happens when
+ * they block inside a {@code synchronized} block or a native call. A pinned virtual thread holds
+ * its carrier, one of only as many as there are cores, for as long as it is blocked, so a few
+ * pins on a hot path, say in the JDBC driver under a stock update, can stall every other request.
+ * <p>
+ * The JVM reports each pin over the threshold as a {@code jdk.VirtualThreadPinned} flight
+ * recorder event, streamed here in process. Each pin is put down to the innermost method of the
+ * service's own code on the pinned stack, so a pin deep inside H2 or Hibernate shows up against
+ * the {@code ProductService} method that led to it. Pins are published as the
+ * {@code product.virtual.thread.pinned} timer, tagged by that site, and reported in full, with a
+ * sample stack trace for each site, by the {@code pinning} actuator endpoint.
+ */
+@Component
+@Slf4j
+public class VirtualThreadPinningMonitor implements SmartLifecycle {
+
+    static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    static final String OTHER_SITE = "other";
+    private static final String APPLICATION_PACKAGE = "com.shop.generic.productservice.";
+
+    private final PinningProperties pinningProperties;
+    private final MeterRegistry meterRegistry;
+    //Events arrive on the stream's own thread, and reports are read from request threads
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, SiteStatistics> sites = new HashMap<>();
+    private long totalPinned;
+    private volatile RecordingStream recordingStream;
+
+    public VirtualThreadPinningMonitor(final PinningProperties pinningProperties,
+            final MeterRegistry meterRegistry) {
+        this.pinningProperties = pinningProperties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Carries on without monitoring when the flight recorder is not available, as in a native
+     * image, rather than stopping the service from starting
+     */
+    @Override
+    public void start() {
+        if (!this.pinningProperties.enabled()) {
+            return;
+        }
+        try {
+            final RecordingStream stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(this.pinningProperties.threshold())
+                    .withStackTrace();
+            stream.onEvent(PINNED_EVENT, this::onPinned);
+            stream.startAsync();
+            this.recordingStream = stream;
+            log.info("Watching for virtual threads pinned for over {}ms",
+                    this.pinningProperties.threshold().toMillis());
+        } catch (final RuntimeException e) {
+            log.warn("Cannot watch for pinned virtual threads, the flight recorder is unavailable",
+                    e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        final RecordingStream stream = this.recordingStream;
+        if (stream != null) {
+            this.recordingStream = null;
+            stream.close();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.recordingStream != null;
+    }
+
+    public PinningReportDTO report() {
+        this.lock.lock();
+        try {
+            return new PinningReportDTO(isRunning(), this.pinningProperties.threshold(),
+                    this.totalPinned, this.sites.entrySet().stream()
+                    .map(entry -> entry.getValue().toSite(entry.getKey()))
+                    .sorted(Comparator.comparing(PinningReportDTO.PinnedSite::totalTime)
+                            .reversed())
+                    .toList());
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void onPinned(final RecordedEvent event) {
+        final List<RecordedFrame> frames = event.getStackTrace() == null ? List.of()
+                : event.getStackTrace().getFrames();
+        record(findSite(frames), event.getDuration(), event.getEndTime(),
+                () -> frames.stream().limit(this.pinningProperties.stackDepth())
+                        .map(VirtualThreadPinningMonitor::format).toList());
+    }
+
+    /**
+     * @param stackTrace only called for the first pin at a site
+     */
+    void record(final String site, final Duration duration, final Instant pinnedUntil,
+            final Supplier<List<String>> stackTrace) {
+        this.lock.lock();
+        try {
+            this.totalPinned++;
+            final String trackedSite = this.sites.containsKey(site)
+                    || this.sites.size() < this.pinningProperties.maxSites() ? site : OTHER_SITE;
+            this.sites.computeIfAbsent(trackedSite, key -> new SiteStatistics(stackTrace.get(),
+                            Timer.builder("product.virtual.thread.pinned")
+                                    .description("Virtual threads blocked while pinned to their "
+                                            + "carrier thread, by the service method they were in")
+                                    .tag("site", key)
+                                    .register(this.meterRegistry)))
+                    .record(duration, pinnedUntil);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the innermost method of the service's own code, as Class.method
+     */
+    static String findSite(final List<RecordedFrame> frames) {
+        for (final RecordedFrame frame : frames) {
+            final RecordedMethod method = frame.getMethod();
+            if (frame.isJavaFrame() && method != null
+                    && method.getType().getName().startsWith(APPLICATION_PACKAGE)) {
+                return siteName(method.getType().getName(), method.getName());
+            }
+        }
+        return OTHER_SITE;
+    }
+
+    /**
+     * Drops the package, and any proxy suffix, so a site reads the same whether it was reached
+     * through a Spring proxy or not
+     */
+    static String siteName(final String className, final String methodName) {
+        final int proxySuffix = className.indexOf("$$");
+        final String unproxied = proxySuffix < 0 ? className : className.substring(0, proxySuffix);
+        return unproxied.substring(unproxied.lastIndexOf('.') + 1) + "." + methodName;
+    }
+
+    private static String format(final RecordedFrame frame) {
+        final RecordedMethod method = frame.getMethod();
+        if (method == null) {
+            return "<unknown>";
+        }
+        return method.getType().getName() + "." + method.getName()
+                + (frame.isJavaFrame() ? ":" + frame.getLineNumber() : " (native)");
+    }
+
+    private static final class SiteStatistics {
+
+        private final List<String> stackTrace;
+        private final Timer timer;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private Instant lastPinned;
+
+        private SiteStatistics(final List<String> stackTrace, final Timer timer) {
+            this.stackTrace = stackTrace;
+            this.timer = timer;
+        }
+
+        private void record(final Duration duration, final Instant pinnedUntil) {
+            final long nanos = duration.toNanos();
+            this.count++;
+            this.totalNanos += nanos;
+            this.maxNanos = Math.max(this.maxNanos, nanos);
+            this.lastPinned = pinnedUntil;
+            this.timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        private PinningReportDTO.PinnedSite toSite(final String site) {
+            return new PinningReportDTO.PinnedSite(site, this.count,
+                    Duration.ofNanos(this.totalNanos), Duration.ofNanos(this.maxNanos),
+                    this.lastPinned, this.stackTrace);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.shop.generic.productservice.dtos;
+
+/**
+ * The outcome of an idempotent operation
+ *
+ * @param response the response of the first successful attempt
+ * @param replayed true if this attempt did nothing and is returning an earlier attempt's response
+ */
+public record IdempotentResultDTO(String response, boolean replayed) {
+
+}
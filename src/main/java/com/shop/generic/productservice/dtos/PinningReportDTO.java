@@ -0,0 +1,32 @@
+package com.shop.generic.productservice.dtos;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Where virtual threads have been pinned to their carrier threads since startup, worst first
+ *
+ * @param monitoring  whether pins are being watched for. False when disabled, or when the JVM
+ *                    cannot stream flight recorder events
+ * @param threshold   the shortest pin reported
+ * @param totalPinned how many pins have been reported
+ * @param sites       the places pins happened, by total time pinned, longest first
+ */
+public record PinningReportDTO(boolean monitoring, Duration threshold, long totalPinned,
+                               List<PinnedSite> sites) {
+
+    /**
+     * @param site       the innermost method of the service's own code on the pinned stack, or
+     *                   "other" when there is none within the recorded frames
+     * @param count      how many times a virtual thread was pinned there
+     * @param totalTime  how long they were pinned for, in all
+     * @param maxTime    the longest single pin
+     * @param lastPinned when the latest pin ended
+     * @param stackTrace the stack of the first pin seen there, innermost frame first
+     */
+    public record PinnedSite(String site, long count, Duration totalTime, Duration maxTime,
+                             Instant lastPinned, List<String> stackTrace) {
+
+    }
+}
@@ -0,0 +1,14 @@
+package com.shop.generic.productservice.dtos;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import java.util.List;
+
+/**
+ * The result of looking up a batch of products
+ *
+ * @param products          the products that were found, in the order they were requested
+ * @param missingProductIds the requested IDs that do not exist
+ */
+public record ProductBatchDTO(List<ProductDTO> products, List<Integer> missingProductIds) {
+
+}
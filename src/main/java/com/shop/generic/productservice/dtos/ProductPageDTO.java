@@ -0,0 +1,14 @@
+package com.shop.generic.productservice.dtos;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import java.util.List;
+
+/**
+ * A page of the product catalogue
+ *
+ * @param products   the products on this page, in ascending product ID order
+ * @param nextCursor the cursor to pass to fetch the next page, or null if this is the last page
+ */
+public record ProductPageDTO(List<ProductDTO> products, String nextCursor) {
+
+}
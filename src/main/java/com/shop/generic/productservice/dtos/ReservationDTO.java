@@ -0,0 +1,17 @@
+package com.shop.generic.productservice.dtos;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Stock held for a caller until it is committed, released or expires
+ *
+ * @param reservationId the ID to commit or release the reservation with
+ * @param expiresAt     when the stock is given back if the reservation has not been committed
+ * @param lines         the products and quantities held, in ascending product ID order
+ */
+public record ReservationDTO(String reservationId, Instant expiresAt,
+                             List<PurchaseProductDTO> lines) {
+
+}
@@ -0,0 +1,19 @@
+package com.shop.generic.productservice.dtos;
+
+import com.shop.generic.common.enums.StockStatus;
+import java.time.Instant;
+
+/**
+ * One committed change to a product's stock, as published on the change stream
+ *
+ * @param sequence    the change's position in the stream. Every change gets the next number, so
+ *                    a subscriber that sees a gap has missed changes
+ * @param productId   the product whose stock changed
+ * @param stockStatus the product's stock status after the change
+ * @param stockCount  the product's stock count after the change
+ * @param changedAt   when the change was made
+ */
+public record StockChangeDTO(long sequence, int productId, StockStatus stockStatus,
+                             int stockCount, Instant changedAt) {
+
+}
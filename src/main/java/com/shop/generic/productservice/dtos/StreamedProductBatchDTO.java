@@ -0,0 +1,64 @@
+package com.shop.generic.productservice.dtos;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.shop.generic.common.dtos.ProductDTO;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A {@link ProductBatchDTO} that is looked up while it is being serialized, rather than before.
+ * It is written as the same JSON, but each product goes to the generator as soon as the lookup
+ * hands it over, so the response never holds more than the chunk being looked up. The missing IDs
+ * are only known once every product has been looked up, so they are written after the products.
+ */
+public final class StreamedProductBatchDTO extends JsonSerializable.Base {
+
+    private final Function<Consumer<ProductDTO>, List<Integer>> lookup;
+
+    /**
+     * @param lookup hands every product found to the consumer, in request order, and returns the
+     *               requested IDs that do not exist
+     */
+    public StreamedProductBatchDTO(final Function<Consumer<ProductDTO>, List<Integer>> lookup) {
+        this.lookup = lookup;
+    }
+
+    @Override
+    public void serialize(final JsonGenerator generator, final SerializerProvider serializers)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("products");
+        final List<Integer> missingProductIds;
+        try {
+            missingProductIds = this.lookup.apply(productDTO -> {
+                try {
+                    serializers.defaultSerializeValue(productDTO, generator);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("missingProductIds");
+        for (final int productId : missingProductIds) {
+            generator.writeNumber(productId);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    @Override
+    public void serializeWithType(final JsonGenerator generator,
+            final SerializerProvider serializers, final TypeSerializer typeSerializer)
+            throws IOException {
+        serialize(generator, serializers);
+    }
+}
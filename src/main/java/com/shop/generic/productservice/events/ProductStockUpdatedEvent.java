@@ -0,0 +1,14 @@
+package com.shop.generic.productservice.events;
+
+import java.util.List;
+
+/**
+ * Published when the stock of one or more products is changed. Listeners that care about the
+ * committed state should use {@code @TransactionalEventListener}, so they only run once the change
+ * is visible to other transactions.
+ *
+ * @param productIds the products whose stock changed
+ */
+public record ProductStockUpdatedEvent(List<Integer> productIds) {
+
+}
@@ -0,0 +1,13 @@
+package com.shop.generic.productservice.events;
+
+import java.time.Instant;
+
+/**
+ * Published when stock is reserved, so that the reservation can be released when it expires
+ *
+ * @param reservationId the reservation
+ * @param expiresAt     when the reservation expires
+ */
+public record StockReservedEvent(String reservationId, Instant expiresAt) {
+
+}
@@ -0,0 +1,20 @@
+package com.shop.generic.productservice.exceptions;
+
+import com.shop.generic.productservice.limits.EndpointClass;
+import java.time.Duration;
+import lombok.Getter;
+
+@Getter
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+    private final EndpointClass endpointClass;
+    private final Duration retryAfter;
+
+    public ConcurrencyLimitExceededException(final EndpointClass endpointClass,
+            final Duration retryAfter) {
+        super("The service is too busy to handle more " + endpointClass.name().toLowerCase()
+                + " requests, try again later");
+        this.endpointClass = endpointClass;
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,9 @@
+package com.shop.generic.productservice.exceptions;
+
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public IdempotencyKeyReusedException(final String idempotencyKey) {
+        super("Idempotency key " + idempotencyKey
+                + " has already been used for a different request");
+    }
+}
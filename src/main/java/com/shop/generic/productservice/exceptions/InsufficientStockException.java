@@ -0,0 +1,9 @@
+package com.shop.generic.productservice.exceptions;
+
+public class InsufficientStockException extends RuntimeException {
+
+    public InsufficientStockException(final int productId, final int quantity) {
+        super("Product with Product ID " + productId + " does not have " + quantity
+                + " units in stock");
+    }
+}
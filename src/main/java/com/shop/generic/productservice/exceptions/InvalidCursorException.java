@@ -0,0 +1,8 @@
+package com.shop.generic.productservice.exceptions;
+
+public class InvalidCursorException extends RuntimeException {
+
+    public InvalidCursorException(final String cursor) {
+        super("Cursor " + cursor + " is not valid");
+    }
+}
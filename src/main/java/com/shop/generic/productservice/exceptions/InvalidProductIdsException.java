@@ -0,0 +1,8 @@
+package com.shop.generic.productservice.exceptions;
+
+public class InvalidProductIdsException extends RuntimeException {
+
+    public InvalidProductIdsException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package com.shop.generic.productservice.exceptions;
+
+public class InvalidQuantityException extends RuntimeException {
+
+    public InvalidQuantityException(final int productId, final int quantity) {
+        super("Quantity " + quantity + " for Product ID " + productId
+                + " is not valid, quantities must be at least 1");
+    }
+}
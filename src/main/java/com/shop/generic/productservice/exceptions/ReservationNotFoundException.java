@@ -0,0 +1,8 @@
+package com.shop.generic.productservice.exceptions;
+
+public class ReservationNotFoundException extends RuntimeException {
+
+    public ReservationNotFoundException(final String reservationId) {
+        super("No active reservation with ID " + reservationId + " exists");
+    }
+}
@@ -0,0 +1,347 @@
+package com.shop.generic.productservice.ledger;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Durable, append-only record of the baskets accepted by the {@link StockLedger}, so that
+ * decrements which have not reached the database yet survive a crash.
+ * <p>
+ * The journal is a directory of fixed size, memory mapped segment files, each named after the
+ * sequence number of its first record. A record is laid out as
+ * <pre>
+ * int  payload length
+ * long sequence number          \
+ * int  idempotency key length    |
+ * byte idempotency key, UTF-8    |  payload
+ * int  line count                |
+ * int  product ID, int quantity /   (once per line)
+ * int  CRC32C of the payload
+ * </pre>
+ * A basket sent without an idempotency key has a key length of -1 and no key bytes.
+ * Segments are zero filled when they are created, so a length of zero marks the end of what was
+ * written, and a record torn by a crash fails its checksum. Either ends the scan on recovery.
+ * <p>
+ * Appending only copies the record into the mapped segment. {@link #awaitDurable(long)} then
+ * forces the segment to disk. Callers that arrive while a force is running wait for it and are
+ * covered by the next one, so a single fsync serves every append made in the meantime.
+ */
+@Slf4j
+public class StockJournal implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "stock-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int LINE_BYTES = 2 * Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    //First sequence number of each segment on disk, oldest first. Guarded by appendLock
+    private final List<Long> segments = new ArrayList<>();
+    private MappedByteBuffer segment;
+    private long lastSequence;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = this.syncLock.newCondition();
+    //Guarded by syncLock
+    private long durableSequence;
+    private boolean syncing;
+
+    /**
+     * A basket read back from the journal
+     *
+     * @param idempotencyKey the key the basket was sent with, or null if it had none
+     */
+    public record Entry(long sequence, String idempotencyKey, List<PurchaseProductDTO> lines) {
+
+    }
+
+    public StockJournal(final Path directory, final int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Reads back every intact record, then starts a new segment for appends. Nothing is written to
+     * the journal until this has been called.
+     *
+     * @param checkpoint the sequence number of the last record known to be in the database.
+     *                   Numbering continues after it even if the journal has been lost
+     * @return the records after the checkpoint, in sequence order
+     */
+    public List<Entry> open(final long checkpoint) throws IOException {
+        Files.createDirectories(this.directory);
+        final List<Path> files;
+        try (final Stream<Path> listing = Files.list(this.directory)) {
+            files = listing.filter(StockJournal::isSegment)
+                    .sorted((a, b) -> Long.compare(firstSequence(a), firstSequence(b)))
+                    .toList();
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        long lastSeen = checkpoint;
+        this.appendLock.lock();
+        try {
+            for (final Path file : files) {
+                this.segments.add(firstSequence(file));
+                try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    lastSeen = readSegment(channel.map(MapMode.READ_ONLY, 0, channel.size()),
+                            checkpoint, lastSeen, entries);
+                }
+            }
+            this.lastSequence = lastSeen;
+            //Never append after a torn record, so a scan cannot run from it into a new one. A
+            //segment that would have the same name holds nothing but a torn record
+            if (this.segments.remove(Long.valueOf(lastSeen + 1))) {
+                Files.delete(segmentFile(lastSeen + 1));
+            }
+            startSegment(lastSeen + 1);
+        } finally {
+            this.appendLock.unlock();
+        }
+        this.syncLock.lock();
+        try {
+            this.durableSequence = lastSeen;
+        } finally {
+            this.syncLock.unlock();
+        }
+        log.info("Opened stock journal in {} with {} records after checkpoint {}", this.directory,
+                entries.size(), checkpoint);
+        return entries;
+    }
+
+    /**
+     * @return the highest sequence number seen so far
+     */
+    private static long readSegment(final ByteBuffer buffer, final long checkpoint,
+            final long lastSeen, final List<Entry> entries) {
+        long previous = lastSeen;
+        while (buffer.remaining() >= Integer.BYTES) {
+            final int payloadLength = buffer.getInt();
+            if (payloadLength <= 0 || payloadLength > buffer.remaining() - Integer.BYTES) {
+                break;
+            }
+            final ByteBuffer payload = buffer.slice(buffer.position(), payloadLength);
+            buffer.position(buffer.position() + payloadLength);
+            final CRC32C crc = new CRC32C();
+            crc.update(payload.duplicate());
+            if (buffer.getInt() != (int) crc.getValue()) {
+                log.warn("Stock journal ends with a torn record after sequence {}", previous);
+                break;
+            }
+            final long sequence = payload.getLong();
+            if (sequence <= previous && sequence > checkpoint) {
+                break;
+            }
+            if (sequence > checkpoint) {
+                final int keyLength = payload.getInt();
+                String idempotencyKey = null;
+                if (keyLength >= 0) {
+                    final byte[] key = new byte[keyLength];
+                    payload.get(key);
+                    idempotencyKey = new String(key, StandardCharsets.UTF_8);
+                }
+                final int lineCount = payload.getInt();
+                final List<PurchaseProductDTO> lines = new ArrayList<>(lineCount);
+                for (int i = 0; i < lineCount; i++) {
+                    lines.add(new PurchaseProductDTO(payload.getInt(), payload.getInt()));
+                }
+                entries.add(new Entry(sequence, idempotencyKey, lines));
+            }
+            previous = Math.max(previous, sequence);
+        }
+        return previous;
+    }
+
+    /**
+     * Copies the basket into the journal. It is not durable until
+     * {@link #awaitDurable(long) awaitDurable} returns for the sequence number given back.
+     *
+     * @param idempotencyKey the key the basket was sent with, or null if it had none
+     * @return the sequence number of the record
+     */
+    public long append(final String idempotencyKey, final List<PurchaseProductDTO> lines)
+            throws IOException {
+        final byte[] key = idempotencyKey == null ? null
+                : idempotencyKey.getBytes(StandardCharsets.UTF_8);
+        final int payloadLength = Long.BYTES + Integer.BYTES + (key == null ? 0 : key.length)
+                + Integer.BYTES + lines.size() * LINE_BYTES;
+        final int recordLength = payloadLength + 2 * Integer.BYTES;
+        if (recordLength > this.segmentSize) {
+            throw new IllegalArgumentException("A basket of " + lines.size()
+                    + " lines does not fit in a stock journal segment");
+        }
+        this.appendLock.lock();
+        try {
+            if (this.segment == null) {
+                throw new IllegalStateException("The stock journal is not open");
+            }
+            if (this.segment.remaining() < recordLength) {
+                rollSegment();
+            }
+            final long sequence = this.lastSequence + 1;
+            this.segment.putInt(payloadLength);
+            final int payloadStart = this.segment.position();
+            this.segment.putLong(sequence);
+            if (key == null) {
+                this.segment.putInt(-1);
+            } else {
+                this.segment.putInt(key.length).put(key);
+            }
+            this.segment.putInt(lines.size());
+            for (final PurchaseProductDTO line : lines) {
+                this.segment.putInt(line.productId()).putInt(line.quantity());
+            }
+            final CRC32C crc = new CRC32C();
+            crc.update(this.segment.slice(payloadStart, payloadLength));
+            this.segment.putInt((int) crc.getValue());
+            this.lastSequence = sequence;
+            return sequence;
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the record with the given sequence number, and every one before it, is on disk
+     */
+    public void awaitDurable(final long sequence) {
+        this.syncLock.lock();
+        try {
+            while (this.durableSequence < sequence) {
+                if (this.syncing) {
+                    this.synced.awaitUninterruptibly();
+                    continue;
+                }
+                this.syncing = true;
+                final long target;
+                this.syncLock.unlock();
+                try {
+                    final MappedByteBuffer toForce;
+                    this.appendLock.lock();
+                    try {
+                        target = this.lastSequence;
+                        toForce = this.segment;
+                    } finally {
+                        this.appendLock.unlock();
+                    }
+                    //Earlier segments were forced when they were rolled
+                    toForce.force();
+                } finally {
+                    this.syncLock.lock();
+                    this.syncing = false;
+                    this.synced.signalAll();
+                }
+                this.durableSequence = Math.max(this.durableSequence, target);
+            }
+        } finally {
+            this.syncLock.unlock();
+        }
+    }
+
+    public long lastSequence() {
+        this.appendLock.lock();
+        try {
+            return this.lastSequence;
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments whose records are all at or before the checkpoint. The segment being
+     * appended to is always kept.
+     */
+    public void deleteSegmentsUpTo(final long checkpoint) throws IOException {
+        this.appendLock.lock();
+        try {
+            while (this.segments.size() > 1 && this.segments.get(1) - 1 <= checkpoint) {
+                Files.deleteIfExists(segmentFile(this.segments.remove(0)));
+            }
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.appendLock.lock();
+        try {
+            if (this.segment != null) {
+                this.segment.force();
+                this.segment = null;
+            }
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        this.segment.force();
+        this.syncLock.lock();
+        try {
+            this.durableSequence = Math.max(this.durableSequence, this.lastSequence);
+        } finally {
+            this.syncLock.unlock();
+        }
+        startSegment(this.lastSequence + 1);
+    }
+
+    private void startSegment(final long firstSequence) throws IOException {
+        final Path file = segmentFile(firstSequence);
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //Mapping past the end of the file grows it, zero filled
+            this.segment = channel.map(MapMode.READ_WRITE, 0, this.segmentSize);
+            channel.force(true);
+        }
+        forceDirectory();
+        this.segments.add(firstSequence);
+    }
+
+    /**
+     * Makes the new segment's directory entry durable. Not every platform allows a directory to be
+     * opened, in which case this is left to the file system.
+     */
+    private void forceDirectory() {
+        try (final FileChannel channel = FileChannel.open(this.directory,
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException e) {
+            log.debug("Could not force stock journal directory {}", this.directory, e);
+        }
+    }
+
+    private Path segmentFile(final long firstSequence) {
+        return this.directory.resolve(
+                SEGMENT_PREFIX + String.format("%020d", firstSequence) + SEGMENT_SUFFIX);
+    }
+
+    private static boolean isSegment(final Path file) {
+        final String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long firstSequence(final Path file) {
+        final String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
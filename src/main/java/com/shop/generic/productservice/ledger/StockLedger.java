@@ -0,0 +1,270 @@
+package com.shop.generic.productservice.ledger;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.productservice.config.StockLedgerProperties;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.repositories.StockLedgerKeyRepository;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory stock counts that purchases are taken from in write-behind mode, so that a burst of
+ * purchases of the same few products does not queue on their row locks in the database.
+ * <p>
+ * A product's count is loaded from the database the first time it is bought, and from then on the
+ * ledger is the authority on how much is left. A basket is checked against and taken from the
+ * counts under striped locks, so it can never oversell. It is written to the {@link StockJournal}
+ * before the locks are released, and is durable before the purchase returns. The
+ * {@link StockLedgerFlusher} then writes the net decrement per product to the database in the
+ * background.
+ * <p>
+ * A basket sent with an idempotency key is journalled with it, and taken at most once per key.
+ * The basket is taken outside the database transaction that records the key against the response,
+ * so that transaction being retried, or rolled back after the basket was taken, must not take it
+ * again. The key is held in memory until the flush that writes the basket has committed it to
+ * {@code stock_ledger_keys}, and a journal replay puts it back in memory along with the basket.
+ * <p>
+ * Counts are never reloaded once held, so the ledger must be the only thing changing stock while
+ * it is enabled, and only one instance of the service may have it enabled.
+ */
+@Component
+@ConditionalOnProperty(prefix = "product-service.stock-ledger", name = "enabled",
+        havingValue = "true")
+@Slf4j
+public class StockLedger {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final ProductRepository productRepository;
+    private final ProductMetrics productMetrics;
+    private final StockLedgerKeyRepository keyRepository;
+    private final StockJournal stockJournal;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    //Units left per product. Each count is only read or written under its product's stripe lock
+    private final Map<Integer, int[]> availableStock = new ConcurrentHashMap<>();
+    //Units taken per product that have not been written to the database yet
+    private final Map<Integer, Integer> pendingDecrements = new ConcurrentHashMap<>();
+    //Idempotency keys of journalled baskets, until the flush that writes them has committed
+    private final Set<String> unflushedKeys = ConcurrentHashMap.newKeySet();
+    //Purchases hold the read lock while they journal a basket and record its decrements, so a
+    //drain under the write lock only ever sees whole baskets
+    private final ReadWriteLock drainLock = new ReentrantReadWriteLock();
+
+    /**
+     * The decrements taken from the ledger by a drain, the idempotency keys of the baskets they
+     * include, and the sequence number of the last of those baskets
+     */
+    record Drain(Map<Integer, Integer> decrements, Set<String> idempotencyKeys, long sequence) {
+
+    }
+
+    public StockLedger(final StockLedgerProperties properties,
+            final ProductRepository productRepository,
+            final StockLedgerKeyRepository keyRepository, final ProductMetrics productMetrics) {
+        this.productRepository = productRepository;
+        this.keyRepository = keyRepository;
+        this.productMetrics = productMetrics;
+        this.stockJournal = new StockJournal(properties.journalDirectory(),
+                Math.toIntExact(properties.segmentSize().toBytes()));
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Takes a basket from stock, returning once it is durable in the journal. A basket whose
+     * idempotency key has been taken already is not taken again.
+     * <p>
+     * Attempts with the same key must not run at once. The idempotency key's claim in the
+     * database already keeps them apart.
+     *
+     * @param basket         the lines to take, with distinct product IDs in ascending order
+     * @param idempotencyKey the key the basket was sent with, or null if it had none
+     * @return the IDs of the products this basket sold the last unit of, none if it was taken
+     * already
+     * @throws ProductDoesNotExistException if any products in the basket do not exist
+     * @throws InsufficientStockException   if a product does not have enough stock left
+     */
+    public List<Integer> reserve(final List<PurchaseProductDTO> basket,
+            final String idempotencyKey)
+            throws ProductDoesNotExistException, InsufficientStockException {
+        if (basket.isEmpty()) {
+            return List.of();
+        }
+        if (idempotencyKey != null && isTaken(idempotencyKey)) {
+            log.debug("Basket with idempotency key {} was already taken from the stock ledger",
+                    idempotencyKey);
+            return List.of();
+        }
+        //Stripes are always locked in ascending order so overlapping baskets cannot deadlock
+        final int[] stripes = basket.stream()
+                .mapToInt(line -> Math.floorMod(line.productId(), LOCK_STRIPES))
+                .distinct()
+                .sorted()
+                .toArray();
+        for (final int stripe : stripes) {
+            this.locks[stripe].lock();
+        }
+        final List<Integer> soldOut = new ArrayList<>();
+        final long sequence;
+        try {
+            loadAvailableStock(basket);
+            for (final PurchaseProductDTO line : basket) {
+                if (this.availableStock.get(line.productId())[0] < line.quantity()) {
+                    throw new InsufficientStockException(line.productId(), line.quantity());
+                }
+            }
+            sequence = journal(basket, idempotencyKey);
+            for (final PurchaseProductDTO line : basket) {
+                final int[] available = this.availableStock.get(line.productId());
+                available[0] -= line.quantity();
+                if (available[0] == 0) {
+                    soldOut.add(line.productId());
+                }
+            }
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                this.locks[stripes[i]].unlock();
+            }
+        }
+        this.stockJournal.awaitDurable(sequence);
+        return soldOut;
+    }
+
+    /**
+     * A flush forgets a key only once it has committed the key to the database, so checking memory
+     * first and the database second can never miss a key in between
+     */
+    private boolean isTaken(final String idempotencyKey) {
+        return this.unflushedKeys.contains(idempotencyKey)
+                || this.keyRepository.exists(idempotencyKey, Instant.now());
+    }
+
+    private long journal(final List<PurchaseProductDTO> basket, final String idempotencyKey) {
+        this.drainLock.readLock().lock();
+        try {
+            final long sequence = this.stockJournal.append(idempotencyKey, basket);
+            basket.forEach(line -> this.pendingDecrements.merge(line.productId(), line.quantity(),
+                    Integer::sum));
+            if (idempotencyKey != null) {
+                this.unflushedKeys.add(idempotencyKey);
+            }
+            return sequence;
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not write to the stock journal", e);
+        } finally {
+            this.drainLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the count of every product in the basket that the ledger does not hold yet. Must be
+     * called with the basket's stripes locked.
+     */
+    private void loadAvailableStock(final List<PurchaseProductDTO> basket) {
+        final List<Integer> unloadedIds = basket.stream().map(PurchaseProductDTO::productId)
+                .filter(productId -> !this.availableStock.containsKey(productId))
+                .toList();
+        if (unloadedIds.isEmpty()) {
+            return;
+        }
+        for (final Product product : this.productRepository.findAllById(unloadedIds)) {
+            this.availableStock.put(product.getProductId(), new int[]{product.getStockCount()});
+        }
+        final List<Integer> missingIds = unloadedIds.stream()
+                .filter(productId -> !this.availableStock.containsKey(productId))
+                .toList();
+        if (!missingIds.isEmpty()) {
+            this.productMetrics.productsNotFound(missingIds.size());
+            throw new ProductDoesNotExistException(missingIds);
+        }
+    }
+
+    /**
+     * Opens the journal and adds the decrements of every basket after the checkpoint back to the
+     * pending ones. Must be called once, before any purchase.
+     *
+     * @return the number of baskets replayed
+     */
+    int recover(final long checkpoint) throws IOException {
+        final List<StockJournal.Entry> entries = this.stockJournal.open(checkpoint);
+        for (final StockJournal.Entry entry : entries) {
+            entry.lines().forEach(line -> this.pendingDecrements.merge(line.productId(),
+                    line.quantity(), Integer::sum));
+            if (entry.idempotencyKey() != null) {
+                this.unflushedKeys.add(entry.idempotencyKey());
+            }
+        }
+        return entries.size();
+    }
+
+    /**
+     * Takes every pending decrement out of the ledger, ordered by product ID. The keys of the
+     * baskets stay in memory until {@link #keysFlushed(Set)}, so a key whose flush fails goes out
+     * again with the next one.
+     */
+    Drain drain() {
+        this.drainLock.writeLock().lock();
+        try {
+            final Map<Integer, Integer> decrements = new TreeMap<>(this.pendingDecrements);
+            this.pendingDecrements.clear();
+            return new Drain(decrements, Set.copyOf(this.unflushedKeys),
+                    this.stockJournal.lastSequence());
+        } finally {
+            this.drainLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Puts back decrements that could not be written, so the next flush includes them
+     */
+    void restore(final Map<Integer, Integer> decrements) {
+        this.drainLock.readLock().lock();
+        try {
+            decrements.forEach((productId, quantity) -> this.pendingDecrements.merge(productId,
+                    quantity, Integer::sum));
+        } finally {
+            this.drainLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets keys that a flush has committed to the database
+     */
+    void keysFlushed(final Set<String> idempotencyKeys) {
+        this.unflushedKeys.removeAll(idempotencyKeys);
+    }
+
+    /**
+     * Deletes the journal segments that hold nothing after the checkpoint
+     */
+    void releaseJournal(final long checkpoint) {
+        try {
+            this.stockJournal.deleteSegmentsUpTo(checkpoint);
+        } catch (final IOException e) {
+            //Harmless, the segments are tried again after the next flush
+            log.warn("Could not delete stock journal segments up to {}", checkpoint, e);
+        }
+    }
+
+    void close() {
+        this.stockJournal.close();
+    }
+}
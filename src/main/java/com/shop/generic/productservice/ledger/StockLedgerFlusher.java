@@ -0,0 +1,209 @@
+package com.shop.generic.productservice.ledger;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.productservice.config.IdempotencyProperties;
+import com.shop.generic.productservice.config.StockLedgerProperties;
+import com.shop.generic.productservice.events.ProductStockUpdatedEvent;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.repositories.StockLedgerCheckpointRepository;
+import com.shop.generic.productservice.repositories.StockLedgerDeadLetterRepository;
+import com.shop.generic.productservice.repositories.StockLedgerKeyRepository;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Writes the {@link StockLedger}'s pending decrements to the database in the background.
+ * <p>
+ * Each flush applies the net decrement for every product bought since the last one as JDBC
+ * batches, in ascending product ID order, and moves the checkpoint up to the last basket they
+ * include in the same transaction. If the flush fails the decrements are put back for the next
+ * one. A decrement the database will not take, because something other than the ledger changed
+ * the product's stock, is moved to the dead letter table in the same transaction and counted on
+ * {@code product.stock.ledger.dead.letters}, so it survives the checkpoint moving past it without
+ * holding up every other product. The idempotency keys of the flushed baskets are saved in the
+ * same transaction too, and kept for as long as the idempotency keys themselves. Journal segments
+ * are deleted once the checkpoint has passed them.
+ * <p>
+ * On startup, before the web server takes requests, the journal is replayed from the checkpoint
+ * and flushed, which recovers any purchases a crash left out of the database. On shutdown, after
+ * the web server has stopped, a final flush runs.
+ */
+@Component
+@ConditionalOnProperty(prefix = "product-service.stock-ledger", name = "enabled",
+        havingValue = "true")
+@Slf4j
+public class StockLedgerFlusher implements SmartLifecycle {
+
+    private final StockLedger stockLedger;
+    private final ProductRepository productRepository;
+    private final StockLedgerCheckpointRepository checkpointRepository;
+    private final StockLedgerDeadLetterRepository deadLetterRepository;
+    private final StockLedgerKeyRepository keyRepository;
+    private final IdempotencyProperties idempotencyProperties;
+    private final ProductMetrics productMetrics;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final int flushBatchSize;
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private volatile boolean running;
+
+    public StockLedgerFlusher(final StockLedger stockLedger,
+            final ProductRepository productRepository,
+            final StockLedgerCheckpointRepository checkpointRepository,
+            final StockLedgerDeadLetterRepository deadLetterRepository,
+            final StockLedgerKeyRepository keyRepository,
+            final ProductMetrics productMetrics,
+            final ApplicationEventPublisher applicationEventPublisher,
+            final PlatformTransactionManager transactionManager,
+            final StockLedgerProperties properties,
+            final IdempotencyProperties idempotencyProperties) {
+        this.stockLedger = stockLedger;
+        this.productRepository = productRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.deadLetterRepository = deadLetterRepository;
+        this.keyRepository = keyRepository;
+        this.idempotencyProperties = idempotencyProperties;
+        this.productMetrics = productMetrics;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.flushBatchSize = properties.flushBatchSize();
+    }
+
+    @Override
+    public void start() {
+        final long checkpoint = this.transactionTemplate.execute(
+                status -> this.checkpointRepository.findSequence());
+        try {
+            final int replayed = this.stockLedger.recover(checkpoint);
+            if (replayed > 0) {
+                log.info("Replaying {} stock journal records after checkpoint {}", replayed,
+                        checkpoint);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not recover the stock journal", e);
+        }
+        //Fails startup if the replayed purchases cannot be written
+        flushPending();
+        this.running = true;
+    }
+
+    @Override
+    public void stop() {
+        this.running = false;
+        try {
+            flushPending();
+        } catch (final RuntimeException e) {
+            log.error("Could not flush the stock ledger on shutdown, the journal will be replayed "
+                    + "on the next start", e);
+        }
+        this.stockLedger.close();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * Starts before the web server and stops after it
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    @Scheduled(fixedDelayString = "${product-service.stock-ledger.flush-interval:PT0.2S}")
+    public void flush() {
+        if (!this.running) {
+            return;
+        }
+        try {
+            flushPending();
+        } catch (final RuntimeException e) {
+            log.error("Could not flush the stock ledger, will try again", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${product-service.idempotency.purge-interval:PT10M}")
+    public void purgeExpiredKeys() {
+        final Integer purged = this.transactionTemplate.execute(
+                status -> this.keyRepository.deleteExpired(Instant.now()));
+        log.debug("Purged {} expired stock ledger keys", purged);
+    }
+
+    void flushPending() {
+        this.flushLock.lock();
+        try {
+            final StockLedger.Drain drain = this.stockLedger.drain();
+            if (drain.decrements().isEmpty()) {
+                return;
+            }
+            final List<PurchaseProductDTO> deadLetters;
+            try {
+                deadLetters = this.transactionTemplate.execute(status -> apply(drain));
+            } catch (final RuntimeException e) {
+                this.stockLedger.restore(drain.decrements());
+                throw e;
+            }
+            this.stockLedger.keysFlushed(drain.idempotencyKeys());
+            log.debug("Flushed stock for {} products up to journal sequence {}",
+                    drain.decrements().size(), drain.sequence());
+            if (!deadLetters.isEmpty()) {
+                this.productMetrics.ledgerDeadLettered(deadLetters.size());
+                //Only possible if something other than the ledger changed the stock
+                log.error("Products had less stock in the database than the stock ledger "
+                                + "expected, so these decrements up to journal sequence {} were "
+                                + "moved to stock_ledger_dead_letters and need settling by hand: {}",
+                        drain.sequence(), deadLetters);
+            }
+            this.stockLedger.releaseJournal(drain.sequence());
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * @return the decrements that could not be applied and were dead lettered instead
+     */
+    private List<PurchaseProductDTO> apply(final StockLedger.Drain drain) {
+        final List<PurchaseProductDTO> decrements = drain.decrements().entrySet().stream()
+                .map(entry -> new PurchaseProductDTO(entry.getKey(), entry.getValue()))
+                .toList();
+        final List<PurchaseProductDTO> deadLetters = new ArrayList<>();
+        for (int from = 0; from < decrements.size(); from += this.flushBatchSize) {
+            final List<PurchaseProductDTO> batch = decrements.subList(from,
+                    Math.min(from + this.flushBatchSize, decrements.size()));
+            final int[] updateCounts = this.productRepository.decrementStockCounts(batch);
+            for (int i = 0; i < updateCounts.length; i++) {
+                if (updateCounts[i] == 0) {
+                    deadLetters.add(batch.get(i));
+                }
+            }
+        }
+        final Instant now = Instant.now();
+        if (!deadLetters.isEmpty()) {
+            this.deadLetterRepository.save(deadLetters, drain.sequence(), now);
+        }
+        if (!drain.idempotencyKeys().isEmpty()) {
+            this.keyRepository.save(drain.idempotencyKeys(), now,
+                    now.plus(this.idempotencyProperties.ttl()));
+        }
+        this.checkpointRepository.saveSequence(drain.sequence());
+        this.applicationEventPublisher.publishEvent(
+                new ProductStockUpdatedEvent(List.copyOf(drain.decrements().keySet())));
+        return deadLetters;
+    }
+}
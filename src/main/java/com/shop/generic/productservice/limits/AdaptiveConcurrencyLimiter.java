@@ -0,0 +1,160 @@
+package com.shop.generic.productservice.limits;
+
+import com.shop.generic.productservice.config.ConcurrencyLimitProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many requests run at once, and adapts the limit to how quickly they complete, by
+ * additive increase, multiplicative decrease. Each request that completes within the latency
+ * threshold while the limit is in full use raises the limit by {@code 1 / limit}, about one a
+ * round trip. A request slower than the threshold means the database, or whatever is behind it,
+ * is saturated, and cuts the limit by the backoff ratio. The cut happens at most once per
+ * threshold, as the requests that were in flight when the slowdown began all complete slowly
+ * together and would otherwise take the limit straight down to the minimum.
+ * <p>
+ * Once the limit is reached a few requests wait briefly for a slot, to ride out short bursts.
+ * Everything past that is turned away at once, rather than piling up on the connection pool until
+ * it all times out together.
+ * <p>
+ * Uses a {@link ReentrantLock} rather than {@code synchronized}, so virtual threads waiting for a
+ * slot do not pin their carrier threads.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = this.lock.newCondition();
+    private final LongAdder rejected = new LongAdder();
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    private final int maxQueueSize;
+    private final long maxQueueTimeNanos;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long lastBackoffNanos;
+
+    public AdaptiveConcurrencyLimiter(final ConcurrencyLimitProperties.Limit properties) {
+        this.minLimit = Math.max(1, properties.minLimit());
+        this.maxLimit = Math.max(this.minLimit, properties.maxLimit());
+        this.latencyThresholdNanos = properties.latencyThreshold().toNanos();
+        this.backoffRatio = properties.backoffRatio();
+        this.maxQueueSize = Math.max(0, properties.maxQueueSize());
+        this.maxQueueTimeNanos = properties.maxQueueTime().toNanos();
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, properties.initialLimit()));
+        this.lastBackoffNanos = System.nanoTime() - this.latencyThresholdNanos;
+    }
+
+    /**
+     * Takes a slot, waiting for one if the limit has been reached and there is room in the queue.
+     * Every successful call must be followed by a call to {@link #release(long)}
+     *
+     * @return false if the request should be turned away
+     */
+    public boolean tryAcquire() {
+        this.lock.lock();
+        try {
+            //Requests already waiting go first
+            if (this.queued == 0 && this.inFlight < (int) this.limit) {
+                this.inFlight++;
+                return true;
+            }
+            if (this.queued >= this.maxQueueSize || this.maxQueueTimeNanos <= 0) {
+                this.rejected.increment();
+                return false;
+            }
+            this.queued++;
+            try {
+                long remainingNanos = this.maxQueueTimeNanos;
+                while (this.inFlight >= (int) this.limit) {
+                    if (remainingNanos <= 0) {
+                        this.rejected.increment();
+                        return false;
+                    }
+                    remainingNanos = this.released.awaitNanos(remainingNanos);
+                }
+                this.inFlight++;
+                return true;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.rejected.increment();
+                return false;
+            } finally {
+                this.queued--;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a slot taken by {@link #tryAcquire()}, and adjusts the limit
+     *
+     * @param latencyNanos how long the request took once it had its slot. Time spent queued is
+     *                     left out, or the queue alone would keep the limit backing off
+     */
+    public void release(final long latencyNanos) {
+        this.lock.lock();
+        try {
+            final int previousLimit = (int) this.limit;
+            final boolean saturated = this.inFlight >= previousLimit;
+            this.inFlight--;
+            if (latencyNanos > this.latencyThresholdNanos) {
+                final long now = System.nanoTime();
+                if (now - this.lastBackoffNanos >= this.latencyThresholdNanos) {
+                    this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+                    this.lastBackoffNanos = now;
+                }
+            } else if (saturated) {
+                this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+            }
+            if ((int) this.limit > previousLimit) {
+                this.released.signalAll();
+            } else {
+                this.released.signal();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int limit() {
+        this.lock.lock();
+        try {
+            return (int) this.limit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int inFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int queued() {
+        this.lock.lock();
+        try {
+            return this.queued;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many requests have been turned away since startup
+     */
+    public long rejected() {
+        return this.rejected.sum();
+    }
+}
@@ -0,0 +1,67 @@
+package com.shop.generic.productservice.limits;
+
+import com.shop.generic.productservice.exceptions.ConcurrencyLimitExceededException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Holds requests to {@link ConcurrencyLimited} methods to the limit for their endpoint class.
+ * Requests over the limit fail before the controller runs, so they never reach the connection
+ * pool.
+ * <p>
+ * A streamed response is written after the controller returns, and the request is then
+ * dispatched a second time to finish it. The permit is kept across, so the slot is held, and the
+ * latency measured, until the whole response has been written.
+ */
+public class ConcurrencyLimitInterceptor implements HandlerInterceptor {
+
+    private static final String PERMIT_ATTRIBUTE =
+            ConcurrencyLimitInterceptor.class.getName() + ".permit";
+
+    private final ConcurrencyLimiters concurrencyLimiters;
+
+    public ConcurrencyLimitInterceptor(final ConcurrencyLimiters concurrencyLimiters) {
+        this.concurrencyLimiters = concurrencyLimiters;
+    }
+
+    @Override
+    public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response,
+            final Object handler) {
+        if (!this.concurrencyLimiters.enabled()
+                || !(handler instanceof final HandlerMethod handlerMethod)) {
+            return true;
+        }
+        final ConcurrencyLimited concurrencyLimited = handlerMethod.getMethodAnnotation(
+                ConcurrencyLimited.class);
+        if (concurrencyLimited == null) {
+            return true;
+        }
+        if (request.getAttribute(PERMIT_ATTRIBUTE) != null) {
+            //Taken when the request was first dispatched, and still held
+            return true;
+        }
+        final EndpointClass endpointClass = concurrencyLimited.value();
+        final AdaptiveConcurrencyLimiter limiter = this.concurrencyLimiters.get(endpointClass);
+        if (!limiter.tryAcquire()) {
+            throw new ConcurrencyLimitExceededException(endpointClass,
+                    this.concurrencyLimiters.retryAfter(endpointClass));
+        }
+        request.setAttribute(PERMIT_ATTRIBUTE, new Permit(limiter, System.nanoTime()));
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(final HttpServletRequest request,
+            final HttpServletResponse response, final Object handler, final Exception ex) {
+        if (request.getAttribute(PERMIT_ATTRIBUTE) instanceof final Permit permit) {
+            request.removeAttribute(PERMIT_ATTRIBUTE);
+            permit.limiter().release(System.nanoTime() - permit.acquiredAtNanos());
+        }
+    }
+
+    private record Permit(AdaptiveConcurrencyLimiter limiter, long acquiredAtNanos) {
+
+    }
+}
@@ -0,0 +1,19 @@
+package com.shop.generic.productservice.limits;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Puts a controller method behind the concurrency limit for its class of endpoint. Streamed
+ * responses hold their slot until the stream has been written out
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ConcurrencyLimited {
+
+    EndpointClass value();
+}
@@ -0,0 +1,84 @@
+package com.shop.generic.productservice.limits;
+
+import com.shop.generic.productservice.config.ConcurrencyLimitProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.springframework.stereotype.Component;
+
+/**
+ * One {@link AdaptiveConcurrencyLimiter} for each {@link EndpointClass}, with their limits, queue
+ * depths and rejections published as metrics tagged by endpoint class
+ */
+@Component
+public class ConcurrencyLimiters implements MeterBinder {
+
+    private final ConcurrencyLimitProperties concurrencyLimitProperties;
+    private final Map<EndpointClass, AdaptiveConcurrencyLimiter> limiters = new EnumMap<>(
+            EndpointClass.class);
+
+    public ConcurrencyLimiters(final ConcurrencyLimitProperties concurrencyLimitProperties) {
+        this.concurrencyLimitProperties = concurrencyLimitProperties;
+        for (final EndpointClass endpointClass : EndpointClass.values()) {
+            this.limiters.put(endpointClass,
+                    new AdaptiveConcurrencyLimiter(properties(endpointClass)));
+        }
+    }
+
+    public boolean enabled() {
+        return this.concurrencyLimitProperties.enabled();
+    }
+
+    public AdaptiveConcurrencyLimiter get(final EndpointClass endpointClass) {
+        return this.limiters.get(endpointClass);
+    }
+
+    /**
+     * The configured wait, plus up to as long again at random, so callers turned away together do
+     * not all come back together and bring the spike back with them
+     */
+    public Duration retryAfter(final EndpointClass endpointClass) {
+        final Duration retryAfter = properties(endpointClass).retryAfter();
+        return retryAfter.plusMillis(
+                ThreadLocalRandom.current().nextLong(retryAfter.toMillis() + 1));
+    }
+
+    private ConcurrencyLimitProperties.Limit properties(final EndpointClass endpointClass) {
+        return switch (endpointClass) {
+            case READ -> this.concurrencyLimitProperties.read();
+            case BULK_READ -> this.concurrencyLimitProperties.bulkRead();
+            case WRITE -> this.concurrencyLimitProperties.write();
+        };
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry meterRegistry) {
+        this.limiters.forEach((endpointClass, limiter) -> {
+            final String endpoint = endpointClass.name().toLowerCase();
+            Gauge.builder("product.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::limit)
+                    .description("Requests allowed to run at once")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+            Gauge.builder("product.concurrency.in.flight", limiter,
+                            AdaptiveConcurrencyLimiter::inFlight)
+                    .description("Requests running")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+            Gauge.builder("product.concurrency.queued", limiter,
+                            AdaptiveConcurrencyLimiter::queued)
+                    .description("Requests waiting for a slot")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+            FunctionCounter.builder("product.concurrency.rejected", limiter,
+                            AdaptiveConcurrencyLimiter::rejected)
+                    .description("Requests turned away with a 503 over the limit")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+        });
+    }
+}
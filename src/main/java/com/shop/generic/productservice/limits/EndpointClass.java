@@ -0,0 +1,14 @@
+package com.shop.generic.productservice.limits;
+
+/**
+ * The groups of endpoints that share a concurrency limit. Reads and writes are limited
+ * separately, so a spike in purchases cannot starve the catalogue of connections, or the other way
+ * round. Reads of the whole catalogue or of large batches take far longer than point reads, so
+ * they are limited on their own, against a latency threshold to match, rather than backing off the
+ * limit for point reads.
+ */
+public enum EndpointClass {
+    READ,
+    BULK_READ,
+    WRITE
+}
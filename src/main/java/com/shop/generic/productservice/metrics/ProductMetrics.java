@@ -0,0 +1,77 @@
+package com.shop.generic.productservice.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Business level counters for the product service. Latency is covered separately by the
+ * {@code product.controller} and {@code product.service} timers.
+ */
+@Component
+public class ProductMetrics {
+
+    private final Counter productsNotFound;
+    private final Counter stockUnitsDecremented;
+    private final Counter outOfStockTransitions;
+    private final Counter transactionRetries;
+    private final Counter ledgerDeadLetters;
+    private final Counter lookupsCoalesced;
+    private final DistributionSummary lookupBatchSize;
+
+    public ProductMetrics(final MeterRegistry meterRegistry) {
+        this.productsNotFound = Counter.builder("product.not.found")
+                .description("Requested product IDs that did not exist")
+                .register(meterRegistry);
+        this.stockUnitsDecremented = Counter.builder("product.stock.decremented")
+                .description("Units of stock removed by purchases")
+                .baseUnit("units")
+                .register(meterRegistry);
+        this.outOfStockTransitions = Counter.builder("product.stock.out.of.stock")
+                .description("Products that sold their last unit")
+                .register(meterRegistry);
+        this.transactionRetries = Counter.builder("product.transaction.retries")
+                .description("Transactions run again after a deadlock or serialization failure")
+                .register(meterRegistry);
+        this.ledgerDeadLetters = Counter.builder("product.stock.ledger.dead.letters")
+                .description("Stock ledger decrements the database would not take, set aside to "
+                        + "be settled by hand. Anything above zero needs looking at")
+                .register(meterRegistry);
+        this.lookupsCoalesced = Counter.builder("product.lookup.coalesced")
+                .description("Product lookups that shared a query already on its way")
+                .register(meterRegistry);
+        this.lookupBatchSize = DistributionSummary.builder("product.lookup.batch.size")
+                .description("Products looked up by each coalesced query")
+                .baseUnit("products")
+                .register(meterRegistry);
+    }
+
+    public void productsNotFound(final int count) {
+        this.productsNotFound.increment(count);
+    }
+
+    public void stockDecremented(final int units) {
+        this.stockUnitsDecremented.increment(units);
+    }
+
+    public void outOfStock(final int count) {
+        this.outOfStockTransitions.increment(count);
+    }
+
+    public void transactionRetried() {
+        this.transactionRetries.increment();
+    }
+
+    public void ledgerDeadLettered(final int count) {
+        this.ledgerDeadLetters.increment(count);
+    }
+
+    public void lookupCoalesced() {
+        this.lookupsCoalesced.increment();
+    }
+
+    public void lookupBatched(final int size) {
+        this.lookupBatchSize.record(size);
+    }
+}
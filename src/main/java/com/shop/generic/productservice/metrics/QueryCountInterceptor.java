@@ -0,0 +1,40 @@
+package com.shop.generic.productservice.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Records the number of Hibernate statements each request ran, tagged by controller method, so a
+ * change that introduces an N+1 query shows up as a jump in that endpoint's statement count
+ */
+public class QueryCountInterceptor implements HandlerInterceptor {
+
+    private final MeterRegistry meterRegistry;
+
+    public QueryCountInterceptor(final MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response,
+            final Object handler) {
+        QueryCountStatementInspector.reset();
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(final HttpServletRequest request,
+            final HttpServletResponse response, final Object handler, final Exception ex) {
+        if (handler instanceof final HandlerMethod handlerMethod) {
+            DistributionSummary.builder("product.request.statements")
+                    .description("SQL statements run by Hibernate per request")
+                    .tag("method", handlerMethod.getMethod().getName())
+                    .register(this.meterRegistry)
+                    .record(QueryCountStatementInspector.count());
+        }
+    }
+}
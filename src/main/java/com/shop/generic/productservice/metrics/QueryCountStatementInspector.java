@@ -0,0 +1,29 @@
+package com.shop.generic.productservice.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread, so that
+ * {@link QueryCountInterceptor} can record how many each request ran. Registered through
+ * {@code hibernate.session_factory.statement_inspector}, which is why the count lives in a static
+ * thread local rather than a bean. Statements sent through JdbcTemplate are not counted.
+ */
+public class QueryCountStatementInspector implements StatementInspector {
+
+    private static final ThreadLocal<int[]> STATEMENT_COUNT = ThreadLocal.withInitial(
+            () -> new int[1]);
+
+    @Override
+    public String inspect(final String sql) {
+        STATEMENT_COUNT.get()[0]++;
+        return sql;
+    }
+
+    static void reset() {
+        STATEMENT_COUNT.get()[0] = 0;
+    }
+
+    static int count() {
+        return STATEMENT_COUNT.get()[0];
+    }
+}
@@ -0,0 +1,71 @@
+package com.shop.generic.productservice.repositories;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Optional;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Idempotency keys are not part of the shared entity model, so they are stored with plain JDBC
+ */
+@Repository
+public class IdempotencyKeyRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * The response recorded against a key, and the hash of the request it answered
+     */
+    public record RecordedResponse(String requestHash, String response) {
+
+    }
+
+    public IdempotencyKeyRepository(final JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @return the response recorded against the key, if it has one and has not expired
+     */
+    public Optional<RecordedResponse> findResponse(final String idempotencyKey,
+            final Instant now) {
+        return this.jdbcTemplate.query("""
+                        SELECT request_hash, response_body FROM idempotency_keys
+                        WHERE idempotency_key = ? AND expires_at > ? AND response_body IS NOT NULL""",
+                (rs, rowNum) -> new RecordedResponse(rs.getString("request_hash"),
+                        rs.getString("response_body")), idempotencyKey,
+                Timestamp.from(now)).stream().findFirst();
+    }
+
+    /**
+     * Claims the key for the request with the given hash. Any expired claim on the same key is
+     * removed first. If another transaction has claimed the key but not committed yet, the insert
+     * waits for it, then fails with a duplicate key error if that transaction committed.
+     */
+    public void claim(final String idempotencyKey, final String requestHash, final Instant now,
+            final Instant expiresAt) {
+        this.jdbcTemplate.update(
+                "DELETE FROM idempotency_keys WHERE idempotency_key = ? AND expires_at <= ?",
+                idempotencyKey, Timestamp.from(now));
+        this.jdbcTemplate.update("""
+                        INSERT INTO idempotency_keys (idempotency_key, request_hash, created_at,
+                                                      expires_at)
+                        VALUES (?, ?, ?, ?)""", idempotencyKey, requestHash, Timestamp.from(now),
+                Timestamp.from(expiresAt));
+    }
+
+    public void saveResponse(final String idempotencyKey, final String responseBody) {
+        this.jdbcTemplate.update(
+                "UPDATE idempotency_keys SET response_body = ? WHERE idempotency_key = ?",
+                responseBody, idempotencyKey);
+    }
+
+    /**
+     * @return the number of expired keys removed
+     */
+    public int deleteExpired(final Instant now) {
+        return this.jdbcTemplate.update("DELETE FROM idempotency_keys WHERE expires_at <= ?",
+                Timestamp.from(now));
+    }
+}
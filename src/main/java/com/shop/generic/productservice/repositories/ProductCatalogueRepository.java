@@ -0,0 +1,79 @@
+package com.shop.generic.productservice.repositories;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.enums.StockStatus;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Catalogue reads that should not go through the persistence context, mixed into
+ * {@link ProductRepository}
+ */
+public interface ProductCatalogueRepository {
+
+    /**
+     * Reads every product in ascending product ID order and hands each one to the consumer as soon
+     * as its row is read. Rows are fetched from the database a batch at a time and are never held
+     * by Hibernate, so memory use does not grow with the size of the table. Must be called inside
+     * a transaction, as some drivers (PostgreSQL) ignore the fetch size in auto-commit mode.
+     *
+     * @param fetchSize the number of rows to fetch from the database at a time
+     * @param consumer  receives each product
+     */
+    void streamAllProducts(int fetchSize, Consumer<ProductDTO> consumer);
+
+    /**
+     * Reads the ID of every product with the given stock status, like
+     * {@link #streamAllProducts(int, Consumer)} but without the rest of the row. Must be called
+     * inside a transaction for the same reason.
+     */
+    void streamProductIdsByStockStatus(StockStatus stockStatus, int fetchSize,
+            IntConsumer consumer);
+
+    /**
+     * Reads a product together with its version, from the same row, so the two always match
+     *
+     * @return the product, or empty if it does not exist
+     */
+    Optional<VersionedProduct> findVersionedProduct(int productId);
+
+    /**
+     * @return those of the given products that exist, each with its version, in no particular
+     * order
+     */
+    List<VersionedProduct> findVersionedProducts(Collection<Integer> productIds);
+
+    /**
+     * @return the versions of those of the given products that exist, keyed by product ID
+     */
+    Map<Integer, Long> findVersions(Collection<Integer> productIds);
+
+    /**
+     * Summarises the whole catalogue in a single aggregate over the products table, without
+     * reading any of the products. The summary changes whenever any product's stock changes or a
+     * product is added or removed.
+     */
+    CatalogueVersion findCatalogueVersion();
+
+    /**
+     * @param productCount the number of products
+     * @param versionSum   the sum of every product's version
+     * @param productIdSum the sum of every product's ID, which changes when products are swapped
+     *                     for others without the count changing
+     */
+    record CatalogueVersion(long productCount, long versionSum, long productIdSum) {
+
+    }
+
+    /**
+     * @param version the product's version when it was read, which goes up every time a change to
+     *                its stock commits
+     */
+    record VersionedProduct(ProductDTO productDTO, long version) {
+
+    }
+}
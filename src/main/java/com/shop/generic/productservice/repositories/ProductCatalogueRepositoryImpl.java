@@ -0,0 +1,122 @@
+package com.shop.generic.productservice.repositories;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.enums.StockStatus;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Picked up by Spring Data through the Impl suffix
+ */
+class ProductCatalogueRepositoryImpl implements ProductCatalogueRepository {
+
+    private static final String SELECT_ALL_PRODUCTS_SQL = """
+            SELECT product_id, name, price, stock_status, stock_count
+            FROM products
+            ORDER BY product_id""";
+
+    private static final String SELECT_PRODUCT_IDS_BY_STOCK_STATUS_SQL =
+            "SELECT product_id FROM products WHERE stock_status = ?";
+
+    private static final String SELECT_VERSIONED_PRODUCT_SQL = """
+            SELECT product_id, name, price, stock_status, stock_count, version
+            FROM products
+            WHERE product_id = ?""";
+
+    private static final String SELECT_VERSIONED_PRODUCTS_SQL = """
+            SELECT product_id, name, price, stock_status, stock_count, version
+            FROM products
+            WHERE product_id IN (%s)""";
+
+    private static final String SELECT_VERSIONS_SQL =
+            "SELECT product_id, version FROM products WHERE product_id IN (%s)";
+
+    private static final String SELECT_CATALOGUE_VERSION_SQL = """
+            SELECT COUNT(*), COALESCE(SUM(version), 0), COALESCE(SUM(product_id), 0)
+            FROM products""";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    ProductCatalogueRepositoryImpl(final JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void streamAllProducts(final int fetchSize, final Consumer<ProductDTO> consumer) {
+        this.jdbcTemplate.query(connection -> {
+            final PreparedStatement ps = connection.prepareStatement(SELECT_ALL_PRODUCTS_SQL);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(mapProductDTO(rs)));
+    }
+
+    @Override
+    public void streamProductIdsByStockStatus(final StockStatus stockStatus, final int fetchSize,
+            final IntConsumer consumer) {
+        this.jdbcTemplate.query(connection -> {
+            final PreparedStatement ps = connection.prepareStatement(
+                    SELECT_PRODUCT_IDS_BY_STOCK_STATUS_SQL);
+            ps.setFetchSize(fetchSize);
+            ps.setString(1, stockStatus.name());
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(rs.getInt("product_id")));
+    }
+
+    @Override
+    public Optional<VersionedProduct> findVersionedProduct(final int productId) {
+        return this.jdbcTemplate.query(SELECT_VERSIONED_PRODUCT_SQL,
+                (rs, rowNum) -> mapVersionedProduct(rs), productId).stream().findFirst();
+    }
+
+    @Override
+    public List<VersionedProduct> findVersionedProducts(final Collection<Integer> productIds) {
+        if (productIds.isEmpty()) {
+            return List.of();
+        }
+        final String sql = SELECT_VERSIONED_PRODUCTS_SQL.formatted(
+                String.join(",", Collections.nCopies(productIds.size(), "?")));
+        return this.jdbcTemplate.query(sql, (rs, rowNum) -> mapVersionedProduct(rs),
+                productIds.toArray());
+    }
+
+    @Override
+    public Map<Integer, Long> findVersions(final Collection<Integer> productIds) {
+        if (productIds.isEmpty()) {
+            return Map.of();
+        }
+        final String sql = SELECT_VERSIONS_SQL.formatted(
+                String.join(",", Collections.nCopies(productIds.size(), "?")));
+        final Map<Integer, Long> versions = new HashMap<>();
+        this.jdbcTemplate.query(sql, (RowCallbackHandler) rs -> versions.put(
+                rs.getInt("product_id"), rs.getLong("version")), productIds.toArray());
+        return versions;
+    }
+
+    @Override
+    public CatalogueVersion findCatalogueVersion() {
+        return this.jdbcTemplate.queryForObject(SELECT_CATALOGUE_VERSION_SQL,
+                (rs, rowNum) -> new CatalogueVersion(rs.getLong(1), rs.getLong(2),
+                        rs.getLong(3)));
+    }
+
+    private static ProductDTO mapProductDTO(final ResultSet rs) throws SQLException {
+        return new ProductDTO(rs.getInt("product_id"), rs.getString("name"),
+                rs.getBigDecimal("price"), StockStatus.valueOf(rs.getString("stock_status")),
+                rs.getInt("stock_count"));
+    }
+
+    private static VersionedProduct mapVersionedProduct(final ResultSet rs) throws SQLException {
+        return new VersionedProduct(mapProductDTO(rs), rs.getLong("version"));
+    }
+}
@@ -1,16 +1,91 @@
 package com.shop.generic.productservice.repositories;
 
+import com.shop.generic.common.dtos.ProductDTO;
 import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.enums.StockStatus;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 @Repository
-public interface ProductRepository extends JpaRepository<Product, Integer> {
+public interface ProductRepository extends JpaRepository<Product, Integer>,
+        ProductStockRepository, ProductCatalogueRepository {
 
+    /**
+     * Selects only the columns {@link ProductDTO} needs, straight into the DTO. Unlike loading
+     * entities, nothing is added to the persistence context, so reads skip the dirty checking
+     * snapshot and the copy from entity to DTO. The finders that use it run in read-only
+     * transactions, which Spring sets to Hibernate's MANUAL flush mode, so they never flush either.
+     */
+    String SELECT_PRODUCT_DTO = """
+            select new com.shop.generic.common.dtos.ProductDTO(p.productId, p.name, p.price,
+                p.stockStatus, p.stockCount)
+            from Product p
+            """;
+
+    /**
+     * Native, as the version column is not mapped on the entity
+     */
     @Modifying
-    @Query("update Product p set p.stockCount = ?1 where p.productId = ?2")
+    @Query(value = "UPDATE products SET stock_count = ?1, version = version + 1 "
+            + "WHERE product_id = ?2", nativeQuery = true)
     int updateStockCountByProductId(Integer stockCount, Integer productId);
 
+    /**
+     * Checks which of the given products exist without loading the entities themselves
+     *
+     * @return the IDs that exist, in no particular order
+     */
+    @Query("select p.productId from Product p where p.productId in ?1")
+    List<Integer> findExistingProductIds(Collection<Integer> productIds);
+
+    @Query("select p.productId from Product p where p.productId in ?1 and p.stockCount = 0")
+    List<Integer> findOutOfStockProductIds(Collection<Integer> productIds);
+
+    @Query("select p.productId from Product p where p.productId in ?2 and p.stockStatus = ?1")
+    List<Integer> findProductIdsByStockStatus(StockStatus stockStatus,
+            Collection<Integer> productIds);
+
+    /**
+     * Keyset pagination over the catalogue. Seeks straight to the first product after the given
+     * ID using the primary key index, so later pages cost the same as the first
+     */
+    @Transactional(readOnly = true)
+    @Query(SELECT_PRODUCT_DTO + """
+            where p.productId > ?1
+            order by p.productId""")
+    List<ProductDTO> findProductDTOsAfter(Integer productId, Limit limit);
+
+    /**
+     * Products with the given stock status, cheapest first. Read in order from
+     * idx_products_stock_status_price, or from idx_products_available_price for available
+     * products on PostgreSQL, without a sort
+     */
+    @Transactional(readOnly = true)
+    @Query(SELECT_PRODUCT_DTO + """
+            where p.stockStatus = ?1
+            order by p.price, p.productId""")
+    List<ProductDTO> findProductsByStockStatus(StockStatus stockStatus, Limit limit);
+
+    /**
+     * Like {@link #findProductsByStockStatus(StockStatus, Limit)}, but only products priced
+     * between the given prices, inclusive
+     */
+    @Transactional(readOnly = true)
+    @Query(SELECT_PRODUCT_DTO + """
+            where p.stockStatus = ?1 and p.price between ?2 and ?3
+            order by p.price, p.productId""")
+    List<ProductDTO> findProductsByStockStatusAndPriceBetween(StockStatus stockStatus,
+            BigDecimal minPrice, BigDecimal maxPrice, Limit limit);
+
+    @Transactional(readOnly = true)
+    @Query(SELECT_PRODUCT_DTO)
+    List<ProductDTO> findAllProductDTOs();
+
 }
@@ -0,0 +1,70 @@
+package com.shop.generic.productservice.repositories;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.enums.StockStatus;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stock operations that need more control over the generated SQL than Spring Data JPA gives us,
+ * mixed into {@link ProductRepository}
+ */
+public interface ProductStockRepository {
+
+    /**
+     * Locks the rows of the given products for the rest of the transaction, in ascending product
+     * ID order, and reads their stock as it was before anything the transaction goes on to do.
+     * Must be called inside a transaction.
+     *
+     * @return the stock of those of the given products that exist, keyed by product ID
+     */
+    Map<Integer, StockLevel> lockStockLevels(Collection<Integer> productIds);
+
+    /**
+     * Removes the purchased quantities from stock, sending every line to the database as a single
+     * JDBC batch. Each line only applies if the product has enough stock that is not held by a
+     * reservation to cover it, and the product is flagged as out of stock in the same statement
+     * when the last unheld unit is taken.
+     *
+     * @param purchases the lines to apply, in the order they should be applied
+     * @return the number of rows updated for each line, in the same order as the purchases. A 0
+     * means the product does not exist or did not have enough stock
+     */
+    int[] decrementStockCounts(List<PurchaseProductDTO> purchases);
+
+    /**
+     * Holds stock for a reservation, as a single JDBC batch. Each line only applies if the product
+     * has enough stock that is not already held to cover it, and the product is flagged as out of
+     * stock in the same statement when the last unheld unit is held.
+     *
+     * @return the number of rows updated for each line. A 0 means the product does not exist or
+     * did not have enough unheld stock
+     */
+    int[] reserveStockCounts(List<PurchaseProductDTO> reservations);
+
+    /**
+     * Turns held stock into a purchase, removing the quantities from both the stock and the held
+     * stock. The product stays flagged as out of stock if none of what is left is unheld.
+     *
+     * @return the number of rows updated for each line
+     */
+    int[] commitReservedStockCounts(List<PurchaseProductDTO> reservations);
+
+    /**
+     * Gives held stock back, so it can be bought or held again. A product that was only out of
+     * stock because all of its stock was held is flagged as available again.
+     *
+     * @return the number of rows updated for each line
+     */
+    int[] releaseReservedStockCounts(List<PurchaseProductDTO> reservations);
+
+    /**
+     * @param unheldCount the units in stock that are not held by a reservation, and so can be
+     *                    bought
+     * @param stockStatus the product's stock status
+     */
+    record StockLevel(int unheldCount, StockStatus stockStatus) {
+
+    }
+}
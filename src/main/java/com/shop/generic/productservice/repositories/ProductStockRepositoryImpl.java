@@ -0,0 +1,165 @@
+package com.shop.generic.productservice.repositories;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.enums.StockStatus;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Picked up by Spring Data through the Impl suffix. Uses plain JDBC so that the decrements can be
+ * batched, which Hibernate does not do for bulk update queries. The JdbcTemplate takes part in the
+ * surrounding JPA transaction.
+ * <p>
+ * Stock that is held by a reservation cannot be bought, so a product is flagged as out of stock
+ * once none of its stock is left unheld, and flagged as available again when a release frees some.
+ * Statements that change the stock count or the stock status also bump the product's version.
+ * Holding and releasing stock otherwise do not, as the held count is not part of what product
+ * reads return.
+ */
+class ProductStockRepositoryImpl implements ProductStockRepository {
+
+    private static final String LOCK_STOCK_LEVELS_SQL = """
+            SELECT product_id, stock_count - reserved_count AS unheld_count, stock_status
+            FROM products
+            WHERE product_id IN (%s)
+            ORDER BY product_id
+            FOR UPDATE""";
+
+    private static final String DECREMENT_STOCK_COUNT_SQL = """
+            UPDATE products
+            SET stock_count = stock_count - ?,
+                stock_status = CASE WHEN stock_count - reserved_count = ? THEN 'OUT_OF_STOCK'
+                    ELSE stock_status END,
+                version = version + 1
+            WHERE product_id = ? AND stock_count - reserved_count >= ?""";
+
+    private static final String RESERVE_STOCK_COUNT_SQL = """
+            UPDATE products
+            SET reserved_count = reserved_count + ?,
+                stock_status = CASE WHEN stock_count - reserved_count = ? THEN 'OUT_OF_STOCK'
+                    ELSE stock_status END,
+                version = version + CASE WHEN stock_count - reserved_count = ? THEN 1 ELSE 0 END
+            WHERE product_id = ? AND stock_count - reserved_count >= ?""";
+
+    private static final String COMMIT_RESERVED_STOCK_COUNT_SQL = """
+            UPDATE products
+            SET stock_count = stock_count - ?,
+                reserved_count = reserved_count - ?,
+                stock_status = CASE WHEN stock_count - reserved_count = 0 THEN 'OUT_OF_STOCK'
+                    ELSE stock_status END,
+                version = version + 1
+            WHERE product_id = ?""";
+
+    //Only a product that was out of stock because all of its stock was held is made available
+    private static final String RELEASE_RESERVED_STOCK_COUNT_SQL = """
+            UPDATE products
+            SET reserved_count = reserved_count - ?,
+                stock_status = CASE WHEN stock_status = 'OUT_OF_STOCK'
+                    AND stock_count - reserved_count = 0 THEN 'AVAILABLE' ELSE stock_status END,
+                version = version + CASE WHEN stock_status = 'OUT_OF_STOCK'
+                    AND stock_count - reserved_count = 0 THEN 1 ELSE 0 END
+            WHERE product_id = ?""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int lookupChunkSize;
+
+    ProductStockRepositoryImpl(final JdbcTemplate jdbcTemplate,
+            @Value("${product-service.catalogue.lookup-chunk-size:1000}")
+            final int lookupChunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.lookupChunkSize = lookupChunkSize;
+    }
+
+    /**
+     * Locks a chunk of IDs per statement, so a large basket never exceeds the database's limit on
+     * the number of values in an IN list. The IDs are sorted before they are chunked, so the locks
+     * are still taken in ascending product ID order across chunks.
+     */
+    @Override
+    public Map<Integer, StockLevel> lockStockLevels(final Collection<Integer> productIds) {
+        if (productIds.isEmpty()) {
+            return Map.of();
+        }
+        final List<Integer> sortedIds = productIds.stream().distinct().sorted().toList();
+        final Map<Integer, StockLevel> stockLevels = new HashMap<>();
+        for (int from = 0; from < sortedIds.size(); from += this.lookupChunkSize) {
+            final List<Integer> chunk = sortedIds.subList(from,
+                    Math.min(from + this.lookupChunkSize, sortedIds.size()));
+            final String sql = LOCK_STOCK_LEVELS_SQL.formatted(
+                    String.join(",", Collections.nCopies(chunk.size(), "?")));
+            this.jdbcTemplate.query(sql, (RowCallbackHandler) rs -> stockLevels.put(
+                    rs.getInt("product_id"), new StockLevel(rs.getInt("unheld_count"),
+                            StockStatus.valueOf(rs.getString("stock_status")))),
+                    chunk.toArray());
+        }
+        return stockLevels;
+    }
+
+    @Override
+    public int[] decrementStockCounts(final List<PurchaseProductDTO> purchases) {
+        return batchUpdate(DECREMENT_STOCK_COUNT_SQL, purchases, (ps, purchase) -> {
+            ps.setInt(1, purchase.quantity());
+            ps.setInt(2, purchase.quantity());
+            ps.setInt(3, purchase.productId());
+            ps.setInt(4, purchase.quantity());
+        });
+    }
+
+    @Override
+    public int[] reserveStockCounts(final List<PurchaseProductDTO> reservations) {
+        return batchUpdate(RESERVE_STOCK_COUNT_SQL, reservations, (ps, reservation) -> {
+            ps.setInt(1, reservation.quantity());
+            ps.setInt(2, reservation.quantity());
+            ps.setInt(3, reservation.quantity());
+            ps.setInt(4, reservation.productId());
+            ps.setInt(5, reservation.quantity());
+        });
+    }
+
+    @Override
+    public int[] commitReservedStockCounts(final List<PurchaseProductDTO> reservations) {
+        return batchUpdate(COMMIT_RESERVED_STOCK_COUNT_SQL, reservations, (ps, reservation) -> {
+            ps.setInt(1, reservation.quantity());
+            ps.setInt(2, reservation.quantity());
+            ps.setInt(3, reservation.productId());
+        });
+    }
+
+    @Override
+    public int[] releaseReservedStockCounts(final List<PurchaseProductDTO> reservations) {
+        return batchUpdate(RELEASE_RESERVED_STOCK_COUNT_SQL, reservations, (ps, reservation) -> {
+            ps.setInt(1, reservation.quantity());
+            ps.setInt(2, reservation.productId());
+        });
+    }
+
+    private int[] batchUpdate(final String sql, final List<PurchaseProductDTO> lines,
+            final LineSetter lineSetter) {
+        return this.jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                lineSetter.setValues(ps, lines.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return lines.size();
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface LineSetter {
+
+        void setValues(PreparedStatement ps, PurchaseProductDTO line) throws SQLException;
+    }
+}
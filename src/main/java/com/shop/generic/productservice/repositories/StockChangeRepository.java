@@ -0,0 +1,145 @@
+package com.shop.generic.productservice.repositories;
+
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.dtos.StockChangeDTO;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * The transactional outbox of stock changes and the stream it is relayed to. Changes are written
+ * to the outbox in the transaction that makes them, numbered by the order the relay moves them to
+ * the stream in, and kept there for subscribers to resume from.
+ */
+@Repository
+public class StockChangeRepository {
+
+    //Stays within the database's limit on IN list size
+    private static final int PRODUCT_ID_CHUNK_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StockChangeRepository(final JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Records the current stock of the given products in the outbox. Has to run in the transaction
+     * that changed them, after the change, so it records the new stock and commits with it.
+     */
+    public void appendToOutbox(final List<Integer> productIds, final Instant changedAt) {
+        for (int from = 0; from < productIds.size(); from += PRODUCT_ID_CHUNK_SIZE) {
+            final List<Integer> chunk = productIds.subList(from,
+                    Math.min(from + PRODUCT_ID_CHUNK_SIZE, productIds.size()));
+            final Object[] parameters = new Object[chunk.size() + 1];
+            parameters[0] = Timestamp.from(changedAt);
+            for (int i = 0; i < chunk.size(); i++) {
+                parameters[i + 1] = chunk.get(i);
+            }
+            this.jdbcTemplate.update("INSERT INTO stock_change_outbox "
+                    + "(product_id, stock_status, stock_count, changed_at) "
+                    + "SELECT product_id, stock_status, stock_count, ? FROM products "
+                    + "WHERE product_id IN (" + String.join(",",
+                    Collections.nCopies(chunk.size(), "?")) + ") ORDER BY product_id", parameters);
+        }
+    }
+
+    /**
+     * Moves the oldest changes in the outbox to the stream, numbering them after the last change
+     * already there. Locks the sequence row first, so concurrent relays take turns rather than
+     * handing out the same numbers. Must run in a transaction.
+     *
+     * @return the changes published, in sequence order
+     */
+    public List<StockChangeDTO> relayOutbox(final int limit) {
+        final long lastSequence = this.jdbcTemplate.queryForObject(
+                "SELECT sequence FROM stock_change_sequence WHERE id = 1 FOR UPDATE", Long.class);
+        final List<Long> outboxIds = new ArrayList<>();
+        final List<StockChangeDTO> changes = this.jdbcTemplate.query("""
+                        SELECT outbox_id, product_id, stock_status, stock_count, changed_at
+                        FROM stock_change_outbox ORDER BY outbox_id FETCH FIRST ? ROWS ONLY""",
+                (rs, rowNum) -> {
+                    outboxIds.add(rs.getLong("outbox_id"));
+                    return mapChange(rs, lastSequence + rowNum + 1);
+                }, limit);
+        if (changes.isEmpty()) {
+            return changes;
+        }
+
+        this.jdbcTemplate.batchUpdate("""
+                INSERT INTO stock_change_events
+                    (sequence, product_id, stock_status, stock_count, changed_at)
+                VALUES (?, ?, ?, ?, ?)""", new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                final StockChangeDTO change = changes.get(i);
+                ps.setLong(1, change.sequence());
+                ps.setInt(2, change.productId());
+                ps.setString(3, change.stockStatus().name());
+                ps.setInt(4, change.stockCount());
+                ps.setTimestamp(5, Timestamp.from(change.changedAt()));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return changes.size();
+            }
+        });
+        //By ID rather than by range, as a change with a lower ID may still be uncommitted
+        this.jdbcTemplate.batchUpdate("DELETE FROM stock_change_outbox WHERE outbox_id = ?",
+                outboxIds, outboxIds.size(), (ps, outboxId) -> ps.setLong(1, outboxId));
+        this.jdbcTemplate.update("UPDATE stock_change_sequence SET sequence = ? WHERE id = 1",
+                changes.get(changes.size() - 1).sequence());
+        return changes;
+    }
+
+    /**
+     * @return the published changes after the given sequence number, in sequence order
+     */
+    public List<StockChangeDTO> findChangesAfter(final long sequence, final int limit) {
+        return this.jdbcTemplate.query("""
+                        SELECT sequence, product_id, stock_status, stock_count, changed_at
+                        FROM stock_change_events WHERE sequence > ?
+                        ORDER BY sequence FETCH FIRST ? ROWS ONLY""",
+                (rs, rowNum) -> mapChange(rs, rs.getLong("sequence")), sequence, limit);
+    }
+
+    /**
+     * @return the products with the most changes still in the stream, most changed first. Every
+     * change is a purchase, so these are the products that have sold most often lately
+     */
+    public List<Integer> findMostChangedProductIds(final int limit) {
+        return this.jdbcTemplate.queryForList("""
+                        SELECT product_id FROM stock_change_events
+                        GROUP BY product_id ORDER BY COUNT(*) DESC FETCH FIRST ? ROWS ONLY""",
+                Integer.class, limit);
+    }
+
+    public long findLastSequence() {
+        return this.jdbcTemplate.queryForObject(
+                "SELECT sequence FROM stock_change_sequence WHERE id = 1", Long.class);
+    }
+
+    /**
+     * @return the number of published changes deleted
+     */
+    public int deleteChangesBefore(final Instant changedBefore) {
+        return this.jdbcTemplate.update("DELETE FROM stock_change_events WHERE changed_at < ?",
+                Timestamp.from(changedBefore));
+    }
+
+    private static StockChangeDTO mapChange(final ResultSet rs, final long sequence)
+            throws SQLException {
+        return new StockChangeDTO(sequence, rs.getInt("product_id"),
+                StockStatus.valueOf(rs.getString("stock_status")), rs.getInt("stock_count"),
+                rs.getTimestamp("changed_at").toInstant());
+    }
+}
@@ -0,0 +1,28 @@
+package com.shop.generic.productservice.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Stores the sequence number of the last stock journal record applied to the database. It is
+ * written in the same transaction as the stock it covers, so the two can never disagree.
+ */
+@Repository
+public class StockLedgerCheckpointRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StockLedgerCheckpointRepository(final JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public long findSequence() {
+        return this.jdbcTemplate.queryForObject(
+                "SELECT sequence FROM stock_ledger_checkpoint WHERE id = 1", Long.class);
+    }
+
+    public void saveSequence(final long sequence) {
+        this.jdbcTemplate.update("UPDATE stock_ledger_checkpoint SET sequence = ? WHERE id = 1",
+                sequence);
+    }
+}
@@ -0,0 +1,47 @@
+package com.shop.generic.productservice.repositories;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Stock ledger decrements that could not be applied. They are written in the same transaction as
+ * the checkpoint that moves past them, so a decrement is always either in the database, in the
+ * journal after the checkpoint, or here.
+ */
+@Repository
+public class StockLedgerDeadLetterRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StockLedgerDeadLetterRepository(final JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @param sequence the sequence number of the last journal record the decrements include
+     */
+    public void save(final List<PurchaseProductDTO> decrements, final long sequence,
+            final Instant now) {
+        this.jdbcTemplate.batchUpdate("""
+                        INSERT INTO stock_ledger_dead_letters
+                            (product_id, quantity, sequence, created_at)
+                        VALUES (?, ?, ?, ?)""",
+                decrements.stream().map(decrement -> new Object[]{decrement.productId(),
+                        decrement.quantity(), sequence, Timestamp.from(now)}).toList());
+    }
+
+    /**
+     * @return every dead letter, oldest first
+     */
+    public List<PurchaseProductDTO> findAll() {
+        return this.jdbcTemplate.query("""
+                        SELECT product_id, quantity FROM stock_ledger_dead_letters
+                        ORDER BY dead_letter_id""",
+                (rs, rowNum) -> new PurchaseProductDTO(rs.getInt("product_id"),
+                        rs.getInt("quantity")));
+    }
+}
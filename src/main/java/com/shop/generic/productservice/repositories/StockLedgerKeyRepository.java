@@ -0,0 +1,55 @@
+package com.shop.generic.productservice.repositories;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Idempotency keys of baskets the stock ledger has flushed. They are written in the same
+ * transaction as the checkpoint that moves past their baskets, so a key is always either here or
+ * in the journal after the checkpoint.
+ */
+@Repository
+public class StockLedgerKeyRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StockLedgerKeyRepository(final JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @return whether a basket with the key has been flushed, and the key has not expired
+     */
+    public boolean exists(final String idempotencyKey, final Instant now) {
+        return !this.jdbcTemplate.queryForList("""
+                        SELECT 1 FROM stock_ledger_keys
+                        WHERE idempotency_key = ? AND expires_at > ?""", Integer.class,
+                idempotencyKey, Timestamp.from(now)).isEmpty();
+    }
+
+    /**
+     * Saves the keys, replacing any expired entries for the same keys
+     */
+    public void save(final Collection<String> idempotencyKeys, final Instant now,
+            final Instant expiresAt) {
+        final List<String> keys = List.copyOf(idempotencyKeys);
+        this.jdbcTemplate.batchUpdate(
+                "DELETE FROM stock_ledger_keys WHERE idempotency_key = ? AND expires_at <= ?",
+                keys.stream().map(key -> new Object[]{key, Timestamp.from(now)}).toList());
+        this.jdbcTemplate.batchUpdate(
+                "INSERT INTO stock_ledger_keys (idempotency_key, expires_at) VALUES (?, ?)",
+                keys.stream().map(key -> new Object[]{key, Timestamp.from(expiresAt)}).toList());
+    }
+
+    /**
+     * @return the number of expired keys removed
+     */
+    public int deleteExpired(final Instant now) {
+        return this.jdbcTemplate.update("DELETE FROM stock_ledger_keys WHERE expires_at <= ?",
+                Timestamp.from(now));
+    }
+}
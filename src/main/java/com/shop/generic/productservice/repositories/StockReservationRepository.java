@@ -0,0 +1,162 @@
+package com.shop.generic.productservice.repositories;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Reservations are not part of the shared entity model, so they are stored with plain JDBC. A
+ * reservation is one row per product it holds stock of.
+ * <p>
+ * Whoever deletes a reservation's rows owns giving its stock back or turning it into a purchase,
+ * so commit, release and expiry all decide the outcome with a delete, and only act if it removed
+ * something. Two of them racing for the same reservation queue on the row locks, and the loser
+ * deletes nothing.
+ */
+@Repository
+public class StockReservationRepository {
+
+    /**
+     * A reservation that has not been committed or released yet
+     */
+    public record ActiveReservation(String reservationId, Instant expiresAt) {
+
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StockReservationRepository(final JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void save(final String reservationId, final List<PurchaseProductDTO> lines,
+            final Instant createdAt, final Instant expiresAt) {
+        this.jdbcTemplate.batchUpdate("""
+                INSERT INTO stock_reservations
+                    (reservation_id, product_id, quantity, created_at, expires_at)
+                VALUES (?, ?, ?, ?, ?)""", new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                ps.setString(1, reservationId);
+                ps.setInt(2, lines.get(i).productId());
+                ps.setInt(3, lines.get(i).quantity());
+                ps.setTimestamp(4, Timestamp.from(createdAt));
+                ps.setTimestamp(5, Timestamp.from(expiresAt));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return lines.size();
+            }
+        });
+    }
+
+    /**
+     * @return the reservation's lines in ascending product ID order, whether or not it has
+     * expired. Empty if it has already been committed or released
+     */
+    public List<PurchaseProductDTO> findLines(final String reservationId) {
+        return this.jdbcTemplate.query("""
+                        SELECT product_id, quantity FROM stock_reservations
+                        WHERE reservation_id = ? ORDER BY product_id""",
+                (rs, rowNum) -> new PurchaseProductDTO(rs.getInt("product_id"),
+                        rs.getInt("quantity")), reservationId);
+    }
+
+    /**
+     * @return the lines of those of the given reservations that had expired by the given time,
+     * keyed by reservation ID
+     */
+    public Map<String, List<PurchaseProductDTO>> findExpiredLines(
+            final List<String> reservationIds, final Instant now) {
+        final String placeholders = String.join(",", Collections.nCopies(reservationIds.size(),
+                "?"));
+        final Object[] parameters = new Object[reservationIds.size() + 1];
+        reservationIds.toArray(parameters);
+        parameters[reservationIds.size()] = Timestamp.from(now);
+        final Map<String, List<PurchaseProductDTO>> lines = new HashMap<>();
+        this.jdbcTemplate.query("SELECT reservation_id, product_id, quantity "
+                        + "FROM stock_reservations "
+                        + "WHERE reservation_id IN (" + placeholders + ") AND expires_at <= ?",
+                (RowCallbackHandler) rs -> lines.computeIfAbsent(rs.getString("reservation_id"),
+                                id -> new ArrayList<>())
+                        .add(new PurchaseProductDTO(rs.getInt("product_id"),
+                                rs.getInt("quantity"))), parameters);
+        return lines;
+    }
+
+    /**
+     * @return the number of rows deleted, which is 0 if the reservation had expired or was
+     * already committed or released
+     */
+    public int deleteUnexpired(final String reservationId, final Instant now) {
+        return this.jdbcTemplate.update(
+                "DELETE FROM stock_reservations WHERE reservation_id = ? AND expires_at > ?",
+                reservationId, Timestamp.from(now));
+    }
+
+    /**
+     * @return the number of rows deleted, which is 0 if the reservation was already committed or
+     * released
+     */
+    public int delete(final String reservationId) {
+        return this.jdbcTemplate.update("DELETE FROM stock_reservations WHERE reservation_id = ?",
+                reservationId);
+    }
+
+    /**
+     * Deletes the given reservations if they had expired by the given time, as one JDBC batch
+     *
+     * @return the number of rows deleted for each reservation, in the same order
+     */
+    public int[] deleteExpired(final List<String> reservationIds, final Instant now) {
+        return this.jdbcTemplate.batchUpdate(
+                "DELETE FROM stock_reservations WHERE reservation_id = ? AND expires_at <= ?",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(final PreparedStatement ps, final int i)
+                            throws SQLException {
+                        ps.setString(1, reservationIds.get(i));
+                        ps.setTimestamp(2, Timestamp.from(now));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return reservationIds.size();
+                    }
+                });
+    }
+
+    /**
+     * @return every reservation still holding stock, soonest to expire first
+     */
+    public List<ActiveReservation> findActive() {
+        return this.jdbcTemplate.query("""
+                        SELECT reservation_id, MIN(expires_at) AS expires_at
+                        FROM stock_reservations GROUP BY reservation_id ORDER BY expires_at""",
+                (rs, rowNum) -> new ActiveReservation(rs.getString("reservation_id"),
+                        rs.getTimestamp("expires_at").toInstant()));
+    }
+
+    /**
+     * @return the IDs of up to the given number of reservations that had expired by the given
+     * time
+     */
+    public List<String> findExpiredIds(final Instant now, final int limit) {
+        return this.jdbcTemplate.queryForList("""
+                        SELECT DISTINCT reservation_id FROM stock_reservations
+                        WHERE expires_at <= ? FETCH FIRST ? ROWS ONLY""", String.class,
+                Timestamp.from(now), limit);
+    }
+}
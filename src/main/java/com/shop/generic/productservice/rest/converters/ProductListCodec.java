@@ -0,0 +1,118 @@
+package com.shop.generic.productservice.rest.converters;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.enums.StockStatus;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.http.MediaType;
+
+/**
+ * A fixed layout binary encoding of product lists, for internal callers such as the order service
+ * that fetch products in bulk. Every field but the name is a fixed size, and prices are sent as
+ * their unscaled value and scale rather than as text, so encoding is little more than copying
+ * fields into a buffer. Roughly a third of the size of the JSON before compression.
+ * <p>
+ * The layout, big-endian:
+ * <pre>
+ * byte    format version, currently 1
+ * int     product count
+ * then for each product:
+ * int     product ID
+ * int     name length in UTF-8 bytes, or -1 for no name
+ * byte[]  name, UTF-8
+ * long    price, unscaled
+ * byte    price scale, or -128 for no price
+ * byte    stock status, the ordinal of gs-common's StockStatus, or -1 for none
+ * int     stock count
+ * </pre>
+ * Only the products are sent, not the rest of the response. Errors are always sent as JSON, so
+ * callers should accept JSON as well.
+ */
+public final class ProductListCodec {
+
+    public static final String MEDIA_TYPE_VALUE = "application/vnd.gsshop.product-list";
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(MEDIA_TYPE_VALUE);
+
+    static final byte VERSION = 1;
+    private static final byte NO_PRICE = Byte.MIN_VALUE;
+    private static final StockStatus[] STOCK_STATUSES = StockStatus.values();
+
+    private ProductListCodec() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if a price has more than 18 significant digits, or a scale
+     *                                  outside a byte, neither of which fits the layout
+     */
+    public static void encode(final List<ProductDTO> products, final OutputStream outputStream)
+            throws IOException {
+        final DataOutputStream data = new DataOutputStream(
+                new BufferedOutputStream(outputStream, 8192));
+        data.writeByte(VERSION);
+        data.writeInt(products.size());
+        for (final ProductDTO product : products) {
+            data.writeInt(product.productId());
+            if (product.name() == null) {
+                data.writeInt(-1);
+            } else {
+                final byte[] name = product.name().getBytes(StandardCharsets.UTF_8);
+                data.writeInt(name.length);
+                data.write(name);
+            }
+            writePrice(data, product);
+            data.writeByte(product.stockStatus() == null ? -1 : product.stockStatus().ordinal());
+            data.writeInt(product.stockCount());
+        }
+        data.flush();
+    }
+
+    public static List<ProductDTO> decode(final InputStream inputStream) throws IOException {
+        final DataInputStream data = new DataInputStream(inputStream);
+        final byte version = data.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown product list format version " + version);
+        }
+        final int count = data.readInt();
+        final List<ProductDTO> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int productId = data.readInt();
+            final int nameLength = data.readInt();
+            final String name = nameLength < 0 ? null
+                    : new String(data.readNBytes(nameLength), StandardCharsets.UTF_8);
+            final long unscaledPrice = data.readLong();
+            final byte scale = data.readByte();
+            final byte stockStatus = data.readByte();
+            products.add(new ProductDTO(productId, name,
+                    scale == NO_PRICE ? null : BigDecimal.valueOf(unscaledPrice, scale),
+                    stockStatus < 0 ? null : STOCK_STATUSES[stockStatus], data.readInt()));
+        }
+        return products;
+    }
+
+    private static void writePrice(final DataOutputStream data, final ProductDTO product)
+            throws IOException {
+        final BigDecimal price = product.price();
+        if (price == null) {
+            data.writeLong(0);
+            data.writeByte(NO_PRICE);
+            return;
+        }
+        final BigInteger unscaled = price.unscaledValue();
+        if (unscaled.bitLength() > 63 || price.scale() <= NO_PRICE
+                || price.scale() > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Product " + product.productId() + " has a price "
+                    + price + " that does not fit the binary product list format");
+        }
+        data.writeLong(unscaled.longValue());
+        data.writeByte(price.scale());
+    }
+}
@@ -0,0 +1,84 @@
+package com.shop.generic.productservice.rest.converters;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.rest.response.RestApiResponse;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+/**
+ * Writes responses holding a list of products in the {@link ProductListCodec} format, for
+ * requests that accept {@value ProductListCodec#MEDIA_TYPE_VALUE}. Only applies where the
+ * controller method is declared to return a list of products, so any other response, including
+ * errors, falls back to the other formats the request accepts. Write only, as nothing is sent to
+ * this service in this format.
+ */
+public class ProductListHttpMessageConverter extends
+        AbstractGenericHttpMessageConverter<RestApiResponse<List<ProductDTO>>> {
+
+    private static final ResolvableType PRODUCT_LIST_RESPONSE = ResolvableType.forClassWithGenerics(
+            RestApiResponse.class, ResolvableType.forClassWithGenerics(List.class,
+                    ProductDTO.class));
+
+    public ProductListHttpMessageConverter() {
+        super(ProductListCodec.MEDIA_TYPE);
+    }
+
+    @Override
+    protected boolean supports(final Class<?> clazz) {
+        return RestApiResponse.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(final Type type, final Class<?> contextClass,
+            final MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    public boolean canRead(final Class<?> clazz, final MediaType mediaType) {
+        return false;
+    }
+
+    /**
+     * Without the declared type there is no telling what the response holds
+     */
+    @Override
+    public boolean canWrite(final Class<?> clazz, final MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    public boolean canWrite(final Type type, final Class<?> clazz, final MediaType mediaType) {
+        return type != null
+                && PRODUCT_LIST_RESPONSE.isAssignableFrom(ResolvableType.forType(type))
+                && canWrite(mediaType);
+    }
+
+    @Override
+    protected void writeInternal(final RestApiResponse<List<ProductDTO>> response,
+            final Type type, final HttpOutputMessage outputMessage) throws IOException {
+        ProductListCodec.encode(response.getResult(), outputMessage.getBody());
+    }
+
+    @Override
+    public RestApiResponse<List<ProductDTO>> read(final Type type, final Class<?> contextClass,
+            final HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Product lists are not accepted in this format",
+                inputMessage);
+    }
+
+    @Override
+    protected RestApiResponse<List<ProductDTO>> readInternal(
+            final Class<? extends RestApiResponse<List<ProductDTO>>> clazz,
+            final HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Product lists are not accepted in this format",
+                inputMessage);
+    }
+}
@@ -2,7 +2,16 @@ package com.shop.generic.productservice.rest.errorhandlers;
 
 import com.shop.generic.common.rest.response.RestApiResponse;
 import com.shop.generic.common.rest.response.RestApiResponseFactory;
+import com.shop.generic.productservice.exceptions.ConcurrencyLimitExceededException;
+import com.shop.generic.productservice.exceptions.IdempotencyKeyReusedException;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.exceptions.InvalidCursorException;
+import com.shop.generic.productservice.exceptions.InvalidProductIdsException;
+import com.shop.generic.productservice.exceptions.InvalidQuantityException;
 import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.exceptions.ReservationNotFoundException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -23,6 +32,86 @@ public class ErrorHandlerControllerAdvice {
                 .body(restApiResponseFactory.createErrorResponse(e.getMessage()));
     }
 
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<RestApiResponse> handleInvalidCursorException(
+            final InvalidCursorException e) {
+        return ResponseEntity.badRequest()
+                .body(restApiResponseFactory.createErrorResponse(e.getMessage()));
+    }
+
+    @ExceptionHandler(InvalidProductIdsException.class)
+    public ResponseEntity<RestApiResponse> handleInvalidProductIdsException(
+            final InvalidProductIdsException e) {
+        return ResponseEntity.badRequest()
+                .body(restApiResponseFactory.createErrorResponse(e.getMessage()));
+    }
+
+    @ExceptionHandler(InvalidQuantityException.class)
+    public ResponseEntity<RestApiResponse> handleInvalidQuantityException(
+            final InvalidQuantityException e) {
+        return ResponseEntity.badRequest()
+                .body(restApiResponseFactory.createErrorResponse(e.getMessage()));
+    }
+
+    /**
+     * A purchase asked for more units than are left in stock. Nothing in the basket was applied,
+     * so the caller can safely retry with a smaller quantity
+     *
+     * @param e the exception
+     * @return
+     */
+    @ExceptionHandler(InsufficientStockException.class)
+    public ResponseEntity<RestApiResponse> handleInsufficientStockException(
+            final InsufficientStockException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(restApiResponseFactory.createErrorResponse(e.getMessage()));
+    }
+
+    /**
+     * The idempotency key was already used for a different basket. Neither basket was applied
+     * again, so the caller needs a new key for the new purchase
+     *
+     * @param e the exception
+     * @return
+     */
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<RestApiResponse> handleIdempotencyKeyReusedException(
+            final IdempotencyKeyReusedException e) {
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                .body(restApiResponseFactory.createErrorResponse(e.getMessage()));
+    }
+
+    /**
+     * The reservation is unknown, has expired, or has already been committed or released. Either
+     * way it no longer holds any stock
+     *
+     * @param e the exception
+     * @return
+     */
+    @ExceptionHandler(ReservationNotFoundException.class)
+    public ResponseEntity<RestApiResponse> handleReservationNotFoundException(
+            final ReservationNotFoundException e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(restApiResponseFactory.createErrorResponse(e.getMessage()));
+    }
+
+    /**
+     * The request was turned away before it ran, as too many others were already running.
+     * Retry-After is in whole seconds, rounded up, so callers never retry sooner than asked
+     *
+     * @param e the exception
+     * @return
+     */
+    @ExceptionHandler(ConcurrencyLimitExceededException.class)
+    public ResponseEntity<RestApiResponse> handleConcurrencyLimitExceededException(
+            final ConcurrencyLimitExceededException e) {
+        final long retryAfterSeconds = Math.max(1,
+                (e.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(restApiResponseFactory.createErrorResponse(e.getMessage()));
+    }
+
     /**
      * Catch all exception handler. In case any exceptions slip through the cracks, we want to
      * return a 500
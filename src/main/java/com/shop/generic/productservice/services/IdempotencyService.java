@@ -0,0 +1,112 @@
+package com.shop.generic.productservice.services;
+
+import com.shop.generic.productservice.config.IdempotencyProperties;
+import com.shop.generic.productservice.config.TransactionProperties;
+import com.shop.generic.productservice.dtos.IdempotentResultDTO;
+import com.shop.generic.productservice.exceptions.IdempotencyKeyReusedException;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import com.shop.generic.productservice.repositories.IdempotencyKeyRepository;
+import com.shop.generic.productservice.repositories.IdempotencyKeyRepository.RecordedResponse;
+import com.shop.generic.productservice.util.RetryingTransactionTemplate;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs an operation at most once per idempotency key, so a caller that timed out can retry it
+ * safely. The key is claimed in the same transaction as the operation, so if the operation fails
+ * the claim is rolled back with it and a retry runs the operation again.
+ * <p>
+ * The key is claimed along with a hash of the request, and only a request with the same hash gets
+ * the response replayed. A key sent again with a different request is turned away, rather than
+ * answered with the first request's response as though the second had been carried out.
+ * <p>
+ * Concurrent attempts with the same key, on this node or any other, are kept apart by the claim
+ * alone. A second attempt blocks on the first attempt's uncommitted claim in the database, then
+ * finds the key taken once it commits, or claims it itself if the first attempt rolled back.
+ * Nothing is locked in memory, so attempts with other keys never wait on it. Should the database
+ * give up waiting on the claim first, the attempt is retried like any other lock timeout and
+ * replays the response once it is there.
+ */
+@Service
+@Slf4j
+public class IdempotencyService {
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final IdempotencyProperties idempotencyProperties;
+    private final TransactionTemplate transactionTemplate;
+
+    public IdempotencyService(final IdempotencyKeyRepository idempotencyKeyRepository,
+            final IdempotencyProperties idempotencyProperties,
+            final PlatformTransactionManager transactionManager,
+            final TransactionProperties transactionProperties,
+            final ProductMetrics productMetrics) {
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.idempotencyProperties = idempotencyProperties;
+        //The claim has to be committed along with the operation before the response is given, so
+        //this cannot join a transaction the caller may already have open. Being a new
+        //transaction, it is also retried as a whole, claim included, if the operation hits a
+        //deadlock
+        this.transactionTemplate = new RetryingTransactionTemplate(transactionManager,
+                transactionProperties, productMetrics);
+        this.transactionTemplate.setPropagationBehavior(
+                TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Runs the operation unless it has already succeeded for this key
+     *
+     * @param idempotencyKey the key the caller sends with every attempt of the same operation
+     * @param requestHash    a hash of the request, the same for every attempt of the operation
+     * @param operation      the operation, returning the response to give to the caller
+     * @return the response of the first successful attempt, and whether this attempt was a replay
+     * @throws IdempotencyKeyReusedException if the key has already been used for a request with a
+     *                                       different hash
+     */
+    public IdempotentResultDTO executeOnce(final String idempotencyKey, final String requestHash,
+            final Supplier<String> operation) throws IdempotencyKeyReusedException {
+        try {
+            return this.transactionTemplate.execute(status -> {
+                final Instant now = Instant.now();
+                final Optional<RecordedResponse> previousResponse = this.idempotencyKeyRepository
+                        .findResponse(idempotencyKey, now);
+                if (previousResponse.isPresent()) {
+                    return replay(idempotencyKey, requestHash, previousResponse.get());
+                }
+                this.idempotencyKeyRepository.claim(idempotencyKey, requestHash, now,
+                        now.plus(this.idempotencyProperties.ttl()));
+                final String response = operation.get();
+                this.idempotencyKeyRepository.saveResponse(idempotencyKey, response);
+                return new IdempotentResultDTO(response, false);
+            });
+        } catch (final DuplicateKeyException e) {
+            //Another attempt claimed the key while we were waiting, and has committed by now
+            log.debug("Idempotency key {} was claimed by a concurrent request", idempotencyKey);
+            return replay(idempotencyKey, requestHash, this.idempotencyKeyRepository
+                    .findResponse(idempotencyKey, Instant.now()).orElseThrow(() -> e));
+        }
+    }
+
+    private static IdempotentResultDTO replay(final String idempotencyKey,
+            final String requestHash, final RecordedResponse previousResponse)
+            throws IdempotencyKeyReusedException {
+        if (!previousResponse.requestHash().equals(requestHash)) {
+            throw new IdempotencyKeyReusedException(idempotencyKey);
+        }
+        return new IdempotentResultDTO(previousResponse.response(), true);
+    }
+
+    @Scheduled(fixedDelayString = "${product-service.idempotency.purge-interval:PT10M}")
+    public void purgeExpiredKeys() {
+        final Integer purged = this.transactionTemplate.execute(
+                status -> this.idempotencyKeyRepository.deleteExpired(Instant.now()));
+        log.debug("Purged {} expired idempotency keys", purged);
+    }
+}
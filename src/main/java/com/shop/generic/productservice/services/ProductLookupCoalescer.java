@@ -0,0 +1,198 @@
+package com.shop.generic.productservice.services;
+
+import com.shop.generic.productservice.cache.ProductCache;
+import com.shop.generic.productservice.config.ProductLookupProperties;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import com.shop.generic.productservice.repositories.ProductCatalogueRepository.VersionedProduct;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares database lookups of single products between concurrent callers, for when a trending
+ * product drops out of the cache and hundreds of requests for it arrive together. Two things cut
+ * the number of queries:
+ * <ul>
+ *     <li>Single flight: a lookup of a product that already has a lookup on its way waits for
+ *     that one's result, rather than querying again</li>
+ *     <li>Micro-batching: the first lookup to arrive waits up to the configured delay for others
+ *     to join it, then they are all sent as one IN query. Whichever lookup fills a batch sends it
+ *     straight away</li>
+ * </ul>
+ * The query runs on the thread of the lookup that sends it, so nothing runs in the background.
+ * <p>
+ * A lookup is only shared while the product's {@link ProductCache#currentStamp(int) stamp} is the
+ * same as when it started, the same rule the cache applies to writes. Anything that committed
+ * before a caller arrived has invalidated the product by then, so the caller starts a fresh lookup
+ * rather than share one that may have read the product before the change. This keeps a product
+ * read after its ETag, or after the caller's own purchase, from ever being older than either.
+ * Stamps are kept per stripe of product IDs, so purchases of other products do not stop a
+ * trending product's lookups from being shared.
+ */
+public class ProductLookupCoalescer {
+
+    private final ProductRepository productRepository;
+    private final ProductCache productCache;
+    private final ProductMetrics productMetrics;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final ConcurrentMap<Integer, Lookup> inFlight = new ConcurrentHashMap<>();
+    private final ReentrantLock batchLock = new ReentrantLock();
+    //Lookups waiting to be sent, guarded by batchLock
+    private List<Lookup> pending = new ArrayList<>();
+
+    public ProductLookupCoalescer(final ProductRepository productRepository,
+            final ProductCache productCache, final ProductMetrics productMetrics,
+            final ProductLookupProperties productLookupProperties, final int lookupChunkSize) {
+        this.productRepository = productRepository;
+        this.productCache = productCache;
+        this.productMetrics = productMetrics;
+        this.enabled = productLookupProperties.enabled();
+        this.maxBatchSize = Math.max(1,
+                Math.min(productLookupProperties.maxBatchSize(), lookupChunkSize));
+        this.maxDelayNanos = productLookupProperties.maxDelay().toNanos();
+    }
+
+    /**
+     * Looks the product and its version up in the database, and caches them. Callers are expected
+     * to have checked the cache first
+     *
+     * @return the product, or empty if it does not exist
+     */
+    public Optional<VersionedProduct> find(final int productId) {
+        final long cacheStamp = this.productCache.currentStamp(productId);
+        if (!this.enabled) {
+            final Optional<VersionedProduct> product = this.productRepository
+                    .findVersionedProduct(productId);
+            product.ifPresent(found -> this.productCache.put(productId, found, cacheStamp));
+            return product;
+        }
+
+        final Lookup started = new Lookup(productId, cacheStamp, new CompletableFuture<>());
+        final Lookup lookup = this.inFlight.merge(productId, started,
+                (existing, fresh) -> existing.cacheStamp() == cacheStamp ? existing : fresh);
+        if (lookup == started) {
+            enqueue(started);
+        } else {
+            this.productMetrics.lookupCoalesced();
+        }
+        try {
+            return lookup.result().join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof final RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void enqueue(final Lookup lookup) {
+        final List<Lookup> batch;
+        final boolean first;
+        final boolean full;
+        this.batchLock.lock();
+        try {
+            batch = this.pending;
+            batch.add(lookup);
+            first = batch.size() == 1;
+            full = batch.size() >= this.maxBatchSize;
+            if (full) {
+                this.pending = new ArrayList<>();
+            }
+        } finally {
+            this.batchLock.unlock();
+        }
+
+        if (full) {
+            send(batch);
+        } else if (first) {
+            awaitMaxDelay();
+            //Unless it filled up and was sent while waiting
+            if (takePending(batch)) {
+                send(batch);
+            }
+        }
+    }
+
+    private void awaitMaxDelay() {
+        if (this.maxDelayNanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(this.maxDelayNanos);
+        } catch (final InterruptedException e) {
+            //Send what there is now, so no one is left waiting
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean takePending(final List<Lookup> batch) {
+        this.batchLock.lock();
+        try {
+            if (this.pending != batch) {
+                return false;
+            }
+            this.pending = new ArrayList<>();
+            return true;
+        } finally {
+            this.batchLock.unlock();
+        }
+    }
+
+    /**
+     * A batch of one is looked up by ID alone, the same query as without coalescing
+     */
+    private void send(final List<Lookup> batch) {
+        this.productMetrics.lookupBatched(batch.size());
+        try {
+            final Map<Integer, VersionedProduct> found = new HashMap<>();
+            if (batch.size() == 1) {
+                this.productRepository.findVersionedProduct(batch.get(0).productId())
+                        .ifPresent(product -> found.put(product.productDTO().productId(),
+                                product));
+            } else {
+                //A product can be in a batch twice if the cache was invalidated in between
+                this.productRepository.findVersionedProducts(
+                                batch.stream().map(Lookup::productId).distinct().toList())
+                        .forEach(product -> found.put(product.productDTO().productId(),
+                                product));
+            }
+            for (final Lookup lookup : batch) {
+                final VersionedProduct product = found.get(lookup.productId());
+                if (product != null) {
+                    this.productCache.put(lookup.productId(), product, lookup.cacheStamp());
+                }
+                lookup.result().complete(Optional.ofNullable(product));
+            }
+        } catch (final RuntimeException e) {
+            batch.forEach(lookup -> lookup.result().completeExceptionally(e));
+        } finally {
+            for (final Lookup lookup : batch) {
+                if (!lookup.result().isDone()) {
+                    lookup.result().completeExceptionally(
+                            new IllegalStateException("Product lookup did not complete"));
+                }
+                this.inFlight.remove(lookup.productId(), lookup);
+            }
+        }
+    }
+
+    /**
+     * @param cacheStamp the product's cache stamp when the lookup started, before its query was
+     *                   sent
+     */
+    private record Lookup(int productId, long cacheStamp,
+                          CompletableFuture<Optional<VersionedProduct>> result) {
+
+    }
+}
@@ -2,71 +2,525 @@ package com.shop.generic.productservice.services;
 
 import com.shop.generic.common.dtos.ProductDTO;
 import com.shop.generic.common.dtos.PurchaseProductDTO;
-import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.cache.AvailabilityIndex;
+import com.shop.generic.productservice.cache.ProductCache;
+import com.shop.generic.productservice.config.CatalogueProperties;
+import com.shop.generic.productservice.config.ProductLookupProperties;
+import com.shop.generic.productservice.config.TransactionProperties;
+import com.shop.generic.productservice.dtos.ProductBatchDTO;
+import com.shop.generic.productservice.dtos.ProductPageDTO;
+import com.shop.generic.productservice.events.ProductStockUpdatedEvent;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.exceptions.InvalidCursorException;
+import com.shop.generic.productservice.exceptions.InvalidQuantityException;
 import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.ledger.StockLedger;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import com.shop.generic.productservice.repositories.ProductCatalogueRepository.CatalogueVersion;
+import com.shop.generic.productservice.repositories.ProductCatalogueRepository.VersionedProduct;
 import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.repositories.ProductStockRepository.StockLevel;
+import com.shop.generic.productservice.util.ProductIdIndex;
+import com.shop.generic.productservice.util.RetryingTransactionTemplate;
+import io.micrometer.core.annotation.Timed;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
 
 @Service
 @Slf4j
+@Timed("product.service")
 public class ProductService {
 
     private final ProductRepository productRepository;
+    private final ProductCache productCache;
+    private final AvailabilityIndex availabilityIndex;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final CatalogueProperties catalogueProperties;
+    private final ProductMetrics productMetrics;
+    private final TransactionTemplate stockTransactionTemplate;
+    private final ProductLookupCoalescer productLookupCoalescer;
+    //Only present when write-behind stock updates are enabled
+    private final StockLedger stockLedger;
 
-    public ProductService(final ProductRepository productRepository) {
+    public ProductService(final ProductRepository productRepository,
+            final ProductCache productCache,
+            final AvailabilityIndex availabilityIndex,
+            final ApplicationEventPublisher applicationEventPublisher,
+            final CatalogueProperties catalogueProperties,
+            final ProductMetrics productMetrics,
+            final ObjectProvider<StockLedger> stockLedgerProvider,
+            final PlatformTransactionManager transactionManager,
+            final TransactionProperties transactionProperties,
+            final ProductLookupProperties productLookupProperties) {
         this.productRepository = productRepository;
+        this.productCache = productCache;
+        this.availabilityIndex = availabilityIndex;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.catalogueProperties = catalogueProperties;
+        this.productMetrics = productMetrics;
+        this.stockLedger = stockLedgerProvider.getIfAvailable();
+        this.stockTransactionTemplate = new RetryingTransactionTemplate(transactionManager,
+                transactionProperties, productMetrics);
+        this.productLookupCoalescer = new ProductLookupCoalescer(productRepository, productCache,
+                productMetrics, productLookupProperties, catalogueProperties.lookupChunkSize());
     }
 
+    @Transactional(readOnly = true)
     public List<ProductDTO> findAllProducts() {
-        return this.productRepository.findAll().stream().map(ProductDTO::new).toList();
+        return this.productRepository.findAllProductDTOs();
     }
 
+    /**
+     * Returns one page of the catalogue in ascending product ID order. Pages are found by seeking
+     * past the last product ID of the previous page rather than by offset, so every page costs the
+     * same to fetch and products added or removed between requests do not shift later pages.
+     *
+     * @param cursor   the cursor returned with the previous page, or null for the first page
+     * @param pageSize the number of products to return, or null for the default. Clamped to the
+     *                 configured maximum
+     * @throws InvalidCursorException if the cursor was not issued by this service
+     */
+    @Transactional(readOnly = true)
+    public ProductPageDTO findProductsPage(final String cursor, final Integer pageSize)
+            throws InvalidCursorException {
+        final int size = pageSize == null ? this.catalogueProperties.defaultPageSize()
+                : Math.max(1, Math.min(pageSize, this.catalogueProperties.maxPageSize()));
+        final int afterProductId = cursor == null ? 0 : decodeCursor(cursor);
+
+        //Fetch one extra row to find out whether there is another page after this one
+        final List<ProductDTO> products = this.productRepository.findProductDTOsAfter(
+                afterProductId, Limit.of(size + 1));
+        final boolean hasNextPage = products.size() > size;
+        final List<ProductDTO> page = hasNextPage ? products.subList(0, size) : products;
+
+        return new ProductPageDTO(page,
+                hasNextPage ? encodeCursor(page.get(size - 1).productId()) : null);
+    }
+
+    /**
+     * Hands every product in the catalogue to the consumer, in ascending product ID order, without
+     * ever holding more than one fetch of rows in memory
+     */
+    @Transactional(readOnly = true)
+    public void streamAllProducts(final Consumer<ProductDTO> consumer) {
+        this.productRepository.streamAllProducts(this.catalogueProperties.streamFetchSize(),
+                consumer);
+    }
+
+    private static String encodeCursor(final int productId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Integer.toString(productId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int decodeCursor(final String cursor) throws InvalidCursorException {
+        try {
+            return Integer.parseInt(
+                    new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (final IllegalArgumentException e) {
+            throw new InvalidCursorException(cursor);
+        }
+    }
+
+    /**
+     * Finds a product, from the cache if it is there. Concurrent lookups that miss the cache share
+     * their database queries, see {@link ProductLookupCoalescer}
+     */
     public ProductDTO retrieveProductById(final int productId) throws ProductDoesNotExistException {
-        final Product product = findProductById(productId).orElseThrow(
-                () -> new ProductDoesNotExistException(productId));
-        return new ProductDTO(product);
+        return findVersionedProduct(productId).productDTO();
     }
 
-    public void updateProductsStock(final List<PurchaseProductDTO> purchaseProductDTOS)
+    private VersionedProduct findVersionedProduct(final int productId)
             throws ProductDoesNotExistException {
+        final Optional<VersionedProduct> cachedProduct = this.productCache.get(productId);
+        if (cachedProduct.isPresent()) {
+            return cachedProduct.get();
+        }
+
+        return this.productLookupCoalescer.find(productId).orElseThrow(() -> {
+            this.productMetrics.productsNotFound(1);
+            return new ProductDoesNotExistException(productId);
+        });
+    }
+
+    /**
+     * Removes the purchased quantities from stock as a single unit of work. Lines for the same
+     * product are merged first, every product is checked for existence in one query, and the
+     * decrements are then sent to the database as one batch. Each decrement is conditional, so
+     * concurrent purchases of the same product cannot overwrite each other, and lines are applied
+     * in ascending product ID order so that two baskets sharing products always lock their rows
+     * in the same order and cannot deadlock. If any line fails, the whole basket is rolled back.
+     * <p>
+     * Only the database work runs in the transaction, which is retried if the database still
+     * aborts it on a deadlock or serialization failure. When the caller already has a transaction
+     * open, the basket joins it instead and any retry is up to the caller.
+     * <p>
+     * When write-behind stock updates are enabled, the basket is taken from the {@link StockLedger}
+     * instead, with the same guarantees, and reaches the database shortly afterwards.
+     *
+     * @param purchaseProductDTOS the products and quantities being purchased
+     * @throws ProductDoesNotExistException if any products in the basket do not exist
+     * @throws InsufficientStockException   if a product does not have enough stock left
+     * @throws InvalidQuantityException     if any line is for less than one unit
+     */
+    public void updateProductsStock(final List<PurchaseProductDTO> purchaseProductDTOS)
+            throws ProductDoesNotExistException, InsufficientStockException,
+            InvalidQuantityException {
+        updateProductsStock(purchaseProductDTOS, null);
+    }
+
+    /**
+     * The same as {@link #updateProductsStock(List)}, for a basket sent with an idempotency key.
+     * The database work joins the transaction that records the key, so is undone along with it.
+     * The {@link StockLedger} works outside that transaction, so it is given the key and takes the
+     * basket at most once, however many times the transaction is retried or rolled back.
+     *
+     * @param idempotencyKey the key the basket was sent with, or null if it had none
+     */
+    public void updateProductsStock(final List<PurchaseProductDTO> purchaseProductDTOS,
+            final String idempotencyKey) throws ProductDoesNotExistException,
+            InsufficientStockException, InvalidQuantityException {
+
+        final long startTime = System.nanoTime();
+        final List<PurchaseProductDTO> basket = mergeBasket(purchaseProductDTOS);
+        final int soldOut = this.stockLedger == null
+                ? this.stockTransactionTemplate.execute(status -> decrementStockCounts(basket))
+                : this.stockLedger.reserve(basket, idempotencyKey).size();
+        this.productMetrics.outOfStock(soldOut);
+        this.productMetrics.stockDecremented(
+                basket.stream().mapToInt(PurchaseProductDTO::quantity).sum());
 
-        for (final PurchaseProductDTO purchaseProductDTO : purchaseProductDTOS) {
-            //Retrieve stock count for product id
-            //TODO: Replace exception handling here with same logic above
-            final Optional<Product> product = findProductById(purchaseProductDTO.productId());
-
-            if (product.isPresent()) {
-                final int newStockCountValue =
-                        product.get().getStockCount() - purchaseProductDTO.quantity();
-                //Update the stock of that product id
-                log.info("Updating product {} stock value from {} to {}",
-                        purchaseProductDTO.productId(), product.get().getStockCount(),
-                        newStockCountValue);
-                this.productRepository.updateStockCountByProductId(newStockCountValue,
-                        purchaseProductDTO.productId());
-                log.info("Product {} stock updated", purchaseProductDTO.productId());
-            } else {
-                throw new ProductDoesNotExistException(purchaseProductDTO.productId());
+        if (log.isDebugEnabled()) {
+            basket.forEach(purchase -> log.debug("Product {} stock decremented by {}",
+                    purchase.productId(), purchase.quantity()));
+        }
+        log.info("Stock updated for {} products in {} ms", basket.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    /**
+     * Applies the basket to the database straight away. The rows are locked and their stock read
+     * first, in the same statement that checks every product exists, so which products this basket
+     * sells out is known exactly without reading them again afterwards.
+     *
+     * @return the number of products the basket sold the last unit of
+     */
+    private int decrementStockCounts(final List<PurchaseProductDTO> basket) {
+        final List<Integer> productIds = basket.stream().map(PurchaseProductDTO::productId)
+                .toList();
+
+        final Map<Integer, StockLevel> stockLevels = this.productRepository.lockStockLevels(
+                productIds);
+        if (stockLevels.size() != productIds.size()) {
+            final List<Integer> missingIds = productIds.stream()
+                    .filter(id -> !stockLevels.containsKey(id))
+                    .toList();
+            this.productMetrics.productsNotFound(missingIds.size());
+            throw new ProductDoesNotExistException(missingIds);
+        }
+
+        final int[] updateCounts = this.productRepository.decrementStockCounts(basket);
+        int soldOut = 0;
+        for (int i = 0; i < updateCounts.length; i++) {
+            final PurchaseProductDTO purchase = basket.get(i);
+            if (updateCounts[i] == 0) {
+                throw new InsufficientStockException(purchase.productId(), purchase.quantity());
+            }
+            //The decrement flags the product as out of stock on the same condition
+            final StockLevel before = stockLevels.get(purchase.productId());
+            if (before.unheldCount() == purchase.quantity()
+                    && before.stockStatus() != StockStatus.OUT_OF_STOCK) {
+                soldOut++;
             }
         }
+        this.applicationEventPublisher.publishEvent(new ProductStockUpdatedEvent(productIds));
+        return soldOut;
+    }
+
+    /**
+     * Combines lines for the same product into one, ordered by ascending product ID. Runs before
+     * any database work, so a basket with a bad line is turned away without touching stock.
+     *
+     * @throws InvalidQuantityException if any line is for less than one unit, which the stock
+     *                                  guards would otherwise apply as a refund
+     */
+    static List<PurchaseProductDTO> mergeBasket(
+            final List<PurchaseProductDTO> purchaseProductDTOS) throws InvalidQuantityException {
+        for (final PurchaseProductDTO purchase : purchaseProductDTOS) {
+            if (purchase.quantity() <= 0) {
+                throw new InvalidQuantityException(purchase.productId(), purchase.quantity());
+            }
+        }
+        final Map<Integer, Integer> quantitiesByProductId = purchaseProductDTOS.stream()
+                .collect(Collectors.toMap(PurchaseProductDTO::productId,
+                        PurchaseProductDTO::quantity, Integer::sum, TreeMap::new));
+        return quantitiesByProductId.entrySet().stream()
+                .map(entry -> new PurchaseProductDTO(entry.getKey(), entry.getValue()))
+                .toList();
+    }
+
+    /**
+     * Hashes the basket as it would be applied, with its lines merged and in product ID order, so
+     * the same purchase hashes the same however its lines are split up or ordered. Used to tell a
+     * retry of a purchase apart from a different purchase sent with the same idempotency key.
+     *
+     * @throws InvalidQuantityException if any line is for less than one unit
+     */
+    public String basketHash(final List<PurchaseProductDTO> purchaseProductDTOS)
+            throws InvalidQuantityException {
+        final StringBuilder lines = new StringBuilder();
+        for (final PurchaseProductDTO purchase : mergeBasket(purchaseProductDTOS)) {
+            lines.append(purchase.productId()).append(':').append(purchase.quantity()).append(',');
+        }
+        return DigestUtils.md5DigestAsHex(lines.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Answers from the in-memory {@link AvailabilityIndex}, so costs no database work however many
+     * products are asked about. Products that do not exist are reported as not in stock.
+     *
+     * @return one bit per requested product, set if it is in stock, packed as described on
+     * {@link AvailabilityIndex#availability(int[])}
+     */
+    public byte[] checkAvailability(final int[] productIds) {
+        return this.availabilityIndex.availability(productIds);
     }
 
-    //TODO: This can probably be removed
-    private Optional<Product> findProductById(final int productId) {
-        return this.productRepository.findById(productId);
+    /**
+     * Entity tags are worked out from versions alone, so checking whether a client's copy is still
+     * current never reads or serializes the products themselves. Take the tag before reading what
+     * it describes: the products read afterwards can only be as new as the tag or newer, so a
+     * client is never told its copy is current when it is not.
+     *
+     * @return an entity tag for the catalogue returned by {@link #findAllProducts()}
+     */
+    public String catalogueETag() {
+        final CatalogueVersion version = this.productRepository.findCatalogueVersion();
+        return "catalogue-" + version.productCount() + "-" + version.versionSum() + "-"
+                + version.productIdSum();
     }
 
+    /**
+     * Uses the version cached with the product, so only a product that is not cached is read from
+     * the database, along with its version. The product is then cached for the
+     * {@link #retrieveProductById(int)} that follows.
+     *
+     * @return an entity tag for the product returned by {@link #retrieveProductById(int)}
+     * @throws ProductDoesNotExistException if the product does not exist
+     * @see #catalogueETag()
+     */
+    public String productETag(final int productId) throws ProductDoesNotExistException {
+        return "product-" + productId + "-" + findVersionedProduct(productId).version();
+    }
+
+    /**
+     * A hash of every requested product's ID and version, in the order the products are
+     * returned. Missing products are hashed too, although the lookup itself will then fail. Only
+     * the versions of products that are not cached are read from the database.
+     *
+     * @return an entity tag for the products returned by {@link #getProductsByIds(List)}
+     * @see #catalogueETag()
+     */
+    public String productsETag(final List<Integer> productIds) {
+        final ProductIdIndex index = ProductIdIndex.of(productIds);
+        final List<Integer> uniqueIds = new ArrayList<>(index.size());
+        for (int position = 0; position < index.size(); position++) {
+            uniqueIds.add(index.idAt(position));
+        }
+
+        final Map<Integer, Long> versions = new HashMap<>();
+        this.productCache.getAll(uniqueIds)
+                .forEach((id, product) -> versions.put(id, product.version()));
+        final List<Integer> uncachedIds = uniqueIds.stream()
+                .filter(id -> !versions.containsKey(id)).toList();
+        final int chunkSize = this.catalogueProperties.lookupChunkSize();
+        for (int from = 0; from < uncachedIds.size(); from += chunkSize) {
+            versions.putAll(this.productRepository.findVersions(
+                    uncachedIds.subList(from, Math.min(from + chunkSize, uncachedIds.size()))));
+        }
+
+        final StringBuilder versionList = new StringBuilder();
+        for (final int productId : uniqueIds) {
+            versionList.append(productId).append(':')
+                    .append(versions.getOrDefault(productId, -1L)).append(',');
+        }
+        return "products-" + DigestUtils.md5DigestAsHex(
+                versionList.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Finds the given products, only going to the database for the ones that are not cached. IDs
+     * that are requested more than once are only looked up, and returned, once.
+     *
+     * @return the products, in the order their IDs first appear in the request
+     * @throws ProductDoesNotExistException if any of the products do not exist
+     */
     public List<ProductDTO> getProductsByIds(final List<Integer> productIds) {
-        final List<Product> products = productRepository.findAllById(productIds);
-        if (products.size() != productIds.size()) {
-            final List<Integer> missingIds = productIds.stream()
-                    .filter(id -> products.stream().noneMatch(p -> p.getProductId().equals(id)))
+        final ProductBatchDTO result = lookupProducts(ProductIdIndex.of(productIds));
+        if (!result.missingProductIds().isEmpty()) {
+            throw new ProductDoesNotExistException(result.missingProductIds());
+        }
+        return result.products();
+    }
+
+    /**
+     * Finds a large set of products in one call. Behaves like {@link #getProductsByIds(List)},
+     * except that it can optionally return the products it found along with the IDs it did not,
+     * rather than failing the whole request
+     *
+     * @param productIds   the IDs to look up
+     * @param allowPartial whether to return what was found when some products do not exist
+     * @throws ProductDoesNotExistException if any of the products do not exist and partial results
+     *                                      were not allowed
+     */
+    public ProductBatchDTO getProductsBatch(final int[] productIds, final boolean allowPartial)
+            throws ProductDoesNotExistException {
+        final ProductBatchDTO result = lookupProducts(ProductIdIndex.of(productIds));
+        if (!allowPartial && !result.missingProductIds().isEmpty()) {
+            throw new ProductDoesNotExistException(result.missingProductIds());
+        }
+        return result;
+    }
+
+    /**
+     * Looks up a large set of products like {@link #getProductsBatch(int[], boolean)}, but hands
+     * each product to the consumer as soon as its chunk has been looked up rather than collecting
+     * them, so only one chunk of products is held at a time however large the batch is. Partial
+     * results are always allowed, call {@link #requireProducts(int[])} first to turn away a batch
+     * with unknown IDs before any of it is written.
+     *
+     * @return the requested IDs that do not exist, in the order they were requested
+     */
+    public List<Integer> streamProductsBatch(final int[] productIds,
+            final Consumer<ProductDTO> consumer) {
+        return lookupProducts(ProductIdIndex.of(productIds), consumer);
+    }
+
+    /**
+     * Checks that every product exists, without reading the products themselves. Cached products
+     * are not looked up again, and the rest are checked a chunk at a time against the primary key.
+     *
+     * @throws ProductDoesNotExistException if any of the products do not exist
+     */
+    public void requireProducts(final int[] productIds) throws ProductDoesNotExistException {
+        final ProductIdIndex index = ProductIdIndex.of(productIds);
+        final int chunkSize = this.catalogueProperties.lookupChunkSize();
+        final List<Integer> missingIds = new ArrayList<>();
+        for (int from = 0; from < index.size(); from += chunkSize) {
+            final List<Integer> chunk = idsBetween(index, from,
+                    Math.min(from + chunkSize, index.size()));
+            final Set<Integer> foundIds = new HashSet<>(this.productCache.getAll(chunk).keySet());
+            final List<Integer> uncachedIds = chunk.stream()
+                    .filter(id -> !foundIds.contains(id))
                     .toList();
+            if (!uncachedIds.isEmpty()) {
+                foundIds.addAll(this.productRepository.findExistingProductIds(uncachedIds));
+            }
+            chunk.stream().filter(id -> !foundIds.contains(id)).forEach(missingIds::add);
+        }
+        if (!missingIds.isEmpty()) {
+            this.productMetrics.productsNotFound(missingIds.size());
             throw new ProductDoesNotExistException(missingIds);
         }
-        return products.stream().map(ProductDTO::new).toList();
+    }
+
+    private ProductBatchDTO lookupProducts(final ProductIdIndex index) {
+        final List<ProductDTO> products = new ArrayList<>(index.size());
+        final List<Integer> missingIds = lookupProducts(index, products::add);
+        return new ProductBatchDTO(products, missingIds);
+    }
+
+    /**
+     * Resolves the IDs in the index a chunk at a time, in index order, from the cache first and
+     * then from the database, and hands each chunk's products to the consumer before moving on to
+     * the next. Chunks keep a large request under the database's limit on the number of values in
+     * an IN list.
+     *
+     * @return the IDs in the index that do not exist, in index order
+     */
+    private List<Integer> lookupProducts(final ProductIdIndex index,
+            final Consumer<ProductDTO> consumer) {
+        final int chunkSize = this.catalogueProperties.lookupChunkSize();
+        final List<Integer> missingIds = new ArrayList<>();
+        for (int from = 0; from < index.size(); from += chunkSize) {
+            final int offset = from;
+            final ProductDTO[] products = new ProductDTO[Math.min(chunkSize, index.size() - from)];
+
+            this.productCache.getAll(idsBetween(index, offset, offset + products.length))
+                    .forEach((id, product) ->
+                            products[index.indexOf(id) - offset] = product.productDTO());
+
+            final List<Integer> uncachedIds = unresolvedIds(index, offset, products);
+            if (!uncachedIds.isEmpty()) {
+                final Map<Integer, Long> cacheStamps = new HashMap<>(uncachedIds.size() * 2);
+                uncachedIds.forEach(id -> cacheStamps.put(id, this.productCache.currentStamp(id)));
+                for (final VersionedProduct product
+                        : this.productRepository.findVersionedProducts(uncachedIds)) {
+                    final ProductDTO productDTO = product.productDTO();
+                    this.productCache.put(productDTO.productId(), product,
+                            cacheStamps.get(productDTO.productId()));
+                    products[index.indexOf(productDTO.productId()) - offset] = productDTO;
+                }
+            }
+
+            for (int i = 0; i < products.length; i++) {
+                if (products[i] == null) {
+                    missingIds.add(index.idAt(offset + i));
+                } else {
+                    consumer.accept(products[i]);
+                }
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            this.productMetrics.productsNotFound(missingIds.size());
+        }
+        return missingIds;
+    }
+
+    /**
+     * @return the IDs at positions {@code from} (inclusive) to {@code to} (exclusive) of the index
+     */
+    private static List<Integer> idsBetween(final ProductIdIndex index, final int from,
+            final int to) {
+        final List<Integer> ids = new ArrayList<>(to - from);
+        for (int position = from; position < to; position++) {
+            ids.add(index.idAt(position));
+        }
+        return ids;
+    }
+
+    /**
+     * @return the IDs of the chunk starting at {@code offset} in the index that do not have a
+     * product found for them yet, in index order
+     */
+    private static List<Integer> unresolvedIds(final ProductIdIndex index, final int offset,
+            final ProductDTO[] products) {
+        final List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < products.length; i++) {
+            if (products[i] == null) {
+                ids.add(index.idAt(offset + i));
+            }
+        }
+        return ids;
     }
 }
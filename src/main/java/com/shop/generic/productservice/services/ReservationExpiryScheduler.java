@@ -0,0 +1,150 @@
+package com.shop.generic.productservice.services;
+
+import com.shop.generic.productservice.config.ReservationProperties;
+import com.shop.generic.productservice.events.StockReservedEvent;
+import com.shop.generic.productservice.repositories.StockReservationRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Releases reservations as they expire. Every reservation made on this instance is queued in
+ * memory by expiry time, and a single thread waits for the soonest to expire, then releases it
+ * together with everything else that has expired by then, in one transaction. A burst of
+ * reservations expiring together therefore costs a handful of transactions rather than one each.
+ * <p>
+ * On startup the reservations still held in the database are queued again, and a periodic sweep
+ * of the database picks up any left behind by an instance that has since stopped.
+ */
+@Component
+@ConditionalOnProperty(prefix = "product-service.stock-ledger", name = "enabled",
+        havingValue = "false", matchIfMissing = true)
+@Slf4j
+public class ReservationExpiryScheduler implements SmartLifecycle {
+
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+    private final StockReservationService stockReservationService;
+    private final StockReservationRepository stockReservationRepository;
+    private final int batchSize;
+    private final DelayQueue<ExpiringReservation> expiryQueue = new DelayQueue<>();
+    private volatile Thread worker;
+
+    private record ExpiringReservation(String reservationId, Instant expiresAt)
+            implements Delayed {
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(Duration.between(Instant.now(), this.expiresAt));
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS),
+                    other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    public ReservationExpiryScheduler(final StockReservationService stockReservationService,
+            final StockReservationRepository stockReservationRepository,
+            final ReservationProperties reservationProperties) {
+        this.stockReservationService = stockReservationService;
+        this.stockReservationRepository = stockReservationRepository;
+        this.batchSize = reservationProperties.expiryBatchSize();
+    }
+
+    /**
+     * Only queued once the reservation has committed, so an expiry can never run ahead of it
+     */
+    @TransactionalEventListener
+    public void onStockReserved(final StockReservedEvent event) {
+        this.expiryQueue.add(new ExpiringReservation(event.reservationId(), event.expiresAt()));
+    }
+
+    @Override
+    public void start() {
+        this.stockReservationRepository.findActive().forEach(reservation -> this.expiryQueue.add(
+                new ExpiringReservation(reservation.reservationId(), reservation.expiresAt())));
+        log.info("Scheduled expiry of {} existing reservations", this.expiryQueue.size());
+        this.worker = Thread.ofPlatform().name("reservation-expiry").daemon()
+                .start(this::releaseExpiredReservations);
+    }
+
+    @Override
+    public void stop() {
+        final Thread thread = this.worker;
+        this.worker = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.worker != null;
+    }
+
+    /**
+     * Starts before the web server, so reservations made by the first requests are queued
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    private void releaseExpiredReservations() {
+        final List<ExpiringReservation> batch = new ArrayList<>(this.batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(this.expiryQueue.take());
+            } catch (final InterruptedException e) {
+                return;
+            }
+            //Only takes reservations that have already expired
+            this.expiryQueue.drainTo(batch, this.batchSize - 1);
+            try {
+                final int released = this.stockReservationService.releaseExpired(
+                        batch.stream().map(ExpiringReservation::reservationId).toList());
+                log.debug("Released {} of {} expired reservations", released, batch.size());
+            } catch (final RuntimeException e) {
+                log.error("Could not release {} expired reservations, will try again",
+                        batch.size(), e);
+                final Instant retryAt = Instant.now().plus(RETRY_DELAY);
+                batch.forEach(reservation -> this.expiryQueue.add(
+                        new ExpiringReservation(reservation.reservationId(), retryAt)));
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Releases expired reservations that are not queued on this instance, such as those made by
+     * an instance that stopped before they expired
+     */
+    @Scheduled(fixedDelayString = "${product-service.reservations.sweep-interval:PT1M}")
+    public void sweepExpiredReservations() {
+        List<String> expiredIds = this.stockReservationRepository.findExpiredIds(Instant.now(),
+                this.batchSize);
+        while (!expiredIds.isEmpty()) {
+            final int released = this.stockReservationService.releaseExpired(expiredIds);
+            if (released > 0) {
+                log.info("Swept {} expired reservations", released);
+            }
+            if (expiredIds.size() < this.batchSize) {
+                return;
+            }
+            expiredIds = this.stockReservationRepository.findExpiredIds(Instant.now(),
+                    this.batchSize);
+        }
+    }
+}
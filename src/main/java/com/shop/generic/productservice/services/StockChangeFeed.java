@@ -0,0 +1,111 @@
+package com.shop.generic.productservice.services;
+
+import com.shop.generic.productservice.config.StockChangeProperties;
+import com.shop.generic.productservice.dtos.StockChangeDTO;
+import com.shop.generic.productservice.repositories.StockChangeRepository;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands published stock changes to subscribers. The latest changes are kept in memory, so
+ * subscribers that are keeping up are served without going to the database, while those that have
+ * fallen further behind, or are resuming from an old sequence number, catch up from the database.
+ * Subscribers that are up to date wait here for the next change.
+ */
+@Component
+public class StockChangeFeed {
+
+    private final StockChangeRepository stockChangeRepository;
+    private final StockChangeDTO[] buffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changesPublished = this.lock.newCondition();
+    //Guarded by the lock
+    private long latestSequence;
+    private int buffered;
+
+    public StockChangeFeed(final StockChangeRepository stockChangeRepository,
+            final StockChangeProperties stockChangeProperties) {
+        this.stockChangeRepository = stockChangeRepository;
+        this.buffer = new StockChangeDTO[stockChangeProperties.bufferSize()];
+        this.latestSequence = stockChangeRepository.findLastSequence();
+    }
+
+    public long latestSequence() {
+        this.lock.lock();
+        try {
+            return this.latestSequence;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds newly published changes, in sequence order, and wakes waiting subscribers. Changes
+     * already seen are ignored. If the changes do not follow on from the latest one, such as when
+     * another instance relayed those in between, the buffer starts again from them and
+     * subscribers read the missing ones from the database.
+     */
+    public void publish(final List<StockChangeDTO> changes) {
+        this.lock.lock();
+        try {
+            for (final StockChangeDTO change : changes) {
+                if (change.sequence() <= this.latestSequence) {
+                    continue;
+                }
+                if (change.sequence() != this.latestSequence + 1) {
+                    this.buffered = 0;
+                }
+                this.buffer[slot(change.sequence())] = change;
+                this.buffered = Math.min(this.buffered + 1, this.buffer.length);
+                this.latestSequence = change.sequence();
+            }
+            this.changesPublished.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for changes after the given sequence number if there are none yet
+     *
+     * @param sequence the last change the subscriber has seen
+     * @param limit    the most changes to return
+     * @param maxWait  how long to wait for a change
+     * @return the changes after the given one in sequence order, or nothing if none were
+     * published in time. If the first change returned does not directly follow the given one, the
+     * changes in between are no longer retained
+     */
+    public List<StockChangeDTO> changesAfter(final long sequence, final int limit,
+            final Duration maxWait) throws InterruptedException {
+        this.lock.lock();
+        try {
+            long remainingNanos = maxWait.toNanos();
+            while (sequence >= this.latestSequence) {
+                if (remainingNanos <= 0) {
+                    return List.of();
+                }
+                remainingNanos = this.changesPublished.awaitNanos(remainingNanos);
+            }
+            final long firstBuffered = this.latestSequence - this.buffered + 1;
+            if (this.buffered > 0 && sequence + 1 >= firstBuffered) {
+                final long last = Math.min(this.latestSequence, sequence + limit);
+                final List<StockChangeDTO> changes = new ArrayList<>((int) (last - sequence));
+                for (long next = sequence + 1; next <= last; next++) {
+                    changes.add(this.buffer[slot(next)]);
+                }
+                return changes;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return this.stockChangeRepository.findChangesAfter(sequence, limit);
+    }
+
+    private int slot(final long sequence) {
+        return (int) (sequence % this.buffer.length);
+    }
+}
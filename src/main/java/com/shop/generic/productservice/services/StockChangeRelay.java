@@ -0,0 +1,96 @@
+package com.shop.generic.productservice.services;
+
+import com.shop.generic.productservice.config.StockChangeProperties;
+import com.shop.generic.productservice.dtos.StockChangeDTO;
+import com.shop.generic.productservice.events.ProductStockUpdatedEvent;
+import com.shop.generic.productservice.repositories.StockChangeRepository;
+import java.time.Instant;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Publishes every committed stock change to the {@link StockChangeFeed}. Changes are written to
+ * the outbox in the transaction that makes them, so a change is published if and only if it
+ * commits, and then relayed to the stream in batches shortly afterwards. Anything still in the
+ * outbox when the service stops is relayed when it starts again.
+ * <p>
+ * Changes relayed by other instances are picked up from the database on each run, so subscribers
+ * of every instance see the same stream.
+ */
+@Component
+@Slf4j
+public class StockChangeRelay {
+
+    private final StockChangeRepository stockChangeRepository;
+    private final StockChangeFeed stockChangeFeed;
+    private final StockChangeProperties stockChangeProperties;
+    private final TransactionTemplate transactionTemplate;
+
+    public StockChangeRelay(final StockChangeRepository stockChangeRepository,
+            final StockChangeFeed stockChangeFeed,
+            final StockChangeProperties stockChangeProperties,
+            final PlatformTransactionManager transactionManager) {
+        this.stockChangeRepository = stockChangeRepository;
+        this.stockChangeFeed = stockChangeFeed;
+        this.stockChangeProperties = stockChangeProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Runs inside the transaction that changed the stock, just before it commits
+     */
+    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+    public void onProductStockUpdated(final ProductStockUpdatedEvent event) {
+        this.stockChangeRepository.appendToOutbox(event.productIds(), Instant.now());
+    }
+
+    /**
+     * Moves everything in the outbox to the stream, a batch per transaction
+     *
+     * @return the number of changes relayed
+     */
+    @Scheduled(fixedDelayString = "${product-service.stock-changes.relay-interval:PT0.1S}")
+    public int relay() {
+        final int batchSize = this.stockChangeProperties.relayBatchSize();
+        int relayed = 0;
+        List<StockChangeDTO> changes;
+        do {
+            changes = this.transactionTemplate.execute(
+                    status -> this.stockChangeRepository.relayOutbox(batchSize));
+            this.stockChangeFeed.publish(changes);
+            relayed += changes.size();
+        } while (changes.size() == batchSize);
+        catchUp();
+        return relayed;
+    }
+
+    /**
+     * Loads changes published by other instances since the feed's latest one
+     */
+    private void catchUp() {
+        long latestSequence = this.stockChangeFeed.latestSequence();
+        while (this.stockChangeRepository.findLastSequence() > latestSequence) {
+            final List<StockChangeDTO> changes = this.stockChangeRepository.findChangesAfter(
+                    latestSequence, this.stockChangeProperties.relayBatchSize());
+            if (changes.isEmpty()) {
+                return;
+            }
+            this.stockChangeFeed.publish(changes);
+            latestSequence = changes.get(changes.size() - 1).sequence();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${product-service.stock-changes.purge-interval:PT10M}")
+    public void purgeOldChanges() {
+        final Integer purged = this.transactionTemplate.execute(
+                status -> this.stockChangeRepository.deleteChangesBefore(
+                        Instant.now().minus(this.stockChangeProperties.retention())));
+        log.debug("Purged {} old stock changes", purged);
+    }
+}
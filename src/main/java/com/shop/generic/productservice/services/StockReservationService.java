@@ -0,0 +1,213 @@
+package com.shop.generic.productservice.services;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.config.ReservationProperties;
+import com.shop.generic.productservice.dtos.ReservationDTO;
+import com.shop.generic.productservice.events.ProductStockUpdatedEvent;
+import com.shop.generic.productservice.events.StockReservedEvent;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.exceptions.InvalidQuantityException;
+import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.exceptions.ReservationNotFoundException;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.repositories.StockReservationRepository;
+import io.micrometer.core.annotation.Timed;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Holds stock for a caller while it finishes an order, for example while payment completes,
+ * without taking it out of stock yet. Held units are counted on the product row, so stock that is
+ * free to buy or hold is always just the stock count minus the held count. A reservation is
+ * either committed, which turns it into a purchase, released, or expires and is released by the
+ * {@link ReservationExpiryScheduler}.
+ * <p>
+ * A product whose stock is all held reads as out of stock, and reads as available again once
+ * some is released. Holds that flag a product as out of stock, and every release, publish a
+ * {@link ProductStockUpdatedEvent}, so the cache and the availability index follow.
+ * <p>
+ * Not available in write-behind mode, as the stock ledger does not know about held stock.
+ */
+@Service
+@ConditionalOnProperty(prefix = "product-service.stock-ledger", name = "enabled",
+        havingValue = "false", matchIfMissing = true)
+@Slf4j
+@Timed("product.service")
+public class StockReservationService {
+
+    private final ProductRepository productRepository;
+    private final StockReservationRepository stockReservationRepository;
+    private final ReservationProperties reservationProperties;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final ProductMetrics productMetrics;
+
+    public StockReservationService(final ProductRepository productRepository,
+            final StockReservationRepository stockReservationRepository,
+            final ReservationProperties reservationProperties,
+            final ApplicationEventPublisher applicationEventPublisher,
+            final ProductMetrics productMetrics) {
+        this.productRepository = productRepository;
+        this.stockReservationRepository = stockReservationRepository;
+        this.reservationProperties = reservationProperties;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.productMetrics = productMetrics;
+    }
+
+    /**
+     * Holds the requested quantities. Like a purchase, the whole basket is held or none of it is,
+     * and lines are applied in ascending product ID order so overlapping requests cannot deadlock.
+     *
+     * @param purchaseProductDTOS the products and quantities to hold
+     * @param ttl                 how long to hold them for, or null for the default. Clamped to
+     *                            the configured maximum, and not positive means the default
+     * @throws ProductDoesNotExistException if any products in the basket do not exist
+     * @throws InsufficientStockException   if a product does not have enough unheld stock left
+     * @throws InvalidQuantityException     if any line is for less than one unit
+     */
+    @Transactional
+    public ReservationDTO reserve(final List<PurchaseProductDTO> purchaseProductDTOS,
+            final Duration ttl) throws ProductDoesNotExistException, InsufficientStockException,
+            InvalidQuantityException {
+        final List<PurchaseProductDTO> basket = ProductService.mergeBasket(purchaseProductDTOS);
+        final Duration holdFor = ttl == null || !ttl.isPositive()
+                ? this.reservationProperties.defaultTtl()
+                : min(ttl, this.reservationProperties.maxTtl());
+
+        final int[] updateCounts = this.productRepository.reserveStockCounts(basket);
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == 0) {
+                throw reservationFailure(basket.get(i));
+            }
+        }
+
+        //Every line applied, so any product now out of stock was flagged by this hold
+        final List<Integer> soldOutIds = this.productRepository.findProductIdsByStockStatus(
+                StockStatus.OUT_OF_STOCK, basket.stream().map(PurchaseProductDTO::productId)
+                        .toList());
+        if (!soldOutIds.isEmpty()) {
+            this.applicationEventPublisher.publishEvent(new ProductStockUpdatedEvent(soldOutIds));
+        }
+
+        final String reservationId = UUID.randomUUID().toString();
+        final Instant now = Instant.now();
+        final Instant expiresAt = now.plus(holdFor);
+        this.stockReservationRepository.save(reservationId, basket, now, expiresAt);
+        this.applicationEventPublisher.publishEvent(
+                new StockReservedEvent(reservationId, expiresAt));
+        log.debug("Reserved {} products under reservation {} until {}", basket.size(),
+                reservationId, expiresAt);
+        return new ReservationDTO(reservationId, expiresAt, basket);
+    }
+
+    /**
+     * Only looks up whether the product exists once the hold has already failed, so the common
+     * case costs one statement per line
+     */
+    private RuntimeException reservationFailure(final PurchaseProductDTO line) {
+        if (this.productRepository.findExistingProductIds(List.of(line.productId())).isEmpty()) {
+            this.productMetrics.productsNotFound(1);
+            return new ProductDoesNotExistException(line.productId());
+        }
+        return new InsufficientStockException(line.productId(), line.quantity());
+    }
+
+    /**
+     * Turns the held stock into a purchase
+     *
+     * @throws ReservationNotFoundException if the reservation does not exist, has expired, or was
+     *                                      already committed or released
+     */
+    @Transactional
+    public void commit(final String reservationId) throws ReservationNotFoundException {
+        final List<PurchaseProductDTO> lines = this.stockReservationRepository.findLines(
+                reservationId);
+        if (lines.isEmpty()
+                || this.stockReservationRepository.deleteUnexpired(reservationId, Instant.now())
+                == 0) {
+            throw new ReservationNotFoundException(reservationId);
+        }
+        this.productRepository.commitReservedStockCounts(lines);
+
+        final List<Integer> productIds = lines.stream().map(PurchaseProductDTO::productId)
+                .toList();
+        this.productMetrics.outOfStock(
+                this.productRepository.findOutOfStockProductIds(productIds).size());
+        this.productMetrics.stockDecremented(
+                lines.stream().mapToInt(PurchaseProductDTO::quantity).sum());
+        this.applicationEventPublisher.publishEvent(new ProductStockUpdatedEvent(productIds));
+        log.info("Reservation {} committed for {} products", reservationId, lines.size());
+    }
+
+    /**
+     * Gives the held stock back
+     *
+     * @throws ReservationNotFoundException if the reservation does not exist, or was already
+     *                                      committed or released
+     */
+    @Transactional
+    public void release(final String reservationId) throws ReservationNotFoundException {
+        final List<PurchaseProductDTO> lines = this.stockReservationRepository.findLines(
+                reservationId);
+        if (lines.isEmpty() || this.stockReservationRepository.delete(reservationId) == 0) {
+            throw new ReservationNotFoundException(reservationId);
+        }
+        this.productRepository.releaseReservedStockCounts(lines);
+        this.applicationEventPublisher.publishEvent(new ProductStockUpdatedEvent(
+                lines.stream().map(PurchaseProductDTO::productId).toList()));
+        log.debug("Reservation {} released", reservationId);
+    }
+
+    /**
+     * Gives back the stock held by those of the given reservations that have expired and have not
+     * been committed or released in the meantime. The held counts are released with one
+     * statement per product, however many reservations held it.
+     *
+     * @return the number of reservations released
+     */
+    @Transactional
+    public int releaseExpired(final List<String> reservationIds) {
+        final Instant now = Instant.now();
+        final Map<String, List<PurchaseProductDTO>> expiredLines = this.stockReservationRepository
+                .findExpiredLines(reservationIds, now);
+        if (expiredLines.isEmpty()) {
+            return 0;
+        }
+
+        final List<String> expiredIds = expiredLines.keySet().stream().sorted().toList();
+        final int[] deleteCounts = this.stockReservationRepository.deleteExpired(expiredIds, now);
+        //Summed per product and applied in ascending product ID order, like a purchase
+        final Map<Integer, Integer> releasedQuantities = new TreeMap<>();
+        int released = 0;
+        for (int i = 0; i < deleteCounts.length; i++) {
+            //Nothing was deleted if the reservation was committed or released in the meantime
+            if (deleteCounts[i] > 0) {
+                released++;
+                expiredLines.get(expiredIds.get(i)).forEach(line -> releasedQuantities.merge(
+                        line.productId(), line.quantity(), Integer::sum));
+            }
+        }
+        this.productRepository.releaseReservedStockCounts(releasedQuantities.entrySet().stream()
+                .map(entry -> new PurchaseProductDTO(entry.getKey(), entry.getValue()))
+                .toList());
+        if (!releasedQuantities.isEmpty()) {
+            this.applicationEventPublisher.publishEvent(
+                    new ProductStockUpdatedEvent(List.copyOf(releasedQuantities.keySet())));
+        }
+        return released;
+    }
+
+    private static Duration min(final Duration a, final Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+}
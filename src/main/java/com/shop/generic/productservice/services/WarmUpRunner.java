@@ -0,0 +1,131 @@
+package com.shop.generic.productservice.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.rest.response.RestApiResponseFactory;
+import com.shop.generic.productservice.config.WarmUpProperties;
+import com.shop.generic.productservice.controllers.ProductController;
+import com.shop.generic.productservice.repositories.StockChangeRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Warms the service up before it reports ready. Spring Boot only moves the readiness state to
+ * accepting traffic once every runner has finished, so /actuator/health/readiness stays down, and
+ * no traffic is routed here, until this is done.
+ * <p>
+ * The best selling products, going by the stock change stream, are loaded into the cache first.
+ * Then the work behind each {@link ProductController} read endpoint is run over them repeatedly,
+ * from the ETag lookups to serializing the response body, until Hibernate, Jackson and the JIT
+ * have seen every hot path. This runs in process rather than over HTTP, so it does not need
+ * credentials for the security set up by gs-common.
+ */
+@Component
+@ConditionalOnProperty(prefix = "product-service.warm-up", name = "enabled", havingValue = "true")
+@Slf4j
+public class WarmUpRunner implements ApplicationRunner {
+
+    private static final int BATCH_SIZE = 20;
+    private static final int CATALOGUE_EVERY = 100;
+
+    private final ProductService productService;
+    private final StockChangeRepository stockChangeRepository;
+    private final RestApiResponseFactory restApiResponseFactory;
+    private final ObjectMapper objectMapper;
+    private final WarmUpProperties warmUpProperties;
+
+    public WarmUpRunner(final ProductService productService,
+            final StockChangeRepository stockChangeRepository,
+            final RestApiResponseFactory restApiResponseFactory,
+            final ObjectMapper objectMapper,
+            final WarmUpProperties warmUpProperties) {
+        this.productService = productService;
+        this.stockChangeRepository = stockChangeRepository;
+        this.restApiResponseFactory = restApiResponseFactory;
+        this.objectMapper = objectMapper;
+        this.warmUpProperties = warmUpProperties;
+    }
+
+    /**
+     * A failed warm-up only leaves the service slower to begin with, so it is logged rather than
+     * stopping the service from starting
+     */
+    @Override
+    public void run(final ApplicationArguments args) {
+        final Instant start = Instant.now();
+        try {
+            //Loads them into the cache, and leaves out any that have been removed since they sold
+            final List<Integer> hotProductIds = this.productService.getProductsBatch(
+                            findHotProductIds().stream().mapToInt(Integer::intValue).toArray(),
+                            true)
+                    .products().stream().map(ProductDTO::productId).toList();
+            if (hotProductIds.isEmpty()) {
+                log.info("Skipping warm-up, there are no products");
+                return;
+            }
+            final int iterations = exercise(hotProductIds,
+                    start.plus(this.warmUpProperties.maxDuration()));
+            log.info("Warmed up with {} products over {} iterations in {}ms",
+                    hotProductIds.size(), iterations,
+                    Duration.between(start, Instant.now()).toMillis());
+        } catch (final RuntimeException | JsonProcessingException e) {
+            log.warn("Warm-up failed after {}ms, carrying on without it",
+                    Duration.between(start, Instant.now()).toMillis(), e);
+        }
+    }
+
+    /**
+     * Falls back to the start of the catalogue when nothing has sold lately, for example on the
+     * first deploy
+     */
+    private List<Integer> findHotProductIds() {
+        final List<Integer> productIds = this.stockChangeRepository.findMostChangedProductIds(
+                this.warmUpProperties.hotProducts());
+        if (!productIds.isEmpty()) {
+            return productIds;
+        }
+        return this.productService.findProductsPage(null, this.warmUpProperties.hotProducts())
+                .products().stream().map(ProductDTO::productId).toList();
+    }
+
+    /**
+     * @return the number of iterations run before the deadline
+     */
+    private int exercise(final List<Integer> hotProductIds, final Instant deadline)
+            throws JsonProcessingException {
+        final int[] hotProductIdArray = hotProductIds.stream().mapToInt(Integer::intValue)
+                .toArray();
+        int iteration = 0;
+        while (iteration < this.warmUpProperties.iterations() && Instant.now().isBefore(deadline)) {
+            final int productId = hotProductIds.get(iteration % hotProductIds.size());
+            this.productService.productETag(productId);
+            serialize(this.productService.retrieveProductById(productId));
+
+            final int from = (iteration * BATCH_SIZE) % hotProductIds.size();
+            final List<Integer> batch = hotProductIds.subList(from,
+                    Math.min(from + BATCH_SIZE, hotProductIds.size()));
+            this.productService.productsETag(batch);
+            serialize(this.productService.getProductsByIds(batch));
+            this.productService.checkAvailability(hotProductIdArray);
+
+            if (iteration % CATALOGUE_EVERY == 0) {
+                this.productService.catalogueETag();
+                serialize(this.productService.findProductsPage(null, null));
+            }
+            iteration++;
+        }
+        return iteration;
+    }
+
+    private void serialize(final Object result) throws JsonProcessingException {
+        this.objectMapper.writeValueAsBytes(
+                this.restApiResponseFactory.createSuccessResponse(result));
+    }
+}
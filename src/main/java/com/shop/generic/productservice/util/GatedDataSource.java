@@ -0,0 +1,131 @@
+package com.shop.generic.productservice.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Hands out connections from the pool behind it only once a permit is free, with no more permits
+ * than the pool has connections. With a virtual thread per request, thousands of requests can want
+ * a connection at once. Waiting here costs each of them a parked virtual thread in a fair queue,
+ * where waiting in the pool would have them all contend on its internals, and each ask for new
+ * connections to be added, only to find the pool at its maximum size.
+ * <p>
+ * The permit is given back when the connection is closed, the first time only.
+ */
+public class GatedDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private final Semaphore permits;
+    private final int maxPermits;
+    private final long acquireTimeoutNanos;
+
+    public GatedDataSource(final DataSource targetDataSource, final int permits,
+            final Duration acquireTimeout) {
+        super(targetDataSource);
+        this.permits = new Semaphore(permits, true);
+        this.maxPermits = permits;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        try {
+            return gate(super.getConnection());
+        } catch (final SQLException | RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password)
+            throws SQLException {
+        acquire();
+        try {
+            return gate(super.getConnection(username, password));
+        } catch (final SQLException | RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the pool behind, as Spring only knows to close the data source it was given, which is
+     * now this one
+     */
+    @Override
+    public void close() throws Exception {
+        if (getTargetDataSource() instanceof final AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    public int maxPermits() {
+        return this.maxPermits;
+    }
+
+    public int availablePermits() {
+        return this.permits.availablePermits();
+    }
+
+    /**
+     * @return roughly how many threads are waiting for a connection
+     */
+    public int waiting() {
+        return this.permits.getQueueLength();
+    }
+
+    private void acquire() throws SQLException {
+        try {
+            if (!this.permits.tryAcquire(this.acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new SQLTransientConnectionException("No database connection free after "
+                        + TimeUnit.NANOSECONDS.toMillis(this.acquireTimeoutNanos) + "ms, with "
+                        + waiting() + " other requests waiting");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException(
+                    "Interrupted waiting for a database connection", e);
+        }
+    }
+
+    private Connection gate(final Connection connection) {
+        final AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+                new Class<?>[]{ConnectionProxy.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            if (closed.compareAndSet(false, true)) {
+                                try {
+                                    connection.close();
+                                } finally {
+                                    this.permits.release();
+                                }
+                            }
+                            return null;
+                        case "getTargetConnection":
+                            return connection;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            try {
+                                return method.invoke(connection, args);
+                            } catch (final InvocationTargetException e) {
+                                throw e.getTargetException();
+                            }
+                    }
+                });
+    }
+}
@@ -0,0 +1,33 @@
+package com.shop.generic.productservice.util;
+
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+/**
+ * Only takes a connection from the pool behind when the first statement runs, rather than when a
+ * transaction begins. What Spring sets on the connection as a transaction begins, auto-commit,
+ * isolation and read-only, is held until then and applied to the real connection. A transaction
+ * that spends time on other work before its first statement, or never runs one, keeps a pooled
+ * connection for less time or not at all.
+ * <p>
+ * Connections used outside a transaction behave exactly as the pool's do, auto-commit included, so
+ * nothing has to run in a transaction for its writes to be kept.
+ */
+public class LazyConnectionDataSource extends LazyConnectionDataSourceProxy implements
+        AutoCloseable {
+
+    public LazyConnectionDataSource(final DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    /**
+     * Closes the pool behind, as Spring only knows to close the data source it was given, which is
+     * now this one
+     */
+    @Override
+    public void close() throws Exception {
+        if (getTargetDataSource() instanceof final AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.shop.generic.productservice.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets one in every {@code rate} calls through, for log lines that are useful to see but too
+ * frequent to write on every request
+ */
+public final class LogSampler {
+
+    private final AtomicLong calls = new AtomicLong();
+    private final int rate;
+
+    public LogSampler(final int rate) {
+        this.rate = Math.max(1, rate);
+    }
+
+    public boolean sample() {
+        return this.calls.getAndIncrement() % this.rate == 0;
+    }
+
+    public int rate() {
+        return this.rate;
+    }
+}
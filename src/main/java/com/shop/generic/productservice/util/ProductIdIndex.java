@@ -0,0 +1,98 @@
+package com.shop.generic.productservice.util;
+
+import java.util.List;
+
+/**
+ * Assigns each distinct product ID in a request a position, in the order the IDs were first seen.
+ * Lookups go through an open addressing hash table over primitive arrays, so building and querying
+ * the index never boxes an ID or allocates per entry, and both are linear in the number of IDs.
+ */
+public final class ProductIdIndex {
+
+    private static final int NOT_FOUND = -1;
+
+    private final int[] keys;
+    //Position of the key in the same slot plus one, so that 0 can mean the slot is empty
+    private final int[] positions;
+    private final int[] ids;
+    private final int mask;
+    private int size;
+
+    private ProductIdIndex(final int expectedSize) {
+        //Keep the table at most half full so probe sequences stay short
+        final int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1;
+        this.keys = new int[capacity];
+        this.positions = new int[capacity];
+        this.ids = new int[expectedSize];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Builds an index of the distinct IDs in the list, positioned in order of first appearance
+     */
+    public static ProductIdIndex of(final List<Integer> productIds) {
+        final ProductIdIndex index = new ProductIdIndex(productIds.size());
+        for (final Integer productId : productIds) {
+            index.add(productId);
+        }
+        return index;
+    }
+
+    /**
+     * Builds an index of the distinct IDs in the array, positioned in order of first appearance
+     */
+    public static ProductIdIndex of(final int[] productIds) {
+        final ProductIdIndex index = new ProductIdIndex(productIds.length);
+        for (final int productId : productIds) {
+            index.add(productId);
+        }
+        return index;
+    }
+
+    /**
+     * @return the position of the ID, or -1 if it is not in the index
+     */
+    public int indexOf(final int productId) {
+        int slot = slotFor(productId);
+        while (this.positions[slot] != 0) {
+            if (this.keys[slot] == productId) {
+                return this.positions[slot] - 1;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @return the product ID at the given position
+     */
+    public int idAt(final int position) {
+        return this.ids[position];
+    }
+
+    /**
+     * @return the number of distinct IDs in the index
+     */
+    public int size() {
+        return this.size;
+    }
+
+    private void add(final int productId) {
+        int slot = slotFor(productId);
+        while (this.positions[slot] != 0) {
+            if (this.keys[slot] == productId) {
+                return;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.keys[slot] = productId;
+        this.positions[slot] = this.size + 1;
+        this.ids[this.size++] = productId;
+    }
+
+    private int slotFor(final int productId) {
+        //Product IDs come from a sequence, so spread consecutive values across the table
+        final int hash = productId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & this.mask;
+    }
+}
@@ -0,0 +1,78 @@
+package com.shop.generic.productservice.util;
+
+import com.shop.generic.productservice.config.TransactionProperties;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * A {@link TransactionTemplate} run at the configured isolation level and timeout, that runs the
+ * callback again in a new transaction when the database gives up on it because of a deadlock or
+ * serialization failure. Retries wait a random time up to an exponentially growing limit, so
+ * transactions that collided once do not collide again on the retry.
+ * <p>
+ * Only transactions this template starts are retried. When the callback joins a transaction the
+ * caller already has open, that transaction is rolled back by the failure whatever happens here,
+ * so the failure is left for whoever started it.
+ */
+@Slf4j
+public class RetryingTransactionTemplate extends TransactionTemplate {
+
+    private final TransactionProperties transactionProperties;
+    private final ProductMetrics productMetrics;
+
+    public RetryingTransactionTemplate(final PlatformTransactionManager transactionManager,
+            final TransactionProperties transactionProperties,
+            final ProductMetrics productMetrics) {
+        super(transactionManager);
+        this.transactionProperties = transactionProperties;
+        this.productMetrics = productMetrics;
+        setIsolationLevel(transactionProperties.isolation().value());
+        setTimeout((int) Math.max(1, transactionProperties.timeout().toSeconds()));
+    }
+
+    @Override
+    public <T> T execute(final TransactionCallback<T> action) throws TransactionException {
+        if (!startsNewTransaction()) {
+            return super.execute(action);
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return super.execute(action);
+            } catch (final ConcurrencyFailureException e) {
+                if (attempt >= this.transactionProperties.maxAttempts()) {
+                    throw e;
+                }
+                final long backoffNanos = backoffNanos(attempt);
+                log.debug("Transaction attempt {} failed, retrying in {} µs", attempt,
+                        TimeUnit.NANOSECONDS.toMicros(backoffNanos), e);
+                this.productMetrics.transactionRetried();
+                try {
+                    TimeUnit.NANOSECONDS.sleep(backoffNanos);
+                } catch (final InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private boolean startsNewTransaction() {
+        return getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW
+                || !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    private long backoffNanos(final int attempt) {
+        final long limit = Math.min(this.transactionProperties.maxBackoff().toNanos(),
+                this.transactionProperties.initialBackoff().toNanos() << Math.min(attempt - 1, 30));
+        return limit <= 0 ? 0 : ThreadLocalRandom.current().nextLong(limit + 1);
+    }
+}
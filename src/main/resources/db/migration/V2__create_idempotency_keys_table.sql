@@ -0,0 +1,11 @@
+CREATE TABLE idempotency_keys
+(
+    idempotency_key VARCHAR(255)  NOT NULL,
+    request_hash    VARCHAR(64)   NOT NULL,
+    response_body   VARCHAR(1000),
+    created_at      TIMESTAMP     NOT NULL,
+    expires_at      TIMESTAMP     NOT NULL,
+    CONSTRAINT pk_idempotency_key PRIMARY KEY (idempotency_key)
+);
+
+CREATE INDEX idx_idempotency_keys_expires_at ON idempotency_keys (expires_at);
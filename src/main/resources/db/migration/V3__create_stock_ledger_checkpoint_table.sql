@@ -0,0 +1,8 @@
+CREATE TABLE stock_ledger_checkpoint
+(
+    id       INT    NOT NULL,
+    sequence BIGINT NOT NULL,
+    CONSTRAINT pk_stock_ledger_checkpoint PRIMARY KEY (id)
+);
+
+INSERT INTO stock_ledger_checkpoint (id, sequence) VALUES (1, 0);
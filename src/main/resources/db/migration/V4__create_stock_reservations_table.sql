@@ -0,0 +1,15 @@
+-- Units held by unexpired reservations. Stock available to buy or hold is stock_count minus this
+ALTER TABLE products ADD COLUMN reserved_count INT NOT NULL DEFAULT 0;
+
+CREATE TABLE stock_reservations
+(
+    reservation_id VARCHAR(36) NOT NULL,
+    product_id     BIGINT      NOT NULL,
+    quantity       INT         NOT NULL,
+    created_at     TIMESTAMP   NOT NULL,
+    expires_at     TIMESTAMP   NOT NULL,
+    CONSTRAINT pk_stock_reservation PRIMARY KEY (reservation_id, product_id),
+    CONSTRAINT fk_stock_reservation_product FOREIGN KEY (product_id) REFERENCES products (product_id)
+);
+
+CREATE INDEX idx_stock_reservations_expires_at ON stock_reservations (expires_at);
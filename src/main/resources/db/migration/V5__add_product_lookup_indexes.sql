@@ -0,0 +1,9 @@
+-- Listing products of one status by price, optionally within a price range. The product ID is
+-- included so ties on price come back in a stable order without a sort
+CREATE INDEX idx_products_stock_status_price ON products (stock_status, price, product_id);
+
+-- Catalogue listings sorted or filtered by price across every status
+CREATE INDEX idx_products_price ON products (price);
+
+-- Reporting lookups by name
+CREATE INDEX idx_products_name ON products (name);
@@ -0,0 +1,34 @@
+-- Stock changes, written in the same transaction as the change itself. Rows only stay here until
+-- the relay moves them to stock_change_events
+CREATE TABLE stock_change_outbox
+(
+    outbox_id    BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    product_id   BIGINT      NOT NULL,
+    stock_status VARCHAR(20) NOT NULL,
+    stock_count  INT         NOT NULL,
+    changed_at   TIMESTAMP   NOT NULL,
+    CONSTRAINT pk_stock_change_outbox PRIMARY KEY (outbox_id)
+);
+
+-- The published stream of changes, numbered without gaps in the order they were relayed
+CREATE TABLE stock_change_events
+(
+    sequence     BIGINT      NOT NULL,
+    product_id   BIGINT      NOT NULL,
+    stock_status VARCHAR(20) NOT NULL,
+    stock_count  INT         NOT NULL,
+    changed_at   TIMESTAMP   NOT NULL,
+    CONSTRAINT pk_stock_change_events PRIMARY KEY (sequence)
+);
+
+CREATE INDEX idx_stock_change_events_changed_at ON stock_change_events (changed_at);
+
+-- The last sequence number handed out. Relays lock this row, so only one relays at a time
+CREATE TABLE stock_change_sequence
+(
+    id       INT    NOT NULL,
+    sequence BIGINT NOT NULL,
+    CONSTRAINT pk_stock_change_sequence PRIMARY KEY (id)
+);
+
+INSERT INTO stock_change_sequence (id, sequence) VALUES (1, 0);
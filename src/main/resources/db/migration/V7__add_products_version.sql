@@ -0,0 +1,3 @@
+-- Bumped by every statement that changes a product's stock, so readers can tell whether a product
+-- has changed without reading it. Backs the ETags on product reads
+ALTER TABLE products ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
@@ -0,0 +1,11 @@
+-- Stock ledger decrements the database would not take, kept so they are not lost once the
+-- checkpoint moves past them. Each one needs the product's stock settling by hand
+CREATE TABLE stock_ledger_dead_letters
+(
+    dead_letter_id BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    product_id     BIGINT    NOT NULL,
+    quantity       INT       NOT NULL,
+    sequence       BIGINT    NOT NULL,
+    created_at     TIMESTAMP NOT NULL,
+    CONSTRAINT pk_stock_ledger_dead_letters PRIMARY KEY (dead_letter_id)
+);
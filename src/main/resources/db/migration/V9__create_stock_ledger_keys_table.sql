@@ -0,0 +1,11 @@
+-- Idempotency keys of the baskets the stock ledger has written to the database, so a retried
+-- basket is not taken again once it has left the journal. Written in the same transaction as the
+-- checkpoint that moves past the baskets, and kept for as long as the idempotency keys themselves
+CREATE TABLE stock_ledger_keys
+(
+    idempotency_key VARCHAR(255) NOT NULL,
+    expires_at      TIMESTAMP    NOT NULL,
+    CONSTRAINT pk_stock_ledger_keys PRIMARY KEY (idempotency_key)
+);
+
+CREATE INDEX idx_stock_ledger_keys_expires_at ON stock_ledger_keys (expires_at);
@@ -0,0 +1,179 @@
+package com.shop.generic.productservice.cache;
+
+import static com.shop.generic.productservice.testing.ProductFixtures.createProduct;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.services.ProductService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Runs against the real (H2) database. Products saved through the repository do not publish
+ * stock updates, so each test rebuilds the index after creating its products, as the scheduled
+ * rebuild would. Purchases are refreshed in the background, so the tests apply whatever is still
+ * queued before checking the index.
+ */
+@SpringBootTest
+class AvailabilityIndexTest {
+
+    private static final int PRODUCTS = 200;
+    private static final int PURCHASES = 4000;
+
+    @Autowired
+    private AvailabilityIndex availabilityIndex;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAll();
+        this.availabilityIndex.rebuild();
+    }
+
+    @Test
+    @DisplayName("The index should match the table after random concurrent purchases")
+    public void should_matchTable_afterConcurrentPurchases() throws Exception {
+        final List<Integer> productIds = createProducts();
+
+        runPurchases(productIds);
+        this.availabilityIndex.refreshPending();
+
+        assertMatchesTable(productIds);
+    }
+
+    @Test
+    @DisplayName("Rebuilding while purchases commit should not lose any of them")
+    public void should_matchTable_whenRebuiltDuringPurchases() throws Exception {
+        final List<Integer> productIds = createProducts();
+        final AtomicBoolean purchasing = new AtomicBoolean(true);
+        final ExecutorService rebuilder = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> rebuilds = rebuilder.submit(() -> {
+                while (purchasing.get()) {
+                    this.availabilityIndex.rebuild();
+                }
+            });
+            runPurchases(productIds);
+            purchasing.set(false);
+            rebuilds.get();
+        } finally {
+            rebuilder.shutdown();
+        }
+        this.availabilityIndex.refreshPending();
+
+        assertMatchesTable(productIds);
+    }
+
+    @Test
+    @DisplayName("Availability should be packed one bit per requested ID, first ID first")
+    public void should_packOneBitPerId_inRequestOrder() {
+        final int available = this.productRepository.save(createProduct(1)).getProductId();
+        final int soldOut = this.productRepository.save(createProduct(1)).getProductId();
+        this.availabilityIndex.rebuild();
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(soldOut, 1)));
+        this.availabilityIndex.refreshPending();
+
+        final byte[] packed = this.availabilityIndex.availability(new int[]{available, soldOut,
+                -1, Integer.MAX_VALUE, available, available, available, available, available});
+
+        assertArrayEquals(new byte[]{(byte) 0b10001111, (byte) 0b10000000}, packed);
+    }
+
+    @Test
+    @DisplayName("A purchase should be reflected in the index by the refresh thread alone")
+    public void should_refreshInBackground_afterPurchase() throws Exception {
+        final int productId = this.productRepository.save(createProduct(1)).getProductId();
+        this.availabilityIndex.rebuild();
+
+        //When
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(productId, 1)));
+
+        //Then
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.availabilityIndex.isAvailable(productId) && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertFalse(this.availabilityIndex.isAvailable(productId));
+    }
+
+    private List<Integer> createProducts() {
+        final List<Integer> productIds = new ArrayList<>();
+        for (int i = 0; i < PRODUCTS; i++) {
+            productIds.add(this.productRepository.save(
+                    createProduct(ThreadLocalRandom.current().nextInt(1, 40))).getProductId());
+        }
+        this.availabilityIndex.rebuild();
+        return productIds;
+    }
+
+    private void runPurchases(final List<Integer> productIds) throws Exception {
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < PURCHASES; i++) {
+            tasks.add(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                final List<PurchaseProductDTO> basket = new ArrayList<>();
+                for (int line = random.nextInt(1, 4); line > 0; line--) {
+                    basket.add(new PurchaseProductDTO(
+                            productIds.get(random.nextInt(productIds.size())),
+                            random.nextInt(1, 3)));
+                }
+                try {
+                    this.productService.updateProductsStock(basket);
+                } catch (final InsufficientStockException e) {
+                    //Expected once products start selling out
+                }
+                return null;
+            });
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(32);
+        try {
+            for (final Future<Void> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private void assertMatchesTable(final List<Integer> productIds) {
+        final Set<Integer> availableInTable = new HashSet<>(this.jdbcTemplate.queryForList(
+                "SELECT product_id FROM products WHERE stock_status = 'AVAILABLE'",
+                Integer.class));
+        final int[] ids = productIds.stream().mapToInt(Integer::intValue).toArray();
+        final byte[] packed = this.availabilityIndex.availability(ids);
+        for (int i = 0; i < ids.length; i++) {
+            final boolean expected = availableInTable.contains(ids[i]);
+            assertEquals(expected, this.availabilityIndex.isAvailable(ids[i]),
+                    "Product " + ids[i]);
+            assertEquals(expected, (packed[i / 8] & (0x80 >>> (i % 8))) != 0,
+                    "Packed product " + ids[i]);
+        }
+    }
+}
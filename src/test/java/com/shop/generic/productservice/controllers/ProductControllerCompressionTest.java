@@ -0,0 +1,99 @@
+package com.shop.generic.productservice.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Goes over HTTP to the embedded Tomcat, as compression is applied by the connector rather than by
+ * anything Spring MVC does. The JDK's client does not decompress responses itself, so the headers
+ * and body are what the server sent. Security is switched off, as in the benchmarks.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+        properties = "gsshop-common.auth.enabled=false")
+class ProductControllerCompressionTest {
+
+    //Comfortably over the 2KB compression threshold as JSON
+    private static final int PRODUCTS = 100;
+
+    @LocalServerPort
+    private int port;
+
+    @Value("${server.servlet.context-path}")
+    private String contextPath;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    private final List<Integer> savedProductIds = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAllById(this.savedProductIds);
+    }
+
+    @Test
+    @DisplayName("The whole catalogue should be gzipped for clients that accept it")
+    public void should_gzipAllProducts_whenAccepted() throws Exception {
+        saveProducts();
+        final HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + this.port + this.contextPath
+                                + "/products/all"))
+                .header(HttpHeaders.ACCEPT, "application/json")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .GET()
+                .build();
+
+        //When
+        final HttpResponse<InputStream> response = HttpClient.newHttpClient().send(request,
+                HttpResponse.BodyHandlers.ofInputStream());
+
+        //Then
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip",
+                response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse(null));
+        assertTrue(response.headers().firstValue(HttpHeaders.ETAG).orElseThrow()
+                .startsWith("W/"));
+        final String body;
+        try (InputStream gzip = new GZIPInputStream(response.body())) {
+            body = new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertTrue(body.contains("Compression test product " + (PRODUCTS - 1)));
+    }
+
+    private void saveProducts() {
+        final List<Product> products = new ArrayList<>(PRODUCTS);
+        for (int i = 0; i < PRODUCTS; i++) {
+            final Product product = new Product();
+            product.setName("Compression test product " + i);
+            product.setPrice(BigDecimal.TEN);
+            product.setStockStatus(StockStatus.AVAILABLE);
+            product.setStockCount(100);
+            products.add(product);
+        }
+        this.productRepository.saveAll(products).stream().map(Product::getProductId)
+                .forEach(this.savedProductIds::add);
+    }
+}
@@ -0,0 +1,142 @@
+package com.shop.generic.productservice.controllers;
+
+import static com.shop.generic.productservice.testing.ProductFixtures.createProduct;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.services.ProductService;
+import com.shop.generic.productservice.testing.StatementCountingDataSource;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * Runs against the real (H2) database, calling the controller bean directly like
+ * {@link com.shop.generic.productservice.metrics.ProductMetricsTest}. Statements are counted at the
+ * data source, as the version lookups behind the ETags go through JdbcTemplate rather than
+ * Hibernate, and only on the test's own thread, as the scheduled jobs running alongside the tests
+ * use the database too.
+ */
+@SpringBootTest
+@Import(StatementCountingDataSource.Config.class)
+class ProductControllerConditionalGetTest {
+
+    @Autowired
+    private ProductController productController;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("A purchase should bump the product's version and change every ETag covering it")
+    public void should_changeETags_whenStockUpdated() {
+        final int productId = this.productRepository.save(createProduct(10)).getProductId();
+        final int otherProductId = this.productRepository.save(createProduct(10)).getProductId();
+        final String productETag = this.productService.productETag(productId);
+        final String productsETag = this.productService.productsETag(
+                List.of(productId, otherProductId));
+        final String catalogueETag = this.productService.catalogueETag();
+
+        //When
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(productId, 1)));
+
+        //Then
+        assertEquals(1, version(productId));
+        assertEquals(0, version(otherProductId));
+        assertNotEquals(productETag, this.productService.productETag(productId));
+        assertNotEquals(productsETag, this.productService.productsETag(
+                List.of(productId, otherProductId)));
+        assertNotEquals(catalogueETag, this.productService.catalogueETag());
+    }
+
+    @Test
+    @DisplayName("A purchase that fails should leave the version alone")
+    public void should_keepVersion_whenStockUpdateFails() {
+        final int productId = this.productRepository.save(createProduct(1)).getProductId();
+        final String productETag = this.productService.productETag(productId);
+
+        assertThrows(InsufficientStockException.class, () -> this.productService
+                .updateProductsStock(List.of(new PurchaseProductDTO(productId, 2))));
+
+        assertEquals(0, version(productId));
+        assertEquals(productETag, this.productService.productETag(productId));
+    }
+
+    @Test
+    @DisplayName("A request with a current ETag should get a 304 without reading any product")
+    public void should_return304WithoutReadingProducts_whenETagMatches() {
+        final int productId = this.productRepository.save(createProduct(10)).getProductId();
+        //The catalogue's tag is one aggregate over the versions, the others come from the cache
+        final List<ConditionalRead> reads = List.of(
+                new ConditionalRead(this.productController::retrieveAllProducts, 1),
+                new ConditionalRead(request -> this.productController.retrieveProductById(
+                        String.valueOf(productId), request), 0),
+                new ConditionalRead(request -> this.productController.getProducts(
+                        List.of(productId), request), 0));
+
+        for (final ConditionalRead read : reads) {
+            final ResponseEntity<?> fullResponse = read.read().apply(webRequest(null));
+            assertEquals(HttpStatus.OK, fullResponse.getStatusCode());
+            final String eTag = fullResponse.getHeaders().getETag();
+            assertNotNull(eTag);
+
+            //When
+            StatementCountingDataSource.reset();
+            final ServletWebRequest conditionalRequest = webRequest(eTag);
+            final ResponseEntity<?> conditionalResponse = read.read().apply(conditionalRequest);
+
+            //Then
+            assertNull(conditionalResponse);
+            assertEquals(HttpStatus.NOT_MODIFIED.value(),
+                    conditionalRequest.getResponse().getStatus());
+            assertEquals(read.expectedStatements(), StatementCountingDataSource.count());
+        }
+    }
+
+    private long version(final int productId) {
+        return this.jdbcTemplate.queryForObject(
+                "SELECT version FROM products WHERE product_id = ?", Long.class, productId);
+    }
+
+    private static ServletWebRequest webRequest(final String ifNoneMatch) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/products");
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        return new ServletWebRequest(request, new MockHttpServletResponse());
+    }
+
+    private record ConditionalRead(Function<ServletWebRequest, ResponseEntity<?>> read,
+                                   int expectedStatements) {
+
+    }
+}
@@ -2,25 +2,50 @@ package com.shop.generic.productservice.controllers;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.dtos.PurchaseProductDTO;
 import com.shop.generic.common.enums.StockStatus;
 import com.shop.generic.common.rest.response.RestApiResponse;
 import com.shop.generic.common.rest.response.RestApiResponseFactory;
+import com.shop.generic.productservice.config.ConcurrencyLimitProperties;
+import com.shop.generic.productservice.dtos.StreamedProductBatchDTO;
+import com.shop.generic.productservice.exceptions.IdempotencyKeyReusedException;
+import com.shop.generic.productservice.exceptions.InvalidQuantityException;
 import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.limits.AdaptiveConcurrencyLimiter;
+import com.shop.generic.productservice.limits.ConcurrencyLimiters;
+import com.shop.generic.productservice.limits.EndpointClass;
+import com.shop.generic.productservice.rest.converters.ProductListCodec;
+import com.shop.generic.productservice.services.IdempotencyService;
 import com.shop.generic.productservice.services.ProductService;
+import java.io.ByteArrayInputStream;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,10 +54,12 @@ import org.springframework.boot.test.autoconfigure.json.AutoConfigureJsonTesters
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.json.JacksonTester;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 /**
  * Here we test with @WebMvcTest, which does not start an HTTP Server, so we can use MockMvc to
@@ -62,9 +89,16 @@ class ProductControllerTest {
     @MockBean
     private ProductService productService;
 
+    @MockBean
+    private IdempotencyService idempotencyService;
+
     @MockBean
     private RestApiResponseFactory restApiResponseFactory;
 
+    //Disabled unless a test says otherwise, as the mock reports the limits as off
+    @MockBean
+    private ConcurrencyLimiters concurrencyLimiters;
+
     @Test
     public void should_ReturnAllProducts() throws Exception {
 
@@ -80,6 +114,7 @@ class ProductControllerTest {
                 productDTOList,
                 LocalDateTime.now());
 
+        given(productService.catalogueETag()).willReturn("catalogue-2-0-3");
         given(productService.findAllProducts())
                 .willReturn(productDTOList);
         given(restApiResponseFactory.createSuccessResponse(
@@ -145,6 +180,42 @@ class ProductControllerTest {
                 jacksonTester.write(mockApiResponse).getJson());
     }
 
+    @Test
+    @DisplayName("Controller returns a 400 when a purchase is for less than one unit")
+    public void should_return400ForNonPositiveQuantity() throws Exception {
+        willThrow(new InvalidQuantityException(1, -2)).given(productService)
+                .updateProductsStock(List.of(new PurchaseProductDTO(1, -2)));
+
+        //When
+        final MockHttpServletResponse response = this.mockMvc.perform(post("/products/update")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"productId\":1,\"quantity\":-2}]"))
+                .andReturn().getResponse();
+
+        //Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    @DisplayName("Controller returns a 422 when an idempotency key comes back with another basket")
+    public void should_return422ForReusedIdempotencyKey() throws Exception {
+        given(productService.basketHash(List.of(new PurchaseProductDTO(1, 2))))
+                .willReturn("hash");
+        given(idempotencyService.executeOnce(eq("key"), eq("hash"), any()))
+                .willThrow(new IdempotencyKeyReusedException("key"));
+
+        //When
+        final MockHttpServletResponse response = this.mockMvc.perform(post("/products/update")
+                        .header(ProductController.IDEMPOTENCY_KEY_HEADER, "key")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"productId\":1,\"quantity\":2}]"))
+                .andReturn().getResponse();
+
+        //Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY.value());
+        verify(productService, never()).updateProductsStock(any(), any());
+    }
+
     @Test
     @DisplayName("Controller returns 500 for all other exceptions")
     public void should_return500ForOtherExceptions() throws Exception {
@@ -170,6 +241,7 @@ class ProductControllerTest {
                 productDTO1,
                 LocalDateTime.now());
 
+        given(productService.productETag(1)).willReturn("product-1-3");
         given(productService.retrieveProductById(1))
                 .willReturn(productDTO1);
         given(restApiResponseFactory.createSuccessResponse(
@@ -189,11 +261,38 @@ class ProductControllerTest {
                 });
 
         assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("W/\"product-1-3\"");
         assertThat(responseAsObject.getResult()).usingRecursiveComparison()
                 .isEqualTo(mockApiResponse.getResult());
 
     }
 
+    @Test
+    @DisplayName("Controller returns 304 without reading the products when the ETag matches")
+    public void should_return304WhenETagMatches() throws Exception {
+        given(productService.catalogueETag()).willReturn("catalogue-2-7-3");
+        given(productService.productETag(1)).willReturn("product-1-3");
+        given(productService.productsETag(List.of(1, 2))).willReturn("products-abc");
+
+        //When
+        this.mockMvc.perform(get("/products/all")
+                        .header(HttpHeaders.IF_NONE_MATCH, "W/\"catalogue-2-7-3\""))
+                //Then
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"catalogue-2-7-3\""))
+                .andExpect(content().string(""));
+        this.mockMvc.perform(get("/products/1")
+                        .header(HttpHeaders.IF_NONE_MATCH, "W/\"product-1-2\", W/\"product-1-3\""))
+                .andExpect(status().isNotModified());
+        this.mockMvc.perform(get("/products?productIds=1,2")
+                        .header(HttpHeaders.IF_NONE_MATCH, "W/\"products-abc\""))
+                .andExpect(status().isNotModified());
+
+        verify(productService, never()).findAllProducts();
+        verify(productService, never()).retrieveProductById(anyInt());
+        verify(productService, never()).getProductsByIds(List.of(1, 2));
+    }
+
     @Test
     public void should_return200WhenProductsExists() throws Exception {
         final ProductDTO productDTO1 = new ProductDTO(1, "Test product", BigDecimal.TEN,
@@ -208,6 +307,7 @@ class ProductControllerTest {
                 productDTOList,
                 LocalDateTime.now());
 
+        given(productService.productsETag(List.of(1, 2))).willReturn("products-abc");
         given(productService.getProductsByIds(List.of(1, 2)))
                 .willReturn(productDTOList);
         given(restApiResponseFactory.createSuccessResponse(
@@ -231,4 +331,234 @@ class ProductControllerTest {
         assertThat(responseAsObject.getResult()).usingRecursiveComparison()
                 .isEqualTo(mockApiResponse.getResult());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Controller returns products in the binary product list format when asked for it")
+    public void should_returnProductListFormat_whenAccepted() throws Exception {
+        final List<ProductDTO> productDTOList = List.of(
+                new ProductDTO(1, "Test product", new BigDecimal("19.99"), StockStatus.AVAILABLE,
+                        100),
+                new ProductDTO(2, "Test product 2", BigDecimal.ONE, StockStatus.AVAILABLE, 150));
+        given(productService.productsETag(List.of(1, 2))).willReturn("products-abc");
+        given(productService.getProductsByIds(List.of(1, 2))).willReturn(productDTOList);
+        given(restApiResponseFactory.createSuccessResponse(productDTOList))
+                .willReturn(new RestApiResponse<>(null, null, productDTOList, LocalDateTime.now()));
+
+        //When
+        final MockHttpServletResponse response = this.mockMvc.perform(
+                        get("/products?productIds=1,2")
+                                .accept(ProductListCodec.MEDIA_TYPE, MediaType.APPLICATION_JSON))
+                .andReturn().getResponse();
+
+        //Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentType()).isEqualTo(ProductListCodec.MEDIA_TYPE_VALUE);
+        assertThat(response.getHeaders(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT);
+        assertThat(ProductListCodec.decode(
+                new ByteArrayInputStream(response.getContentAsByteArray())))
+                .isEqualTo(productDTOList);
+    }
+
+    @Test
+    @DisplayName("Controller returns all products as CBOR when asked for it")
+    public void should_returnCbor_whenAccepted() throws Exception {
+        final List<ProductDTO> productDTOList = List.of(new ProductDTO(1, "Test product",
+                BigDecimal.TEN, StockStatus.AVAILABLE, 100));
+        given(productService.catalogueETag()).willReturn("catalogue-abc");
+        given(productService.findAllProducts()).willReturn(productDTOList);
+        given(restApiResponseFactory.createSuccessResponse(productDTOList))
+                .willReturn(new RestApiResponse<>(null, null, productDTOList, LocalDateTime.now()));
+
+        //When
+        final MockHttpServletResponse response = this.mockMvc.perform(get("/products/all")
+                        .accept(MediaType.parseMediaType("application/cbor")))
+                .andReturn().getResponse();
+
+        //Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentType()).isEqualTo("application/cbor");
+        //The same tag as the JSON, so it must be weak
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("W/\"catalogue-abc\"");
+        final RestApiResponse<List<ProductDTO>> responseAsObject = CBORMapper.builder()
+                .findAndAddModules()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .build()
+                .readValue(response.getContentAsByteArray(), new TypeReference<>() {
+                });
+        assertThat(responseAsObject.getResult()).isEqualTo(productDTOList);
+    }
+
+    @Test
+    @DisplayName("Controller accepts a batch of product ids as a JSON array")
+    public void should_return200ForJsonBatch() throws Exception {
+        given(productService.streamProductsBatch(eq(new int[]{1, 2}), any()))
+                .willAnswer(invocation -> {
+                    invocation.<Consumer<ProductDTO>>getArgument(1).accept(new ProductDTO(1,
+                            "Test product", BigDecimal.TEN, StockStatus.AVAILABLE, 100));
+                    return List.of(2);
+                });
+        givenStreamedBatchResponse();
+
+        //When
+        final MvcResult result = this.mockMvc.perform(post("/products/batch?partial=true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1,2]"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        //Then
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.result.products[0].name").value("Test product"))
+                .andExpect(jsonPath("$.result.missingProductIds[0]").value(2));
+        verify(productService, never()).requireProducts(any());
+    }
+
+    @Test
+    @DisplayName("Controller accepts a batch of product ids as packed big-endian integers")
+    public void should_return200ForPackedBatch() throws Exception {
+        final byte[] packedIds = ByteBuffer.allocate(3 * Integer.BYTES)
+                .putInt(1).putInt(70_000).putInt(3).array();
+
+        given(productService.streamProductsBatch(eq(new int[]{1, 70_000, 3}), any()))
+                .willReturn(List.of());
+        givenStreamedBatchResponse();
+
+        //When
+        final MvcResult result = this.mockMvc.perform(post("/products/batch")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(packedIds))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        //Then
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.result.products").isEmpty());
+        verify(productService).requireProducts(new int[]{1, 70_000, 3});
+    }
+
+    @Test
+    @DisplayName("Controller rejects a batch with unknown ids before streaming any of it")
+    public void should_return4xxForBatchWithUnknownProduct() throws Exception {
+        willThrow(new ProductDoesNotExistException(List.of(2))).given(productService)
+                .requireProducts(new int[]{1, 2});
+
+        //When
+        final MockHttpServletResponse response = this.mockMvc.perform(post("/products/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1,2]"))
+                .andReturn().getResponse();
+
+        //Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+        verify(productService, never()).streamProductsBatch(any(), any());
+    }
+
+    @Test
+    @DisplayName("Controller returns product availability as a packed bitmap")
+    public void should_returnAvailabilityBitmap() throws Exception {
+        given(productService.checkAvailability(new int[]{1, 2, 3}))
+                .willReturn(new byte[]{(byte) 0b10100000});
+
+        //When
+        final MockHttpServletResponse response = this.mockMvc.perform(
+                        post("/products/availability")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("[1,2,3]"))
+                .andReturn().getResponse();
+
+        //Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(response.getContentType()).isEqualTo(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        assertThat(response.getContentAsByteArray()).containsExactly((byte) 0b10100000);
+    }
+
+    @Test
+    @DisplayName("Controller returns a 400 when packed product ids are not whole integers")
+    public void should_return400ForTruncatedPackedBatch() throws Exception {
+        //When
+        final MockHttpServletResponse response = this.mockMvc.perform(post("/products/batch")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(new byte[]{0, 0, 1}))
+                .andReturn().getResponse();
+
+        //Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    @DisplayName("Controller returns a 503 with Retry-After without updating stock when over the limit")
+    public void should_return503_whenOverConcurrencyLimit() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                new ConcurrencyLimitProperties.Limit(1, 1, 1, Duration.ofSeconds(1), 0.9, 0,
+                        Duration.ZERO, Duration.ofSeconds(1)));
+        //Taken by a request already running
+        assertThat(limiter.tryAcquire()).isTrue();
+        given(concurrencyLimiters.enabled()).willReturn(true);
+        given(concurrencyLimiters.get(EndpointClass.WRITE)).willReturn(limiter);
+        given(concurrencyLimiters.retryAfter(EndpointClass.WRITE))
+                .willReturn(Duration.ofMillis(1500));
+
+        //When
+        final MockHttpServletResponse response = this.mockMvc.perform(post("/products/update")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"productId\":1,\"quantity\":1}]"))
+                .andReturn().getResponse();
+
+        //Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("2");
+        assertThat(limiter.rejected()).isEqualTo(1);
+        verify(productService, never()).updateProductsStock(any());
+    }
+
+    @Test
+    @DisplayName("Controller turns catalogue reads away on the bulk read limit, leaving point reads alone")
+    public void should_limitAllProducts_onBulkReadLimit() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                new ConcurrencyLimitProperties.Limit(1, 1, 1, Duration.ofSeconds(2), 0.9, 0,
+                        Duration.ZERO, Duration.ofSeconds(5)));
+        assertThat(limiter.tryAcquire()).isTrue();
+        given(concurrencyLimiters.enabled()).willReturn(true);
+        given(concurrencyLimiters.get(EndpointClass.BULK_READ)).willReturn(limiter);
+        given(concurrencyLimiters.retryAfter(EndpointClass.BULK_READ))
+                .willReturn(Duration.ofSeconds(5));
+
+        //When
+        final MockHttpServletResponse response = this.mockMvc.perform(get("/products/all"))
+                .andReturn().getResponse();
+
+        //Then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+        assertThat(limiter.rejected()).isEqualTo(1);
+        verify(concurrencyLimiters, never()).get(EndpointClass.READ);
+        verify(productService, never()).findAllProducts();
+    }
+
+    @Test
+    @DisplayName("Controller holds a streamed response's slot until the stream has been written")
+    public void should_holdBulkReadSlot_untilStreamCompletes() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                new ConcurrencyLimitProperties.Limit(2, 1, 2, Duration.ofSeconds(2), 0.9, 0,
+                        Duration.ZERO, Duration.ofSeconds(5)));
+        given(concurrencyLimiters.enabled()).willReturn(true);
+        given(concurrencyLimiters.get(EndpointClass.BULK_READ)).willReturn(limiter);
+
+        //When
+        final MvcResult result = this.mockMvc.perform(get("/products/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        //Then
+        assertThat(limiter.inFlight()).isEqualTo(1);
+        this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+        assertThat(limiter.inFlight()).isEqualTo(0);
+    }
+
+    private void givenStreamedBatchResponse() {
+        given(restApiResponseFactory.createSuccessResponse(any(StreamedProductBatchDTO.class)))
+                .willAnswer(invocation -> new RestApiResponse<>(null, null,
+                        invocation.getArgument(0), LocalDateTime.now()));
+    }
+}
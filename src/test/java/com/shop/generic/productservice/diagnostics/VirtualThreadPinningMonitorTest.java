@@ -0,0 +1,115 @@
+package com.shop.generic.productservice.diagnostics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.shop.generic.productservice.config.PinningProperties;
+import com.shop.generic.productservice.dtos.PinningReportDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class VirtualThreadPinningMonitorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("Monitor should name a site by its class and method, without any proxy suffix")
+    public void should_nameSite_withoutProxySuffix() {
+        assertEquals("ProductService.updateProductsStock", VirtualThreadPinningMonitor.siteName(
+                "com.shop.generic.productservice.services.ProductService$$SpringCGLIB$$0",
+                "updateProductsStock"));
+    }
+
+    @Test
+    @DisplayName("Monitor should report pins by site, longest in total first")
+    public void should_reportPinsBySite() {
+        final VirtualThreadPinningMonitor monitor = createMonitor(10);
+
+        monitor.record("ProductService.getProductsByIds", Duration.ofMillis(30), Instant.now(),
+                () -> List.of("a"));
+        monitor.record("ProductService.updateProductsStock", Duration.ofMillis(40), Instant.now(),
+                () -> List.of("b"));
+        monitor.record("ProductService.updateProductsStock", Duration.ofMillis(50), Instant.now(),
+                () -> List.of("c"));
+
+        final PinningReportDTO report = monitor.report();
+        assertEquals(3, report.totalPinned());
+        final PinningReportDTO.PinnedSite worst = report.sites().get(0);
+        assertEquals("ProductService.updateProductsStock", worst.site());
+        assertEquals(2, worst.count());
+        assertEquals(Duration.ofMillis(90), worst.totalTime());
+        assertEquals(Duration.ofMillis(50), worst.maxTime());
+        //The first stack seen at a site is kept
+        assertEquals(List.of("b"), worst.stackTrace());
+        assertEquals(2, this.meterRegistry.get("product.virtual.thread.pinned")
+                .tag("site", "ProductService.updateProductsStock").timer().count());
+    }
+
+    @Test
+    @DisplayName("Monitor should count pins past the maximum number of sites together")
+    public void should_groupPins_pastMaxSites() {
+        final VirtualThreadPinningMonitor monitor = createMonitor(1);
+
+        monitor.record("ProductService.getProductsByIds", Duration.ofMillis(30), Instant.now(),
+                List::of);
+        monitor.record("ProductService.updateProductsStock", Duration.ofMillis(30), Instant.now(),
+                List::of);
+
+        assertEquals(List.of("ProductService.getProductsByIds",
+                        VirtualThreadPinningMonitor.OTHER_SITE),
+                monitor.report().sites().stream().map(PinningReportDTO.PinnedSite::site)
+                        .sorted().toList());
+    }
+
+    /**
+     * Blocking inside a synchronized block pins a virtual thread up to JDK 23. From JDK 24 it no
+     * longer does, and there is no other pin this test can reliably cause
+     */
+    @Test
+    @DisplayName("Monitor should pick up a virtual thread pinned by a synchronized block")
+    public void should_detectPinnedVirtualThread() throws Exception {
+        assumeTrue(Runtime.version().feature() < 24);
+        final VirtualThreadPinningMonitor monitor = createMonitor(10);
+        monitor.start();
+        try {
+            assumeTrue(monitor.isRunning());
+            final Object lock = new Object();
+            Thread.ofVirtual().start(() -> {
+                synchronized (lock) {
+                    sleep(Duration.ofMillis(100));
+                }
+            }).join();
+
+            //Events are streamed in batches, about once a second
+            final Instant deadline = Instant.now().plusSeconds(10);
+            while (monitor.report().totalPinned() == 0 && Instant.now().isBefore(deadline)) {
+                Thread.sleep(50);
+            }
+
+            final PinningReportDTO.PinnedSite site = monitor.report().sites().get(0);
+            assertTrue(site.site().startsWith("VirtualThreadPinningMonitorTest."), site.site());
+            assertTrue(site.maxTime().compareTo(Duration.ofMillis(50)) > 0);
+        } finally {
+            monitor.stop();
+        }
+    }
+
+    private VirtualThreadPinningMonitor createMonitor(final int maxSites) {
+        return new VirtualThreadPinningMonitor(
+                new PinningProperties(true, Duration.ofMillis(20), maxSites, 30),
+                this.meterRegistry);
+    }
+
+    private static void sleep(final Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.shop.generic.productservice.ledger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A crash is simulated by opening a second journal on the same directory without closing the
+ * first, which is all a new process would find on disk
+ */
+class StockJournalTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+    //Length, sequence, key length, line count, one line and checksum, without a key
+    private static final int ONE_LINE_RECORD_BYTES = 32;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Journal should read back every record after the checkpoint")
+    public void should_readBackRecords_afterCheckpoint() throws IOException {
+        final StockJournal journal = new StockJournal(this.directory, SEGMENT_SIZE);
+        journal.open(0);
+        journal.append(null, List.of(new PurchaseProductDTO(1, 2)));
+        journal.append("key-2",
+                List.of(new PurchaseProductDTO(1, 1), new PurchaseProductDTO(7, 3)));
+        final long last = journal.append(null, List.of(new PurchaseProductDTO(9, 4)));
+        journal.awaitDurable(last);
+
+        final List<StockJournal.Entry> entries = new StockJournal(this.directory, SEGMENT_SIZE)
+                .open(1);
+
+        assertEquals(List.of(
+                new StockJournal.Entry(2, "key-2",
+                        List.of(new PurchaseProductDTO(1, 1), new PurchaseProductDTO(7, 3))),
+                new StockJournal.Entry(3, null, List.of(new PurchaseProductDTO(9, 4)))), entries);
+    }
+
+    @Test
+    @DisplayName("Journal should stop at a torn record and carry on numbering after it")
+    public void should_ignoreTornRecord() throws IOException {
+        final StockJournal journal = new StockJournal(this.directory, SEGMENT_SIZE);
+        journal.open(0);
+        journal.append(null, List.of(new PurchaseProductDTO(1, 1)));
+        journal.append(null, List.of(new PurchaseProductDTO(2, 1)));
+        journal.append(null, List.of(new PurchaseProductDTO(3, 1)));
+        //Overwrite the checksum of the third record, as if the crash happened mid write
+        try (final FileChannel channel = FileChannel.open(onlySegment(),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, 42),
+                    3L * ONE_LINE_RECORD_BYTES - Integer.BYTES);
+        }
+
+        final StockJournal recovered = new StockJournal(this.directory, SEGMENT_SIZE);
+        assertEquals(2, recovered.open(0).size());
+        assertEquals(3, recovered.append(null, List.of(new PurchaseProductDTO(4, 1))));
+
+        final List<StockJournal.Entry> entries = new StockJournal(this.directory, SEGMENT_SIZE)
+                .open(0);
+        assertEquals(List.of(1L, 2L, 3L),
+                entries.stream().map(StockJournal.Entry::sequence).toList());
+        assertEquals(4, entries.get(2).lines().get(0).productId());
+    }
+
+    @Test
+    @DisplayName("Journal should continue numbering from the checkpoint if its files were lost")
+    public void should_numberFromCheckpoint_whenJournalIsEmpty() throws IOException {
+        final StockJournal journal = new StockJournal(this.directory, SEGMENT_SIZE);
+
+        assertEquals(0, journal.open(500).size());
+        assertEquals(501, journal.append(null, List.of(new PurchaseProductDTO(1, 1))));
+    }
+
+    @Test
+    @DisplayName("Journal should roll into new segments and delete the ones behind the checkpoint")
+    public void should_rollSegments_andDeleteFlushedOnes() throws IOException {
+        final StockJournal journal = new StockJournal(this.directory,
+                4 * ONE_LINE_RECORD_BYTES);
+        journal.open(0);
+        for (int i = 1; i <= 10; i++) {
+            journal.append(null, List.of(new PurchaseProductDTO(i, 1)));
+        }
+        assertEquals(3, segmentCount());
+
+        journal.deleteSegmentsUpTo(4);
+        assertEquals(2, segmentCount());
+        journal.deleteSegmentsUpTo(10);
+        assertEquals(1, segmentCount());
+
+        assertEquals(List.of(9L, 10L), new StockJournal(this.directory, SEGMENT_SIZE).open(8)
+                .stream().map(StockJournal.Entry::sequence).toList());
+    }
+
+    private Path onlySegment() throws IOException {
+        try (final Stream<Path> files = Files.list(this.directory)) {
+            return files.findFirst().orElseThrow();
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (final Stream<Path> files = Files.list(this.directory)) {
+            return files.count();
+        }
+    }
+}
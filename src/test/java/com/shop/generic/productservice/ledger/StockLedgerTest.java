@@ -0,0 +1,303 @@
+package com.shop.generic.productservice.ledger;
+
+import static com.shop.generic.productservice.testing.ProductFixtures.createProduct;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.config.IdempotencyProperties;
+import com.shop.generic.productservice.config.StockLedgerProperties;
+import com.shop.generic.productservice.dtos.IdempotentResultDTO;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.repositories.StockLedgerCheckpointRepository;
+import com.shop.generic.productservice.repositories.StockLedgerDeadLetterRepository;
+import com.shop.generic.productservice.repositories.StockLedgerKeyRepository;
+import com.shop.generic.productservice.services.IdempotencyService;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * The ledger is disabled in the shared test context, so each test builds its own ledger and
+ * flusher over the context's database. A crash is simulated by abandoning a ledger without
+ * stopping its flusher, then starting a new one on the same journal directory. Keyed baskets are
+ * taken through the context's idempotency service, as the controller does.
+ */
+@SpringBootTest
+class StockLedgerTest {
+
+    @TempDir
+    Path journalDirectory;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private StockLedgerCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private StockLedgerDeadLetterRepository deadLetterRepository;
+
+    @Autowired
+    private StockLedgerKeyRepository keyRepository;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private IdempotencyProperties idempotencyProperties;
+
+    @Autowired
+    private ProductMetrics productMetrics;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final List<StockLedgerFlusher> startedFlushers = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        this.startedFlushers.stream().filter(StockLedgerFlusher::isRunning)
+                .forEach(StockLedgerFlusher::stop);
+        this.productRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Parallel purchases through the ledger should never oversell")
+    public void should_neverOversell_underConcurrentPurchases() throws Exception {
+        final Product product = this.productRepository.save(createProduct(2000));
+        final StockLedger ledger = startLedger();
+
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            tasks.add(() -> {
+                try {
+                    ledger.reserve(List.of(new PurchaseProductDTO(product.getProductId(), 1)),
+                            null);
+                    succeeded.incrementAndGet();
+                } catch (final InsufficientStockException e) {
+                    rejected.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(32);
+        try {
+            for (final Future<Void> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        this.startedFlushers.get(0).flushPending();
+
+        final Product result = this.productRepository.findById(product.getProductId())
+                .orElseThrow();
+        assertEquals(2000, succeeded.get());
+        assertEquals(2000, rejected.get());
+        assertEquals(0, result.getStockCount());
+        assertEquals(StockStatus.OUT_OF_STOCK, result.getStockStatus());
+    }
+
+    @Test
+    @DisplayName("A basket that cannot be fulfilled should not take any stock from the ledger")
+    public void should_rejectWholeBasket_whenOneLineFails() {
+        final Product plenty = this.productRepository.save(createProduct(10));
+        final Product scarce = this.productRepository.save(createProduct(1));
+        final StockLedger ledger = startLedger();
+
+        assertThrows(InsufficientStockException.class, () -> ledger.reserve(List.of(
+                new PurchaseProductDTO(plenty.getProductId(), 5),
+                new PurchaseProductDTO(scarce.getProductId(), 2)), null));
+        assertThrows(ProductDoesNotExistException.class, () -> ledger.reserve(List.of(
+                new PurchaseProductDTO(plenty.getProductId(), 5),
+                new PurchaseProductDTO(-1, 1)), null));
+        ledger.reserve(List.of(new PurchaseProductDTO(plenty.getProductId(), 10),
+                new PurchaseProductDTO(scarce.getProductId(), 1)), null);
+        this.startedFlushers.get(0).flushPending();
+
+        assertEquals(0, stockCount(plenty));
+        assertEquals(0, stockCount(scarce));
+    }
+
+    @Test
+    @DisplayName("Purchases journalled before a crash should reach the database exactly once")
+    public void should_replayJournal_afterCrash() {
+        final Product first = this.productRepository.save(createProduct(100));
+        final Product second = this.productRepository.save(createProduct(100));
+        final StockLedger crashed = startLedger();
+        crashed.reserve(List.of(new PurchaseProductDTO(first.getProductId(), 3)), null);
+        crashed.reserve(List.of(new PurchaseProductDTO(first.getProductId(), 2),
+                new PurchaseProductDTO(second.getProductId(), 7)), null);
+        //Nothing has been flushed before the "crash"
+        assertEquals(100, stockCount(first));
+        this.startedFlushers.clear();
+
+        startLedger();
+        assertEquals(95, stockCount(first));
+        assertEquals(93, stockCount(second));
+
+        //A second restart finds everything behind the checkpoint and applies nothing again
+        startLedger();
+        assertEquals(95, stockCount(first));
+        assertEquals(93, stockCount(second));
+    }
+
+    @Test
+    @DisplayName("A decrement the database will not take should be dead lettered, not lost")
+    public void should_deadLetterDecrement_whenDatabaseRejectsIt() {
+        final Product changedElsewhere = this.productRepository.save(createProduct(10));
+        final Product product = this.productRepository.save(createProduct(10));
+        final StockLedger ledger = startLedger();
+        ledger.reserve(List.of(new PurchaseProductDTO(changedElsewhere.getProductId(), 4),
+                new PurchaseProductDTO(product.getProductId(), 3)), null);
+        //Something other than the ledger takes the stock before the flush
+        new TransactionTemplate(this.transactionManager).executeWithoutResult(status ->
+                this.productRepository.updateStockCountByProductId(2,
+                        changedElsewhere.getProductId()));
+        final double deadLettersBefore = this.meterRegistry.counter(
+                "product.stock.ledger.dead.letters").count();
+
+        //When
+        this.startedFlushers.get(0).flushPending();
+
+        //Then the other product is still flushed, and the checkpoint moves past both
+        assertEquals(2, stockCount(changedElsewhere));
+        assertEquals(7, stockCount(product));
+        assertTrue(this.deadLetterRepository.findAll().contains(
+                new PurchaseProductDTO(changedElsewhere.getProductId(), 4)));
+        assertEquals(1, this.meterRegistry.counter("product.stock.ledger.dead.letters").count()
+                - deadLettersBefore);
+
+        //A restart does not replay either decrement
+        this.startedFlushers.clear();
+        startLedger();
+        assertEquals(2, stockCount(changedElsewhere));
+        assertEquals(7, stockCount(product));
+    }
+
+    @Test
+    @DisplayName("A clean shutdown should flush every pending purchase")
+    public void should_flushPendingPurchases_onShutdown() {
+        final Product product = this.productRepository.save(createProduct(10));
+        final StockLedger ledger = startLedger();
+        ledger.reserve(List.of(new PurchaseProductDTO(product.getProductId(), 4)), null);
+
+        this.startedFlushers.get(0).stop();
+
+        assertEquals(6, stockCount(product));
+    }
+
+    @Test
+    @DisplayName("A keyed basket whose transaction is retried after a deadlock should be taken once")
+    public void should_takeKeyedBasketOnce_whenTransactionRetried() {
+        final Product product = this.productRepository.save(createProduct(10));
+        final StockLedger ledger = startLedger();
+        final String idempotencyKey = UUID.randomUUID().toString();
+        final List<PurchaseProductDTO> basket = List.of(
+                new PurchaseProductDTO(product.getProductId(), 3));
+        final AtomicInteger attempts = new AtomicInteger();
+
+        //When the first attempt deadlocks after the basket was taken, and is retried
+        final IdempotentResultDTO result = this.idempotencyService.executeOnce(idempotencyKey,
+                "hash", () -> {
+                    ledger.reserve(basket, idempotencyKey);
+                    if (attempts.incrementAndGet() == 1) {
+                        throw new CannotAcquireLockException("Deadlock after taking the basket");
+                    }
+                    return "Done";
+                });
+        this.startedFlushers.get(0).flushPending();
+
+        //Then
+        assertEquals(2, attempts.get());
+        assertFalse(result.replayed());
+        assertEquals(7, stockCount(product));
+    }
+
+    @Test
+    @DisplayName("A keyed basket whose response was never saved should not be taken again on a retry")
+    public void should_takeKeyedBasketOnce_whenResponseRolledBack() {
+        final Product product = this.productRepository.save(createProduct(10));
+        final StockLedger ledger = startLedger();
+        final String idempotencyKey = UUID.randomUUID().toString();
+        final List<PurchaseProductDTO> basket = List.of(
+                new PurchaseProductDTO(product.getProductId(), 3));
+        //The basket is taken, then the transaction recording the key rolls back
+        final Supplier<String> failedAttempt = () -> {
+            ledger.reserve(basket, idempotencyKey);
+            throw new IllegalStateException("Response could not be saved");
+        };
+        assertThrows(IllegalStateException.class,
+                () -> this.idempotencyService.executeOnce(idempotencyKey, "hash", failedAttempt));
+
+        //When the caller retries while the basket is in the journal, then after it was flushed
+        assertThrows(IllegalStateException.class,
+                () -> this.idempotencyService.executeOnce(idempotencyKey, "hash", failedAttempt));
+        this.startedFlushers.get(0).stop();
+        final StockLedger restarted = startLedger();
+        final IdempotentResultDTO result = this.idempotencyService.executeOnce(idempotencyKey,
+                "hash", () -> {
+                    restarted.reserve(basket, idempotencyKey);
+                    return "Done";
+                });
+        this.startedFlushers.get(1).flushPending();
+
+        //Then
+        assertFalse(result.replayed());
+        assertEquals(7, stockCount(product));
+    }
+
+    private StockLedger startLedger() {
+        final StockLedgerProperties properties = new StockLedgerProperties(true,
+                this.journalDirectory, DataSize.ofKilobytes(64), 1000);
+        final StockLedger ledger = new StockLedger(properties, this.productRepository,
+                this.keyRepository, this.productMetrics);
+        final StockLedgerFlusher flusher = new StockLedgerFlusher(ledger, this.productRepository,
+                this.checkpointRepository, this.deadLetterRepository, this.keyRepository,
+                this.productMetrics, this.applicationEventPublisher, this.transactionManager,
+                properties, this.idempotencyProperties);
+        flusher.start();
+        this.startedFlushers.add(flusher);
+        return ledger;
+    }
+
+    private int stockCount(final Product product) {
+        return this.productRepository.findById(product.getProductId()).orElseThrow()
+                .getStockCount();
+    }
+}
@@ -0,0 +1,116 @@
+package com.shop.generic.productservice.limits;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shop.generic.productservice.config.ConcurrencyLimitProperties;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    @DisplayName("Limiter should turn requests away once the limit and queue are full")
+    public void should_reject_whenLimitAndQueueAreFull() {
+        final AdaptiveConcurrencyLimiter limiter = createLimiter(2, 0, Duration.ZERO);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+
+        assertEquals(2, limiter.inFlight());
+        assertEquals(1, limiter.rejected());
+    }
+
+    @Test
+    @DisplayName("Limiter should give a queued request the next slot released")
+    public void should_admitQueuedRequest_whenSlotIsReleased() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = createLimiter(1, 1, Duration.ofSeconds(10));
+        assertTrue(limiter.tryAcquire());
+
+        final CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(
+                limiter::tryAcquire);
+        while (limiter.queued() == 0) {
+            Thread.onSpinWait();
+        }
+        //The queue is full, so anything else is turned away at once
+        assertFalse(limiter.tryAcquire());
+        limiter.release(FAST);
+
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+        assertEquals(0, limiter.queued());
+        assertEquals(1, limiter.inFlight());
+    }
+
+    @Test
+    @DisplayName("Limiter should turn a queued request away once it has waited too long")
+    public void should_rejectQueuedRequest_afterMaxQueueTime() {
+        final AdaptiveConcurrencyLimiter limiter = createLimiter(1, 1, Duration.ofMillis(20));
+        assertTrue(limiter.tryAcquire());
+
+        assertFalse(limiter.tryAcquire());
+        assertEquals(0, limiter.queued());
+        assertEquals(1, limiter.rejected());
+    }
+
+    @Test
+    @DisplayName("Limiter should back off once for a burst of slow requests")
+    public void should_backOffOnce_forBurstOfSlowRequests() {
+        final AdaptiveConcurrencyLimiter limiter = createLimiter(10, 0, Duration.ZERO);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+
+        for (int i = 0; i < 10; i++) {
+            limiter.release(SLOW);
+        }
+
+        assertEquals(5, limiter.limit());
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    @DisplayName("Limiter should grow while fast requests use the whole limit, up to the maximum")
+    public void should_grow_whileSaturatedWithFastRequests() {
+        final AdaptiveConcurrencyLimiter limiter = createLimiter(2, 0, Duration.ZERO);
+
+        for (int i = 0; i < 1000; i++) {
+            final int limit = limiter.limit();
+            for (int j = 0; j < limit; j++) {
+                assertTrue(limiter.tryAcquire());
+            }
+            for (int j = 0; j < limit; j++) {
+                limiter.release(FAST);
+            }
+        }
+
+        assertEquals(8, limiter.limit());
+    }
+
+    @Test
+    @DisplayName("Limiter should not grow while the limit is not in full use")
+    public void should_notGrow_whenNotSaturated() {
+        final AdaptiveConcurrencyLimiter limiter = createLimiter(4, 0, Duration.ZERO);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(FAST);
+        }
+
+        assertEquals(4, limiter.limit());
+    }
+
+    private static AdaptiveConcurrencyLimiter createLimiter(final int initialLimit,
+            final int maxQueueSize, final Duration maxQueueTime) {
+        return new AdaptiveConcurrencyLimiter(new ConcurrencyLimitProperties.Limit(initialLimit, 1,
+                8, Duration.ofMillis(100), 0.5, maxQueueSize, maxQueueTime,
+                Duration.ofSeconds(1)));
+    }
+}
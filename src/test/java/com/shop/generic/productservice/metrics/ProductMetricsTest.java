@@ -0,0 +1,129 @@
+package com.shop.generic.productservice.metrics;
+
+import static com.shop.generic.productservice.testing.ProductFixtures.createProduct;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.productservice.controllers.ProductController;
+import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+/**
+ * Calls the controller bean directly rather than over HTTP, so the check does not depend on the
+ * security set up by gs-common. The timers come from the {@code @Timed} aspect either way. The
+ * application context, and so the meter registry, is shared with other tests, so everything is
+ * checked as a change from what was recorded before.
+ */
+@SpringBootTest
+class ProductMetricsTest {
+
+    private static final List<String> CONTROLLER_METHODS = List.of("retrieveAllProducts",
+            "retrieveProductById", "getProducts", "retrieveProductsPage", "updateProducts");
+    private static final List<String> SERVICE_METHODS = List.of("findAllProducts",
+            "retrieveProductById", "getProductsByIds", "findProductsPage", "updateProductsStock");
+
+    @Autowired
+    private ProductController productController;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Every endpoint should record controller and service timers tagged by method")
+    public void should_recordTimers_forEachEndpoint() {
+        final Product product = this.productRepository.save(createProduct(5));
+        final int productId = product.getProductId();
+        final Map<String, Long> controllerCountsBefore = timerCounts("product.controller",
+                CONTROLLER_METHODS);
+        final Map<String, Long> serviceCountsBefore = timerCounts("product.service",
+                SERVICE_METHODS);
+
+        this.productController.retrieveAllProducts(webRequest());
+        this.productController.retrieveProductById(String.valueOf(productId), webRequest());
+        this.productController.getProducts(List.of(productId), webRequest());
+        this.productController.retrieveProductsPage(null, 10);
+        this.productController.updateProducts(null,
+                List.of(new PurchaseProductDTO(productId, 1)));
+
+        final Map<String, Long> controllerCountsAfter = timerCounts("product.controller",
+                CONTROLLER_METHODS);
+        final Map<String, Long> serviceCountsAfter = timerCounts("product.service",
+                SERVICE_METHODS);
+        CONTROLLER_METHODS.forEach(method -> assertEquals(1,
+                controllerCountsAfter.get(method) - controllerCountsBefore.get(method), method));
+        SERVICE_METHODS.forEach(method -> assertEquals(1,
+                serviceCountsAfter.get(method) - serviceCountsBefore.get(method), method));
+    }
+
+    @Test
+    @DisplayName("Purchases should count the units sold and the products that sold out")
+    public void should_countDecrementsAndOutOfStockTransitions() {
+        final Product product = this.productRepository.save(createProduct(3));
+        final double decrementedBefore = counter("product.stock.decremented");
+        final double outOfStockBefore = counter("product.stock.out.of.stock");
+
+        this.productController.updateProducts(null,
+                List.of(new PurchaseProductDTO(product.getProductId(), 2)));
+        this.productController.updateProducts(null,
+                List.of(new PurchaseProductDTO(product.getProductId(), 1)));
+
+        assertEquals(3, counter("product.stock.decremented") - decrementedBefore);
+        assertEquals(1, counter("product.stock.out.of.stock") - outOfStockBefore);
+    }
+
+    @Test
+    @DisplayName("Lookups for unknown products should be counted")
+    public void should_countProductsNotFound() {
+        final double notFoundBefore = counter("product.not.found");
+
+        assertThrows(ProductDoesNotExistException.class,
+                () -> this.productController.retrieveProductById("-1", webRequest()));
+        assertThrows(ProductDoesNotExistException.class,
+                () -> this.productController.getProducts(List.of(-2, -3), webRequest()));
+
+        assertEquals(3, counter("product.not.found") - notFoundBefore);
+    }
+
+    private static WebRequest webRequest() {
+        return new ServletWebRequest(new MockHttpServletRequest(), new MockHttpServletResponse());
+    }
+
+    private Map<String, Long> timerCounts(final String name, final List<String> methods) {
+        final Map<String, Long> counts = new HashMap<>();
+        for (final String method : methods) {
+            final Timer timer = this.meterRegistry.find(name).tag("method", method).timer();
+            counts.put(method, timer == null ? 0 : timer.count());
+        }
+        return counts;
+    }
+
+    private double counter(final String name) {
+        final Counter counter = this.meterRegistry.find(name).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
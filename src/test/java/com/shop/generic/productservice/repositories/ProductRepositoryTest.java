@@ -2,25 +2,42 @@ package com.shop.generic.productservice.repositories;
 
 import static org.jeasy.random.FieldPredicates.named;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import com.shop.generic.common.dtos.ProductDTO;
 import com.shop.generic.common.entities.Product;
 import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.repositories.ProductCatalogueRepository.VersionedProduct;
+import com.shop.generic.productservice.repositories.ProductStockRepository.StockLevel;
 import java.math.BigDecimal;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import org.hibernate.Session;
 import org.jeasy.random.EasyRandom;
 import org.jeasy.random.EasyRandomParameters;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
 
 /**
  * These tests will by default use our main app schema.sql and data.sql files. We could also make
- * use of @Sql annotation or even a test data.sql file to setup dummy data for our tests
+ * use of @Sql annotation or even a test data.sql file to setup dummy data for our tests.
+ * <p>
+ * The lookup chunk size is cut down to 2, so the chunked lookups are exercised with a handful of
+ * products.
+ * <p>
+ * The query plan tests run against H2 by default. Run them with spring.test.database.replace=none
+ * and a PostgreSQL datasource to check the PostgreSQL plans instead.
  */
-@DataJpaTest
+@DataJpaTest(properties = "product-service.catalogue.lookup-chunk-size=2")
 class ProductRepositoryTest {
 
     @Autowired
@@ -29,6 +46,9 @@ class ProductRepositoryTest {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Test
     public void should_findAllProducts() {
         final Product p = new Product();
@@ -70,4 +90,172 @@ class ProductRepositoryTest {
             fail();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void should_findNextPageOfProducts_afterGivenId() {
+        final EasyRandomParameters parameters = new EasyRandomParameters();
+        parameters.excludeField(named("productId"));
+        final EasyRandom generator = new EasyRandom(parameters);
+        final List<Product> productList = generator.objects(Product.class, 20).toList();
+        productList.forEach(product -> testEntityManager.persist(product));
+
+        testEntityManager.flush();
+        testEntityManager.clear();
+
+        final Integer afterId = productList.get(4).getProductId();
+        final List<ProductDTO> result = this.productRepository
+                .findProductDTOsAfter(afterId, Limit.of(10));
+
+        assertEquals(10, result.size());
+        assertEquals(productList.get(5).getProductId(), result.get(0).productId());
+        assertEquals(productList.get(14).getProductId(), result.get(9).productId());
+        assertEquals(0, testEntityManager.getEntityManager().unwrap(Session.class)
+                .getStatistics().getEntityCount());
+    }
+
+    @Test
+    public void should_findProductDTOs_withoutLoadingEntities() {
+        final Product first = persistProduct("1.00", StockStatus.AVAILABLE);
+        final Product second = persistProduct("2.00", StockStatus.OUT_OF_STOCK);
+        testEntityManager.flush();
+        testEntityManager.clear();
+
+        final List<ProductDTO> results = this.productRepository.findAllProductDTOs();
+
+        assertEquals(List.of(first.getProductId(), second.getProductId()),
+                results.stream().map(ProductDTO::productId).sorted().toList());
+        assertEquals("Test", results.get(0).name());
+        assertEquals(0, testEntityManager.getEntityManager().unwrap(Session.class)
+                .getStatistics().getEntityCount());
+    }
+
+    @Test
+    public void should_findVersionedProducts_withTheVersionFromTheSameRow() {
+        final Product first = persistProduct("1.00", StockStatus.AVAILABLE);
+        final Product second = persistProduct("2.00", StockStatus.AVAILABLE);
+        testEntityManager.flush();
+        this.productRepository.updateStockCountByProductId(9, first.getProductId());
+
+        final VersionedProduct result = this.productRepository
+                .findVersionedProduct(first.getProductId()).orElseThrow();
+        final List<VersionedProduct> results = this.productRepository.findVersionedProducts(
+                List.of(first.getProductId(), second.getProductId(), -1));
+
+        assertEquals(9, result.productDTO().stockCount());
+        assertEquals(1, result.version());
+        assertTrue(this.productRepository.findVersionedProduct(-1).isEmpty());
+        assertEquals(List.of(1L, 0L), results.stream()
+                .sorted(Comparator.comparing(product -> product.productDTO().productId()))
+                .map(VersionedProduct::version).toList());
+    }
+
+    @Test
+    public void should_findProductsByStockStatus_cheapestFirst() {
+        final Product expensive = persistProduct("10.00", StockStatus.AVAILABLE);
+        final Product cheap = persistProduct("2.50", StockStatus.AVAILABLE);
+        persistProduct("1.00", StockStatus.OUT_OF_STOCK);
+        final Product alsoCheap = persistProduct("2.50", StockStatus.AVAILABLE);
+
+        final List<ProductDTO> result = this.productRepository
+                .findProductsByStockStatus(StockStatus.AVAILABLE, Limit.of(10));
+
+        assertEquals(List.of(cheap.getProductId(), alsoCheap.getProductId(),
+                expensive.getProductId()), result.stream().map(ProductDTO::productId).toList());
+        assertEquals(StockStatus.AVAILABLE, result.get(0).stockStatus());
+        assertEquals(10, result.get(0).stockCount());
+    }
+
+    @Test
+    public void should_findProductsByStockStatus_withinPriceRange() {
+        persistProduct("0.99", StockStatus.AVAILABLE);
+        final Product lowest = persistProduct("1.00", StockStatus.AVAILABLE);
+        final Product highest = persistProduct("5.00", StockStatus.AVAILABLE);
+        persistProduct("3.00", StockStatus.OUT_OF_STOCK);
+        persistProduct("5.01", StockStatus.AVAILABLE);
+
+        final List<ProductDTO> result = this.productRepository
+                .findProductsByStockStatusAndPriceBetween(StockStatus.AVAILABLE, BigDecimal.ONE,
+                        new BigDecimal("5.00"), Limit.of(10));
+
+        assertEquals(List.of(lowest.getProductId(), highest.getProductId()),
+                result.stream().map(ProductDTO::productId).toList());
+    }
+
+    @Test
+    public void should_useStatusAndPriceIndex_whenFindingProductsByStockStatus() {
+        assertPlanUsesIndex("idx_products_stock_status_price", """
+                SELECT product_id, name, price, stock_status, stock_count FROM products
+                WHERE stock_status = 'OUT_OF_STOCK' AND price BETWEEN 1 AND 5
+                ORDER BY price, product_id""");
+    }
+
+    @Test
+    public void should_useAvailableProductsIndex_whenFindingAvailableProducts() {
+        //Only PostgreSQL supports the partial index, elsewhere the status and price index is used
+        assertPlanUsesIndex(isPostgreSql() ? "idx_products_available_price"
+                : "idx_products_stock_status_price", """
+                SELECT product_id, name, price, stock_status, stock_count FROM products
+                WHERE stock_status = 'AVAILABLE' AND price BETWEEN 1 AND 5
+                ORDER BY price, product_id""");
+    }
+
+    @Test
+    public void should_usePriceIndex_whenFilteringOnPriceAlone() {
+        assertPlanUsesIndex("idx_products_price",
+                "SELECT product_id FROM products WHERE price BETWEEN 1 AND 5");
+    }
+
+    @Test
+    public void should_useNameIndex_whenFindingProductsByName() {
+        assertPlanUsesIndex("idx_products_name",
+                "SELECT product_id FROM products WHERE name = 'Test'");
+    }
+
+    /**
+     * PostgreSQL prefers a sequential scan on a table this small whatever indexes exist, so
+     * sequential scans are switched off for the plan, leaving an index scan if a usable index
+     * exists
+     */
+    private void assertPlanUsesIndex(final String indexName, final String sql) {
+        if (isPostgreSql()) {
+            this.jdbcTemplate.execute("SET LOCAL enable_seqscan = off");
+        }
+        final String plan = String.join("\n",
+                this.jdbcTemplate.queryForList("EXPLAIN " + sql, String.class));
+        assertTrue(plan.toLowerCase(Locale.ROOT).contains(indexName),
+                () -> "Expected the plan to use " + indexName + " but was:\n" + plan);
+    }
+
+    private boolean isPostgreSql() {
+        return "PostgreSQL".equals(this.jdbcTemplate.execute(
+                (ConnectionCallback<String>) connection -> connection.getMetaData()
+                        .getDatabaseProductName()));
+    }
+
+    @Test
+    public void should_lockStockLevels_acrossChunks() {
+        final Product first = persistProduct("1.00", StockStatus.AVAILABLE);
+        final Product second = persistProduct("2.00", StockStatus.OUT_OF_STOCK);
+        final Product third = persistProduct("3.00", StockStatus.AVAILABLE);
+        testEntityManager.flush();
+        this.jdbcTemplate.update("UPDATE products SET reserved_count = 4 WHERE product_id = ?",
+                third.getProductId());
+
+        final Map<Integer, StockLevel> result = this.productRepository.lockStockLevels(List.of(
+                third.getProductId(), -1, first.getProductId(), second.getProductId(),
+                first.getProductId()));
+
+        assertEquals(Map.of(first.getProductId(), new StockLevel(10, StockStatus.AVAILABLE),
+                second.getProductId(), new StockLevel(0, StockStatus.OUT_OF_STOCK),
+                third.getProductId(), new StockLevel(6, StockStatus.AVAILABLE)), result);
+    }
+
+    private Product persistProduct(final String price, final StockStatus stockStatus) {
+        final Product product = new Product();
+        product.setName("Test");
+        product.setPrice(new BigDecimal(price));
+        product.setStockCount(stockStatus == StockStatus.AVAILABLE ? 10 : 0);
+        product.setStockStatus(stockStatus);
+        return testEntityManager.persist(product);
+    }
+}
@@ -0,0 +1,70 @@
+package com.shop.generic.productservice.rest.converters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.enums.StockStatus;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ProductListCodecTest {
+
+    @Test
+    @DisplayName("Codec should decode exactly the products it encoded, including missing fields")
+    public void should_roundTripProducts() throws IOException {
+        final List<ProductDTO> products = new ArrayList<>();
+        for (final StockStatus stockStatus : StockStatus.values()) {
+            products.add(new ProductDTO(products.size() + 1, "Product " + stockStatus,
+                    new BigDecimal("19.990"), stockStatus, products.size() * 10));
+        }
+        products.add(new ProductDTO(100, "Café crème ☕", new BigDecimal("-1E+3"),
+                StockStatus.AVAILABLE, Integer.MAX_VALUE));
+        products.add(new ProductDTO(101, "", BigDecimal.ZERO, StockStatus.AVAILABLE, 0));
+        products.add(new ProductDTO(102, null, null, null, 0));
+
+        assertEquals(products, roundTrip(products));
+        assertEquals(List.of(), roundTrip(List.of()));
+    }
+
+    @Test
+    @DisplayName("Codec should encode a typical product in a few bytes more than its name")
+    public void should_encodeTypicalProductInFixedSize() throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ProductListCodec.encode(List.of(new ProductDTO(1, "Product 1", new BigDecimal("19.99"),
+                StockStatus.AVAILABLE, 100)), outputStream);
+
+        //Header, then ID, name length and name, price, scale, stock status and stock count
+        assertEquals(5 + 4 + 4 + 9 + 8 + 1 + 1 + 4, outputStream.size());
+    }
+
+    @Test
+    @DisplayName("Codec should refuse prices too precise for the layout")
+    public void should_refusePricesTooPrecise() {
+        final List<ProductDTO> products = List.of(new ProductDTO(1, "Product 1",
+                new BigDecimal("12345678901234567890.5"), StockStatus.AVAILABLE, 1));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ProductListCodec.encode(products, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    @DisplayName("Codec should refuse to decode a version it does not know")
+    public void should_refuseUnknownVersion() {
+        assertThrows(IOException.class, () -> ProductListCodec.decode(
+                new ByteArrayInputStream(new byte[]{2, 0, 0, 0, 0})));
+    }
+
+    private static List<ProductDTO> roundTrip(final List<ProductDTO> products)
+            throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ProductListCodec.encode(products, outputStream);
+        return ProductListCodec.decode(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+}
@@ -0,0 +1,193 @@
+package com.shop.generic.productservice.services;
+
+import static com.shop.generic.productservice.testing.ProductFixtures.createProduct;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.productservice.dtos.IdempotentResultDTO;
+import com.shop.generic.productservice.exceptions.IdempotencyKeyReusedException;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class IdempotencyServiceTest {
+
+    private static final String RESPONSE = "Product stock successfully updated";
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Parallel retries with the same key should decrement stock exactly once")
+    public void should_decrementOnce_underParallelRetries() throws Exception {
+        final Product product = this.productRepository.save(createProduct(100));
+        final String idempotencyKey = UUID.randomUUID().toString();
+        final int retries = 50;
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Callable<IdempotentResultDTO>> attempts = new ArrayList<>();
+        for (int i = 0; i < retries; i++) {
+            attempts.add(() -> {
+                start.await();
+                return purchase(idempotencyKey, product.getProductId(), 1);
+            });
+        }
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(retries);
+        final List<IdempotentResultDTO> results = new ArrayList<>();
+        try {
+            final List<Future<IdempotentResultDTO>> futures = attempts.stream()
+                    .map(executorService::submit).toList();
+            start.countDown();
+            for (final Future<IdempotentResultDTO> future : futures) {
+                results.add(future.get());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(99, stockCount(product));
+        assertEquals(1, results.stream().filter(result -> !result.replayed()).count());
+        results.forEach(result -> assertEquals(RESPONSE, result.response()));
+    }
+
+    @Test
+    @DisplayName("An attempt with one key should not wait for a slow attempt with another key")
+    public void should_notBlockOtherKeys_whileOperationRuns() throws Exception {
+        final Product slowProduct = this.productRepository.save(createProduct(10));
+        final Product product = this.productRepository.save(createProduct(10));
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch finishSlow = new CountDownLatch(1);
+
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final Future<IdempotentResultDTO> slow = executorService.submit(
+                    () -> this.idempotencyService.executeOnce(UUID.randomUUID().toString(),
+                            "slow", () -> {
+                                this.productService.updateProductsStock(List.of(
+                                        new PurchaseProductDTO(slowProduct.getProductId(), 1)));
+                                slowStarted.countDown();
+                                try {
+                                    finishSlow.await();
+                                } catch (final InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                return RESPONSE;
+                            }));
+            assertTrue(slowStarted.await(10, TimeUnit.SECONDS));
+
+            //When
+            final IdempotentResultDTO result = purchase(UUID.randomUUID().toString(),
+                    product.getProductId(), 1);
+
+            //Then
+            assertFalse(slow.isDone());
+            assertFalse(result.replayed());
+            assertEquals(9, stockCount(product));
+            finishSlow.countDown();
+            assertFalse(slow.get(10, TimeUnit.SECONDS).replayed());
+        } finally {
+            finishSlow.countDown();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("A retry after a success should replay the response without touching stock")
+    public void should_replayResponse_forRepeatedKey() {
+        final Product product = this.productRepository.save(createProduct(10));
+        final String idempotencyKey = UUID.randomUUID().toString();
+
+        final IdempotentResultDTO first = purchase(idempotencyKey, product.getProductId(), 3);
+        final IdempotentResultDTO second = purchase(idempotencyKey, product.getProductId(), 3);
+
+        assertFalse(first.replayed());
+        assertTrue(second.replayed());
+        assertEquals(7, stockCount(product));
+    }
+
+    @Test
+    @DisplayName("A failed attempt should not use up the key, so a retry can succeed")
+    public void should_releaseKey_whenOperationFails() {
+        final Product product = this.productRepository.save(createProduct(2));
+        final String idempotencyKey = UUID.randomUUID().toString();
+
+        assertThrows(InsufficientStockException.class,
+                () -> purchase(idempotencyKey, product.getProductId(), 5));
+        final IdempotentResultDTO retry = purchase(idempotencyKey, product.getProductId(), 2);
+
+        assertFalse(retry.replayed());
+        assertEquals(0, stockCount(product));
+    }
+
+    @Test
+    @DisplayName("A key sent again with a different basket should be turned away, not replayed")
+    public void should_rejectKey_reusedForDifferentBasket() {
+        final Product product = this.productRepository.save(createProduct(10));
+        final Product otherProduct = this.productRepository.save(createProduct(10));
+        final String idempotencyKey = UUID.randomUUID().toString();
+        purchase(idempotencyKey, List.of(new PurchaseProductDTO(product.getProductId(), 3)));
+
+        //When
+        final IdempotentResultDTO splitRetry = purchase(idempotencyKey, List.of(
+                new PurchaseProductDTO(product.getProductId(), 1),
+                new PurchaseProductDTO(product.getProductId(), 2)));
+
+        //Then the same basket with its lines split up is still a retry
+        assertTrue(splitRetry.replayed());
+        assertThrows(IdempotencyKeyReusedException.class, () -> purchase(idempotencyKey,
+                List.of(new PurchaseProductDTO(product.getProductId(), 4))));
+        assertThrows(IdempotencyKeyReusedException.class, () -> purchase(idempotencyKey,
+                List.of(new PurchaseProductDTO(otherProduct.getProductId(), 3))));
+        assertEquals(7, stockCount(product));
+        assertEquals(10, stockCount(otherProduct));
+    }
+
+    private IdempotentResultDTO purchase(final String idempotencyKey, final int productId,
+            final int quantity) {
+        return purchase(idempotencyKey, List.of(new PurchaseProductDTO(productId, quantity)));
+    }
+
+    private IdempotentResultDTO purchase(final String idempotencyKey,
+            final List<PurchaseProductDTO> basket) {
+        return this.idempotencyService.executeOnce(idempotencyKey,
+                this.productService.basketHash(basket), () -> {
+                    this.productService.updateProductsStock(basket);
+                    return RESPONSE;
+                });
+    }
+
+    private int stockCount(final Product product) {
+        return this.productRepository.findById(product.getProductId()).orElseThrow()
+                .getStockCount();
+    }
+}
@@ -0,0 +1,266 @@
+package com.shop.generic.productservice.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.cache.ProductCache;
+import com.shop.generic.productservice.config.ProductLookupProperties;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import com.shop.generic.productservice.repositories.ProductCatalogueRepository.VersionedProduct;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+import org.mockito.invocation.Invocation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Runs 1,000 virtual threads at once against the real (H2) database, through a repository that
+ * records every query it is asked for, so the queries that reach the database can be counted. The
+ * batching delay is long enough for every thread to arrive before the first query is sent.
+ */
+@SpringBootTest
+class ProductLookupCoalescerTest {
+
+    private static final int THREADS = 1000;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private ProductMetrics productMetrics;
+
+    @Autowired
+    private ProductService productService;
+
+    private final List<Integer> savedProductIds = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        this.productCache.invalidateAll(this.savedProductIds);
+        this.productRepository.deleteAllById(this.savedProductIds);
+    }
+
+    @Test
+    @DisplayName("Concurrent lookups of the same product should share a single query")
+    public void should_runOneQuery_forSameProduct() throws Exception {
+        final int productId = saveProducts(1).get(0);
+        final ProductRepository recordingRepository = recording(this.productRepository);
+        final ProductLookupCoalescer coalescer = createCoalescer(recordingRepository,
+                Duration.ofMillis(100));
+
+        //When
+        final List<Optional<VersionedProduct>> results = runAll(i -> productId,
+                coalescer::find);
+
+        //Then
+        assertEquals(1, queries(recordingRepository));
+        assertTrue(results.stream().allMatch(result -> result.orElseThrow().productDTO()
+                .productId() == productId));
+        assertTrue(this.productCache.get(productId).isPresent());
+    }
+
+    @Test
+    @DisplayName("Lookups of one product should still share a query while other products are bought")
+    public void should_runOneQuery_whileOtherProductsArePurchased() throws Exception {
+        final List<Integer> productIds = saveProducts(11, 1_000_000);
+        final int productId = productIds.get(0);
+        final List<Integer> otherProductIds = productIds.subList(1, productIds.size());
+        final ProductRepository recordingRepository = recording(this.productRepository);
+        final ProductLookupCoalescer coalescer = createCoalescer(recordingRepository,
+                Duration.ofMillis(100));
+        final AtomicBoolean purchasing = new AtomicBoolean(true);
+        final CountDownLatch firstPurchase = new CountDownLatch(1);
+        final ExecutorService purchaser = Executors.newSingleThreadExecutor();
+        final List<Optional<VersionedProduct>> results;
+        try {
+            final Future<?> purchases = purchaser.submit(() -> {
+                for (int i = 0; purchasing.get(); i++) {
+                    this.productService.updateProductsStock(List.of(new PurchaseProductDTO(
+                            otherProductIds.get(i % otherProductIds.size()), 1)));
+                    firstPurchase.countDown();
+                }
+            });
+            firstPurchase.await();
+
+            //When
+            results = runAll(i -> productId, coalescer::find);
+            purchasing.set(false);
+            purchases.get();
+        } finally {
+            purchaser.shutdownNow();
+        }
+
+        //Then
+        assertEquals(1, queries(recordingRepository));
+        assertTrue(results.stream().allMatch(result -> result.orElseThrow().productDTO()
+                .productId() == productId));
+        assertTrue(this.productCache.get(productId).isPresent());
+    }
+
+    @Test
+    @DisplayName("Concurrent lookups of overlapping products should be batched, each product queried once")
+    public void should_batchQueries_forOverlappingProducts() throws Exception {
+        final List<Integer> productIds = saveProducts(100);
+        final ProductRepository recordingRepository = recording(this.productRepository);
+        final ProductLookupCoalescer coalescer = createCoalescer(recordingRepository,
+                Duration.ofMillis(100));
+
+        //When
+        final List<Optional<VersionedProduct>> results = runAll(
+                i -> productIds.get(i % productIds.size()), coalescer::find);
+
+        //Then
+        for (int i = 0; i < THREADS; i++) {
+            assertEquals(productIds.get(i % productIds.size()),
+                    results.get(i).orElseThrow().productDTO().productId());
+        }
+        final List<Integer> queriedIds = queriedProductIds(recordingRepository);
+        assertEquals(productIds.size(), queriedIds.size());
+        assertEquals(productIds.size(), queriedIds.stream().distinct().count());
+        //Batches of up to 100 products
+        assertTrue(queries(recordingRepository) <= 10,
+                "Expected a handful of queries, got " + queries(recordingRepository));
+    }
+
+    @Test
+    @DisplayName("Concurrent lookups of a product that does not exist should share a single query")
+    public void should_runOneQuery_forMissingProduct() throws Exception {
+        final ProductRepository recordingRepository = recording(this.productRepository);
+        final ProductLookupCoalescer coalescer = createCoalescer(recordingRepository,
+                Duration.ofMillis(100));
+
+        //When
+        final List<Optional<VersionedProduct>> results = runAll(i -> Integer.MAX_VALUE,
+                coalescer::find);
+
+        //Then
+        assertTrue(results.stream().allMatch(Optional::isEmpty));
+        assertEquals(1, queries(recordingRepository));
+    }
+
+    @Test
+    @DisplayName("Lookups should each query the database when coalescing is off")
+    public void should_queryPerLookup_whenDisabled() {
+        final int productId = saveProducts(1).get(0);
+        final ProductRepository recordingRepository = recording(this.productRepository);
+        final ProductLookupCoalescer coalescer = new ProductLookupCoalescer(recordingRepository,
+                this.productCache, this.productMetrics,
+                new ProductLookupProperties(false, 100, Duration.ofMillis(5)), 1000);
+
+        coalescer.find(productId);
+        coalescer.find(productId);
+
+        assertEquals(2, queries(recordingRepository));
+        verify(recordingRepository, never()).findVersionedProducts(any());
+    }
+
+    private ProductLookupCoalescer createCoalescer(final ProductRepository repository,
+            final Duration maxDelay) {
+        return new ProductLookupCoalescer(repository, this.productCache, this.productMetrics,
+                new ProductLookupProperties(true, 100, maxDelay), 1000);
+    }
+
+    /**
+     * Starts every thread, then lets them all go at once
+     */
+    private static <T> List<T> runAll(final IntUnaryOperator productIdForThread,
+            final IntFunction<T> lookup) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<T>> futures = new ArrayList<>(THREADS);
+        try (ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < THREADS; i++) {
+                final int productId = productIdForThread.applyAsInt(i);
+                futures.add(executorService.submit(() -> {
+                    start.await();
+                    return lookup.apply(productId);
+                }));
+            }
+            start.countDown();
+        }
+        final List<T> results = new ArrayList<>(THREADS);
+        for (final Future<T> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    /**
+     * @return a repository that passes every call on to the real one, and remembers it
+     */
+    private static ProductRepository recording(final ProductRepository productRepository) {
+        return mock(ProductRepository.class, AdditionalAnswers.delegatesTo(productRepository));
+    }
+
+    private static long queries(final ProductRepository recordingRepository) {
+        return lookupInvocations(recordingRepository).size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Integer> queriedProductIds(final ProductRepository recordingRepository) {
+        final List<Integer> productIds = new ArrayList<>();
+        for (final Invocation invocation : lookupInvocations(recordingRepository)) {
+            final Object argument = invocation.getArgument(0);
+            if (argument instanceof final Collection<?> ids) {
+                productIds.addAll((Collection<Integer>) ids);
+            } else {
+                productIds.add((Integer) argument);
+            }
+        }
+        return productIds;
+    }
+
+    private static List<Invocation> lookupInvocations(
+            final ProductRepository recordingRepository) {
+        return Mockito.mockingDetails(recordingRepository).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName()
+                        .matches("findVersionedProduct|findVersionedProducts"))
+                .toList();
+    }
+
+    private List<Integer> saveProducts(final int count) {
+        return saveProducts(count, 100);
+    }
+
+    private List<Integer> saveProducts(final int count, final int stockCount) {
+        final List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Product product = new Product();
+            product.setName("Coalescing test product " + i);
+            product.setPrice(BigDecimal.TEN);
+            product.setStockStatus(StockStatus.AVAILABLE);
+            product.setStockCount(stockCount);
+            products.add(product);
+        }
+        final List<Integer> productIds = this.productRepository.saveAll(products).stream()
+                .map(Product::getProductId).toList();
+        this.savedProductIds.addAll(productIds);
+        return productIds;
+    }
+}
@@ -0,0 +1,116 @@
+package com.shop.generic.productservice.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.shop.generic.productservice.dtos.ProductBatchDTO;
+import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SpringBootTest
+class ProductServiceBatchTest {
+
+    private static final int FIRST_GENERATED_ID = 20_000_000;
+    private static final int BATCH_SIZE = 50_000;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        this.transactionTemplate.executeWithoutResult(status -> this.jdbcTemplate.update("""
+                INSERT INTO products (product_id, name, price, stock_status, stock_count)
+                SELECT X, CONCAT('Product ', X), 10, 'AVAILABLE', 100
+                FROM SYSTEM_RANGE(?, ?)""", FIRST_GENERATED_ID,
+                FIRST_GENERATED_ID + BATCH_SIZE - 1));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAllInBatch();
+    }
+
+    @Test
+    @DisplayName("A batch of 50,000 ids should return every product, in request order")
+    public void should_returnAllProducts_forLargeBatch() {
+        final int[] productIds = new int[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            //Request in descending order so the result order cannot just be the table order
+            productIds[i] = FIRST_GENERATED_ID + BATCH_SIZE - 1 - i;
+        }
+
+        final ProductBatchDTO result = this.productService.getProductsBatch(productIds, false);
+
+        assertEquals(BATCH_SIZE, result.products().size());
+        assertEquals(List.of(), result.missingProductIds());
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            assertEquals(productIds[i], result.products().get(i).productId());
+        }
+    }
+
+    @Test
+    @DisplayName("A batch of 50,000 ids with some unknown ones should list exactly the unknown ids")
+    public void should_reportMissingIds_forLargePartialBatch() {
+        final int[] productIds = new int[BATCH_SIZE];
+        final List<Integer> expectedMissingIds = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            if (i % 100 == 0) {
+                productIds[i] = -i - 1;
+                expectedMissingIds.add(-i - 1);
+            } else {
+                productIds[i] = FIRST_GENERATED_ID + i;
+            }
+        }
+
+        final ProductBatchDTO result = this.productService.getProductsBatch(productIds, true);
+
+        assertEquals(BATCH_SIZE - expectedMissingIds.size(), result.products().size());
+        assertEquals(expectedMissingIds, result.missingProductIds());
+        assertThrows(ProductDoesNotExistException.class,
+                () -> this.productService.getProductsBatch(productIds, false));
+    }
+
+    @Test
+    @DisplayName("A streamed batch of 50,000 ids should hand over every product, in request order")
+    public void should_streamAllProducts_forLargeBatch() {
+        final int[] productIds = new int[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            productIds[i] = i % 100 == 0 ? -i - 1 : FIRST_GENERATED_ID + BATCH_SIZE - 1 - i;
+        }
+        final List<Integer> streamedIds = new ArrayList<>();
+
+        final List<Integer> missingIds = this.productService.streamProductsBatch(productIds,
+                productDTO -> streamedIds.add(productDTO.productId()));
+
+        final List<Integer> expectedIds = new ArrayList<>();
+        final List<Integer> expectedMissingIds = new ArrayList<>();
+        for (final int productId : productIds) {
+            (productId < 0 ? expectedMissingIds : expectedIds).add(productId);
+        }
+        assertEquals(expectedIds, streamedIds);
+        assertEquals(expectedMissingIds, missingIds);
+        assertThrows(ProductDoesNotExistException.class,
+                () -> this.productService.requireProducts(productIds));
+        this.productService.requireProducts(
+                expectedIds.stream().mapToInt(Integer::intValue).toArray());
+    }
+}
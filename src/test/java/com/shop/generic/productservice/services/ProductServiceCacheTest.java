@@ -0,0 +1,103 @@
+package com.shop.generic.productservice.services;
+
+import static com.shop.generic.productservice.testing.ProductFixtures.createProduct;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.cache.ProductCache;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class ProductServiceCacheTest {
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("A read after a purchase should see the new stock count, not the cached one")
+    public void should_notReturnStaleStock_afterPurchase() {
+        final Product product = this.productRepository.save(createProduct(10));
+        final int productId = product.getProductId();
+
+        //Populate the cache
+        assertEquals(10, this.productService.retrieveProductById(productId).stockCount());
+        assertEquals(10, this.productService.getProductsByIds(List.of(productId)).get(0)
+                .stockCount());
+
+        //When
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(productId, 3)));
+
+        //Then
+        assertEquals(7, this.productService.retrieveProductById(productId).stockCount());
+        assertEquals(7, this.productService.getProductsByIds(List.of(productId)).get(0)
+                .stockCount());
+    }
+
+    @Test
+    @DisplayName("Readers racing with purchases should never leave a stale product in the cache")
+    public void should_notCacheStaleStock_whenReadsRaceWithPurchases() throws Exception {
+        final int purchases = 500;
+        final Product product = this.productRepository.save(createProduct(purchases));
+        final int productId = product.getProductId();
+
+        final AtomicBoolean purchasing = new AtomicBoolean(true);
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> readers = List.of(
+                    executorService.submit(() -> readUntilDone(productId, purchasing)),
+                    executorService.submit(() -> readUntilDone(productId, purchasing)),
+                    executorService.submit(() -> readUntilDone(productId, purchasing)),
+                    executorService.submit(() -> readUntilDone(productId, purchasing)));
+
+            for (int i = 0; i < purchases; i++) {
+                this.productService.updateProductsStock(
+                        List.of(new PurchaseProductDTO(productId, 1)));
+                //Every purchase must be visible to the purchasing thread straight away
+                assertEquals(purchases - i - 1,
+                        this.productService.retrieveProductById(productId).stockCount());
+            }
+            purchasing.set(false);
+            for (final Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        final ProductDTO result = this.productService.retrieveProductById(productId);
+        assertEquals(0, result.stockCount());
+        assertEquals(StockStatus.OUT_OF_STOCK, result.stockStatus());
+        assertEquals(this.productCache.get(productId).orElseThrow().productDTO(), result);
+    }
+
+    private void readUntilDone(final int productId, final AtomicBoolean purchasing) {
+        while (purchasing.get()) {
+            this.productService.retrieveProductById(productId);
+            this.productService.getProductsByIds(List.of(productId));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.shop.generic.productservice.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shop.generic.common.dtos.ProductDTO;
+import com.shop.generic.productservice.config.CatalogueProperties;
+import com.shop.generic.productservice.dtos.ProductPageDTO;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.testing.StatementCountingDataSource;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Generates the catalogue directly in H2, well away from the IDs handed out by product_id_seq, so
+ * it can be made large enough to show that streaming does not depend on the table size. The row
+ * count for the streaming test can be raised with -Dcatalogue.stream.rows.
+ * <p>
+ * Rather than measure the heap, which is too noisy in a shared JVM, the streaming test watches the
+ * JDBC calls through {@link StatementCountingDataSource}: the query must ask the driver for rows a
+ * fetch at a time, and each product must be handed over as soon as its row is read, before the
+ * next one is.
+ */
+@SpringBootTest
+@Import(StatementCountingDataSource.Config.class)
+class ProductServiceCatalogueTest {
+
+    private static final int FIRST_GENERATED_ID = 10_000_000;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CatalogueProperties catalogueProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAllInBatch();
+    }
+
+    @Test
+    @DisplayName("Following the cursors should visit every product exactly once, in order")
+    public void should_pageThroughWholeCatalogue() {
+        generateProducts(2_500);
+
+        int pages = 0;
+        int products = 0;
+        int lastProductId = 0;
+        String cursor = null;
+        do {
+            final ProductPageDTO page = this.productService.findProductsPage(cursor, 1000);
+            for (final ProductDTO product : page.products()) {
+                assertTrue(product.productId() > lastProductId);
+                lastProductId = product.productId();
+            }
+            products += page.products().size();
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(2_500, products);
+    }
+
+    @Test
+    @DisplayName("The last page should not have a cursor")
+    public void should_notReturnCursor_onLastPage() {
+        generateProducts(10);
+
+        final ProductPageDTO page = this.productService.findProductsPage(null, 10);
+
+        assertEquals(10, page.products().size());
+        assertNull(page.nextCursor());
+    }
+
+    @Test
+    @DisplayName("Streaming should hand over every product in order, as soon as it is read")
+    public void should_streamWholeCatalogue() {
+        final int rows = Integer.getInteger("catalogue.stream.rows", 1_000_000);
+        generateProducts(rows);
+        StatementCountingDataSource.reset();
+
+        final AtomicInteger streamed = new AtomicInteger();
+        final AtomicLong lastProductId = new AtomicLong();
+        final AtomicInteger mostRowsReadAhead = new AtomicInteger();
+        this.productService.streamAllProducts(product -> {
+            assertTrue(product.productId() > lastProductId.get());
+            lastProductId.set(product.productId());
+            final int handedOver = streamed.incrementAndGet();
+            mostRowsReadAhead.accumulateAndGet(
+                    StatementCountingDataSource.rowsRead() - handedOver, Math::max);
+        });
+
+        assertEquals(rows, streamed.get());
+        assertEquals(this.catalogueProperties.streamFetchSize(),
+                StatementCountingDataSource.fetchSize());
+        //No product waits for rows after it to be read
+        assertEquals(0, mostRowsReadAhead.get());
+        assertEquals(rows, StatementCountingDataSource.rowsRead());
+    }
+
+    private void generateProducts(final int count) {
+        this.transactionTemplate.executeWithoutResult(status -> this.jdbcTemplate.update("""
+                INSERT INTO products (product_id, name, price, stock_status, stock_count)
+                SELECT X, CONCAT('Product ', X), 10, 'AVAILABLE', 100
+                FROM SYSTEM_RANGE(?, ?)""", FIRST_GENERATED_ID, FIRST_GENERATED_ID + count - 1));
+    }
+}
@@ -0,0 +1,140 @@
+package com.shop.generic.productservice.services;
+
+import static com.shop.generic.productservice.testing.ProductFixtures.createProduct;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Runs purchases from many threads at once against the real (H2) database, so each call gets its
+ * own transaction and the conditional decrements actually contend for the same rows
+ */
+@SpringBootTest
+class ProductServiceConcurrencyTest {
+
+    private static final int THREADS = 32;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Parallel purchases of a single product should never lose an update or oversell")
+    public void should_decrementExactly_underConcurrentPurchases() throws Exception {
+        final int initialStock = 2000;
+        final int purchases = 4000;
+        final Product product = this.productRepository.save(createProduct(initialStock));
+
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < purchases; i++) {
+            tasks.add(() -> {
+                try {
+                    this.productService.updateProductsStock(
+                            List.of(new PurchaseProductDTO(product.getProductId(), 1)));
+                    succeeded.incrementAndGet();
+                } catch (final InsufficientStockException e) {
+                    rejected.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        final Product result = this.productRepository.findById(product.getProductId())
+                .orElseThrow();
+        assertEquals(initialStock, succeeded.get());
+        assertEquals(purchases - initialStock, rejected.get());
+        assertEquals(0, result.getStockCount());
+        assertEquals(StockStatus.OUT_OF_STOCK, result.getStockStatus());
+    }
+
+    @Test
+    @DisplayName("Baskets containing the same products in opposite orders should not deadlock")
+    public void should_notDeadlock_whenBasketsOverlap() throws Exception {
+        final int initialStock = 1000;
+        final Product first = this.productRepository.save(createProduct(initialStock));
+        final Product second = this.productRepository.save(createProduct(initialStock));
+
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < initialStock / 2; i++) {
+            tasks.add(() -> {
+                this.productService.updateProductsStock(List.of(
+                        new PurchaseProductDTO(first.getProductId(), 1),
+                        new PurchaseProductDTO(second.getProductId(), 1)));
+                return null;
+            });
+            tasks.add(() -> {
+                this.productService.updateProductsStock(List.of(
+                        new PurchaseProductDTO(second.getProductId(), 1),
+                        new PurchaseProductDTO(first.getProductId(), 1)));
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        assertEquals(0, this.productRepository.findById(first.getProductId())
+                .orElseThrow().getStockCount());
+        assertEquals(0, this.productRepository.findById(second.getProductId())
+                .orElseThrow().getStockCount());
+    }
+
+    @Test
+    @DisplayName("A basket with a line that cannot be fulfilled should not change any stock")
+    public void should_rollbackWholeBasket_whenOneLineFails() {
+        final Product plenty = this.productRepository.save(createProduct(10));
+        final Product scarce = this.productRepository.save(createProduct(1));
+
+        try {
+            this.productService.updateProductsStock(List.of(
+                    new PurchaseProductDTO(plenty.getProductId(), 5),
+                    new PurchaseProductDTO(scarce.getProductId(), 2)));
+        } catch (final InsufficientStockException e) {
+            //Expected
+        }
+
+        assertEquals(10, this.productRepository.findById(plenty.getProductId())
+                .orElseThrow().getStockCount());
+        assertEquals(1, this.productRepository.findById(scarce.getProductId())
+                .orElseThrow().getStockCount());
+    }
+
+    private static void runAll(final List<Callable<Void>> tasks)
+            throws InterruptedException, ExecutionException {
+        final ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (final Future<Void> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+            executorService.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+}
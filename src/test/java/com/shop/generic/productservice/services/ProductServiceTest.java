@@ -2,25 +2,47 @@ package com.shop.generic.productservice.services;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 
 import com.shop.generic.common.dtos.ProductDTO;
-import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.dtos.PurchaseProductDTO;
 import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.cache.ProductCache;
+import com.shop.generic.productservice.config.CatalogueProperties;
+import com.shop.generic.productservice.config.ProductLookupProperties;
+import com.shop.generic.productservice.config.TransactionProperties;
+import com.shop.generic.productservice.dtos.ProductBatchDTO;
+import com.shop.generic.productservice.events.ProductStockUpdatedEvent;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.exceptions.InvalidQuantityException;
 import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.ledger.StockLedger;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import com.shop.generic.productservice.repositories.ProductCatalogueRepository.VersionedProduct;
 import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.repositories.ProductStockRepository.StockLevel;
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import org.jeasy.random.EasyRandom;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Isolation;
 
 @ExtendWith(MockitoExtension.class)
 class ProductServiceTest {
@@ -28,24 +50,54 @@ class ProductServiceTest {
     @Mock
     private ProductRepository productRepository;
 
+    @Mock
+    private ProductCache productCache;
+
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Mock
+    private ProductMetrics productMetrics;
+
+    //Has no ledger to provide, so purchases take the synchronous path
+    @Mock
+    private ObjectProvider<StockLedger> stockLedgerProvider;
+
+    @Spy
+    private CatalogueProperties catalogueProperties = new CatalogueProperties(100, 1000, 500, 2);
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Spy
+    private TransactionProperties transactionProperties = new TransactionProperties(
+            Isolation.READ_COMMITTED, Duration.ofSeconds(5), 3, Duration.ofMillis(1),
+            Duration.ofMillis(5));
+
+    //No delay, so single product lookups go straight to the database by ID
+    @Spy
+    private ProductLookupProperties productLookupProperties = new ProductLookupProperties(true,
+            100, Duration.ZERO);
+
     //Could also use construction injection for the mocks here
     @InjectMocks
     private ProductService productService;
 
     @Test
     public void should_findAllProducts_asProductVOs() {
-        final EasyRandom generator = new EasyRandom();
-        final List<Product> productList = generator.objects(Product.class, 5).toList();
-        given(this.productRepository.findAll()).willReturn(productList);
+        final List<ProductDTO> productList = List.of(
+                new ProductDTO(1, "Test product", BigDecimal.TEN, StockStatus.AVAILABLE, 100),
+                new ProductDTO(2, "Test product 2", BigDecimal.ONE, StockStatus.OUT_OF_STOCK, 0));
+        given(this.productRepository.findAllProductDTOs()).willReturn(productList);
 
         final List<ProductDTO> result = this.productService.findAllProducts();
-        assertEquals(result.size(), 5);
+        assertEquals(result.size(), 2);
     }
 
     @Test
     @DisplayName("Service should throw ProductDoesNotExistException if given invalid or unknown product id")
     public void should_throwProductDoesNotExistException() {
-        given(this.productRepository.findById(1)).willReturn(Optional.empty());
+        given(this.productRepository.findVersionedProduct(1)).willReturn(Optional.empty());
 
         final Exception exception = assertThrows(ProductDoesNotExistException.class,
                 () -> this.productService.retrieveProductById(1));
@@ -56,19 +108,229 @@ class ProductServiceTest {
     @Test
     @DisplayName("Service should find a product given a valid product id")
     public void should_findAProduct_ById() {
-        final Product p = new Product();
-        p.setProductId(1);
-        p.setName("Test product");
-        p.setPrice(BigDecimal.TEN);
-        p.setStockStatus(StockStatus.AVAILABLE);
-        p.setStockCount(100);
-        final Optional<Product> optional = Optional.of(p);
-        given(this.productRepository.findById(1)).willReturn(optional);
+        final ProductDTO productDTO = new ProductDTO(1, "Test product", BigDecimal.TEN,
+                StockStatus.AVAILABLE, 100);
+        given(this.productRepository.findVersionedProduct(1))
+                .willReturn(Optional.of(new VersionedProduct(productDTO, 0)));
 
         //When
         this.productService.retrieveProductById(1);
 
         //Then
-        verify(this.productRepository, times(1)).findById(1);
+        verify(this.productRepository, times(1)).findVersionedProduct(1);
+        verify(this.productCache, times(1)).put(1, new VersionedProduct(productDTO, 0), 0L);
+    }
+
+    @Test
+    @DisplayName("Service should merge duplicate lines and decrement stock in ascending product id order")
+    public void should_mergeBasket_andDecrementInProductIdOrder() {
+        given(this.productRepository.lockStockLevels(List.of(1, 2, 3)))
+                .willReturn(Map.of(3, inStock(10), 1, inStock(10), 2, inStock(10)));
+        given(this.productRepository.decrementStockCounts(List.of(new PurchaseProductDTO(1, 2),
+                new PurchaseProductDTO(2, 5), new PurchaseProductDTO(3, 4))))
+                .willReturn(new int[]{1, 1, 1});
+
+        //When
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(3, 1),
+                new PurchaseProductDTO(1, 2), new PurchaseProductDTO(2, 5),
+                new PurchaseProductDTO(3, 3)));
+
+        //Then
+        verify(this.productRepository, times(1)).decrementStockCounts(
+                List.of(new PurchaseProductDTO(1, 2), new PurchaseProductDTO(2, 5),
+                        new PurchaseProductDTO(3, 4)));
+        verify(this.applicationEventPublisher, times(1)).publishEvent(
+                new ProductStockUpdatedEvent(List.of(1, 2, 3)));
+    }
+
+    @Test
+    @DisplayName("Service should only count the products the basket itself sold the last unit of")
+    public void should_countOnlyProductsSoldOutByBasket() {
+        given(this.productRepository.lockStockLevels(List.of(1, 2, 3)))
+                .willReturn(Map.of(1, inStock(2), 2, inStock(10),
+                        3, new StockLevel(1, StockStatus.OUT_OF_STOCK)));
+        given(this.productRepository.decrementStockCounts(List.of(new PurchaseProductDTO(1, 2),
+                new PurchaseProductDTO(2, 1), new PurchaseProductDTO(3, 1))))
+                .willReturn(new int[]{1, 1, 1});
+
+        //When
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(1, 2),
+                new PurchaseProductDTO(2, 1), new PurchaseProductDTO(3, 1)));
+
+        //Then product 3 was already flagged, so only product 1 changed status
+        verify(this.productMetrics, times(1)).outOfStock(1);
+    }
+
+    @Test
+    @DisplayName("Service should run the basket again if the database aborts it on a deadlock")
+    public void should_retryBasket_afterDeadlock() {
+        given(this.productRepository.lockStockLevels(List.of(1)))
+                .willReturn(Map.of(1, inStock(10)));
+        given(this.productRepository.decrementStockCounts(List.of(new PurchaseProductDTO(1, 1))))
+                .willThrow(new DeadlockLoserDataAccessException("Deadlock", null))
+                .willReturn(new int[]{1});
+
+        //When
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(1, 1)));
+
+        //Then
+        verify(this.productRepository, times(2)).decrementStockCounts(
+                List.of(new PurchaseProductDTO(1, 1)));
+        verify(this.productMetrics, times(1)).transactionRetried();
+        verify(this.applicationEventPublisher, times(1)).publishEvent(
+                new ProductStockUpdatedEvent(List.of(1)));
+    }
+
+    @Test
+    @DisplayName("Service should throw InsufficientStockException if a product does not have enough stock")
+    public void should_throwInsufficientStockException() {
+        given(this.productRepository.lockStockLevels(List.of(1, 2)))
+                .willReturn(Map.of(1, inStock(10), 2, inStock(5)));
+        given(this.productRepository.decrementStockCounts(
+                List.of(new PurchaseProductDTO(1, 1), new PurchaseProductDTO(2, 10))))
+                .willReturn(new int[]{1, 0});
+
+        final Exception exception = assertThrows(InsufficientStockException.class,
+                () -> this.productService.updateProductsStock(
+                        List.of(new PurchaseProductDTO(1, 1), new PurchaseProductDTO(2, 10))));
+
+        assertEquals("Product with Product ID 2 does not have 10 units in stock",
+                exception.getMessage());
+    }
+
+    @Test
+    @DisplayName("Service should reject a basket with a line for less than one unit before touching stock")
+    public void should_throwInvalidQuantityException_forNonPositiveQuantity() {
+        final Exception exception = assertThrows(InvalidQuantityException.class,
+                () -> this.productService.updateProductsStock(
+                        List.of(new PurchaseProductDTO(1, 1), new PurchaseProductDTO(2, -3),
+                                new PurchaseProductDTO(2, 5))));
+        assertThrows(InvalidQuantityException.class,
+                () -> this.productService.updateProductsStock(
+                        List.of(new PurchaseProductDTO(1, 0))));
+
+        assertEquals("Quantity -3 for Product ID 2 is not valid, quantities must be at least 1",
+                exception.getMessage());
+        verify(this.productRepository, never()).lockStockLevels(anyList());
+        verify(this.productRepository, never()).decrementStockCounts(anyList());
+    }
+
+    @Test
+    @DisplayName("Service should report every unknown product in a basket at once")
+    public void should_throwProductDoesNotExistException_withAllMissingIds() {
+        given(this.productRepository.lockStockLevels(List.of(1, 2, 3)))
+                .willReturn(Map.of(2, inStock(10)));
+
+        final Exception exception = assertThrows(ProductDoesNotExistException.class,
+                () -> this.productService.updateProductsStock(
+                        List.of(new PurchaseProductDTO(1, 1), new PurchaseProductDTO(2, 1),
+                                new PurchaseProductDTO(3, 1))));
+
+        assertEquals(
+                "Request could not be completed because products with the following IDs do not exist: [1, 3]",
+                exception.getMessage());
+        verify(this.productRepository, never()).decrementStockCounts(anyList());
+    }
+
+    @Test
+    @DisplayName("Service should not go to the database for a cached product")
+    public void should_returnCachedProduct_withoutQueryingRepository() {
+        final ProductDTO productDTO = new ProductDTO(1, "Test product", BigDecimal.TEN,
+                StockStatus.AVAILABLE, 100);
+        given(this.productCache.get(1)).willReturn(Optional.of(new VersionedProduct(productDTO,
+                0)));
+
+        //When
+        final ProductDTO result = this.productService.retrieveProductById(1);
+
+        //Then
+        assertEquals(productDTO, result);
+        verify(this.productRepository, never()).findVersionedProduct(1);
+    }
+
+    @Test
+    @DisplayName("Service should build a cached product's ETag from its cached version, without going to the database")
+    public void should_buildProductETag_fromCachedVersion() {
+        final ProductDTO productDTO = new ProductDTO(1, "Test product", BigDecimal.TEN,
+                StockStatus.AVAILABLE, 100);
+        given(this.productCache.get(1)).willReturn(Optional.of(new VersionedProduct(productDTO,
+                3)));
+
+        //When
+        final String eTag = this.productService.productETag(1);
+
+        //Then
+        assertEquals("product-1-3", eTag);
+        verifyNoInteractions(this.productRepository);
+    }
+
+    @Test
+    @DisplayName("Service should only fetch the products that are not cached")
+    public void should_onlyFetchUncachedProducts() {
+        final ProductDTO cachedProduct = new ProductDTO(1, "Cached product", BigDecimal.TEN,
+                StockStatus.AVAILABLE, 100);
+        final ProductDTO p = new ProductDTO(2, "Test product", BigDecimal.ONE,
+                StockStatus.AVAILABLE, 5);
+        given(this.productCache.getAll(List.of(1, 2)))
+                .willReturn(Map.of(1, new VersionedProduct(cachedProduct, 0)));
+        given(this.productRepository.findVersionedProducts(List.of(2)))
+                .willReturn(List.of(new VersionedProduct(p, 0)));
+
+        //When
+        final List<ProductDTO> result = this.productService.getProductsByIds(List.of(1, 2));
+
+        //Then
+        assertEquals(2, result.size());
+        assertEquals(cachedProduct, result.get(0));
+        verify(this.productRepository, times(1)).findVersionedProducts(List.of(2));
+    }
+
+    @Test
+    @DisplayName("Service should return each product once when an id is requested more than once")
+    public void should_deduplicateRequestedIds() {
+        final ProductDTO p = new ProductDTO(1, "Test product", BigDecimal.ONE,
+                StockStatus.AVAILABLE, 5);
+        given(this.productRepository.findVersionedProducts(List.of(1)))
+                .willReturn(List.of(new VersionedProduct(p, 0)));
+
+        //When
+        final List<ProductDTO> result = this.productService.getProductsByIds(List.of(1, 1));
+
+        //Then
+        assertEquals(1, result.size());
+    }
+
+    @Test
+    @DisplayName("Service should look up large batches in chunks and report missing ids when partial results are allowed")
+    public void should_lookUpBatchInChunks_andReturnPartialResults() {
+        final ProductDTO p1 = new ProductDTO(1, "Test product", BigDecimal.ONE,
+                StockStatus.AVAILABLE, 5);
+        final ProductDTO p3 = new ProductDTO(3, "Test product 3", BigDecimal.TEN,
+                StockStatus.AVAILABLE, 1);
+        given(this.productRepository.findVersionedProducts(List.of(3, 2)))
+                .willReturn(List.of(new VersionedProduct(p3, 0)));
+        given(this.productRepository.findVersionedProducts(List.of(1)))
+                .willReturn(List.of(new VersionedProduct(p1, 0)));
+
+        //When
+        final ProductBatchDTO result = this.productService.getProductsBatch(new int[]{3, 2, 1},
+                true);
+
+        //Then
+        assertEquals(List.of(p3, p1), result.products());
+        assertEquals(List.of(2), result.missingProductIds());
+    }
+
+    @Test
+    @DisplayName("Service should fail a batch with missing ids when partial results are not allowed")
+    public void should_failBatch_whenPartialResultsNotAllowed() {
+        given(this.productRepository.findVersionedProducts(List.of(1))).willReturn(List.of());
+
+        assertThrows(ProductDoesNotExistException.class,
+                () -> this.productService.getProductsBatch(new int[]{1}, false));
+    }
+
+    private static StockLevel inStock(final int stockCount) {
+        return new StockLevel(stockCount, StockStatus.AVAILABLE);
     }
-}
\ No newline at end of file
+}
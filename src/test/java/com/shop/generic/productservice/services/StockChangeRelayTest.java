@@ -0,0 +1,209 @@
+package com.shop.generic.productservice.services;
+
+import static com.shop.generic.productservice.testing.ProductFixtures.createProduct;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.productservice.config.StockChangeProperties;
+import com.shop.generic.productservice.dtos.StockChangeDTO;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.repositories.StockChangeRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Subscribes in process, through the same {@link StockChangeFeed} calls the SSE endpoint makes. A
+ * restart is simulated by dropping the subscriber and the feed it was reading, then resuming from
+ * the last sequence number seen on a new feed and relay over the same database.
+ */
+@SpringBootTest
+class StockChangeRelayTest {
+
+    private static final Duration POLL = Duration.ofMillis(100);
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private StockChangeRepository stockChangeRepository;
+
+    @Autowired
+    private StockChangeFeed stockChangeFeed;
+
+    @Autowired
+    private StockChangeRelay stockChangeRelay;
+
+    @Autowired
+    private StockChangeProperties stockChangeProperties;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Subscribers should receive every committed stock change, in order, across a restart")
+    public void should_streamEveryChangeInOrder_acrossRestart() throws Exception {
+        final int stock = 1000;
+        final List<Integer> productIds = List.of(
+                this.productRepository.save(createProduct(stock)).getProductId(),
+                this.productRepository.save(createProduct(stock)).getProductId());
+        //Makes sure the products themselves are not still waiting to be relayed
+        this.stockChangeRelay.relay();
+        final Map<Integer, AtomicInteger> purchased = new ConcurrentHashMap<>();
+
+        final Subscriber first = new Subscriber(this.stockChangeFeed,
+                this.stockChangeFeed.latestSequence());
+        purchase(productIds, 200, purchased);
+        first.awaitChanges(productIds, 200);
+        first.stop();
+
+        //Purchases made while nobody is subscribed, then the restart
+        purchase(productIds, 100, purchased);
+        final StockChangeFeed restartedFeed = new StockChangeFeed(this.stockChangeRepository,
+                this.stockChangeProperties);
+        final StockChangeRelay restartedRelay = new StockChangeRelay(this.stockChangeRepository,
+                restartedFeed, this.stockChangeProperties, this.transactionManager);
+        final Subscriber second = new Subscriber(restartedFeed, first.lastSequence());
+        purchase(productIds, 200, purchased);
+        second.awaitChanges(productIds, 300, restartedRelay);
+        second.stop();
+
+        final List<StockChangeDTO> changes = new ArrayList<>(first.changes);
+        changes.addAll(second.changes);
+        for (int i = 1; i < changes.size(); i++) {
+            assertEquals(changes.get(i - 1).sequence() + 1, changes.get(i).sequence(),
+                    "Changes should be numbered without gaps");
+        }
+        for (final int productId : productIds) {
+            final List<Integer> stockCounts = changes.stream()
+                    .filter(change -> change.productId() == productId)
+                    .map(StockChangeDTO::stockCount)
+                    .toList();
+            final int bought = purchased.get(productId).get();
+            assertEquals(bought, stockCounts.size());
+            for (int i = 0; i < stockCounts.size(); i++) {
+                //Each purchase takes one unit, so a product's changes count down one at a time
+                assertEquals(stock - i - 1, stockCounts.get(i));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("A failed purchase should not publish a stock change")
+    public void should_notPublish_rolledBackChanges() {
+        final Product product = this.productRepository.save(createProduct(1));
+        this.stockChangeRelay.relay();
+        final long before = this.stockChangeFeed.latestSequence();
+
+        try {
+            this.productService.updateProductsStock(
+                    List.of(new PurchaseProductDTO(product.getProductId(), 2)));
+        } catch (final RuntimeException e) {
+            //Not enough stock
+        }
+        this.stockChangeRelay.relay();
+
+        assertTrue(this.stockChangeRepository.findChangesAfter(before, 100).stream()
+                .noneMatch(change -> change.productId() == product.getProductId()));
+    }
+
+    private void purchase(final List<Integer> productIds, final int purchases,
+            final Map<Integer, AtomicInteger> purchased) throws Exception {
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < purchases; i++) {
+            tasks.add(() -> {
+                final int productId = productIds.get(
+                        ThreadLocalRandom.current().nextInt(productIds.size()));
+                this.productService.updateProductsStock(
+                        List.of(new PurchaseProductDTO(productId, 1)));
+                purchased.computeIfAbsent(productId, id -> new AtomicInteger()).incrementAndGet();
+                return null;
+            });
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(16);
+        try {
+            for (final Future<Void> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static final class Subscriber {
+
+        private final List<StockChangeDTO> changes = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean running = new AtomicBoolean(true);
+        private final Thread thread;
+
+        private Subscriber(final StockChangeFeed feed, final long from) {
+            this.thread = Thread.ofVirtual().start(() -> {
+                long sequence = from;
+                try {
+                    while (this.running.get()) {
+                        final List<StockChangeDTO> received = feed.changesAfter(sequence, 50,
+                                POLL);
+                        this.changes.addAll(received);
+                        if (!received.isEmpty()) {
+                            sequence = received.get(received.size() - 1).sequence();
+                        }
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        private void awaitChanges(final List<Integer> productIds, final int expected,
+                final StockChangeRelay... relays) throws InterruptedException {
+            final Set<Integer> ids = Set.copyOf(productIds);
+            final Instant deadline = Instant.now().plusSeconds(30);
+            while (this.changes.stream().filter(change -> ids.contains(change.productId()))
+                    .count() < expected) {
+                assertTrue(Instant.now().isBefore(deadline), "Changes were not received in time");
+                for (final StockChangeRelay relay : relays) {
+                    relay.relay();
+                }
+                Thread.sleep(POLL.toMillis());
+            }
+        }
+
+        private long lastSequence() {
+            return this.changes.isEmpty() ? -1 : this.changes.get(this.changes.size() - 1)
+                    .sequence();
+        }
+
+        private void stop() throws InterruptedException {
+            this.running.set(false);
+            this.thread.join();
+        }
+    }
+}
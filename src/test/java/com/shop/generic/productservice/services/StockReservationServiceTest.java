@@ -0,0 +1,280 @@
+package com.shop.generic.productservice.services;
+
+import static com.shop.generic.productservice.testing.ProductFixtures.createProduct;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.enums.StockStatus;
+import com.shop.generic.productservice.cache.AvailabilityIndex;
+import com.shop.generic.productservice.dtos.ReservationDTO;
+import com.shop.generic.productservice.exceptions.InsufficientStockException;
+import com.shop.generic.productservice.exceptions.ProductDoesNotExistException;
+import com.shop.generic.productservice.exceptions.ReservationNotFoundException;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs against the real (H2) database with the expiry scheduler running, so holds expire exactly
+ * as they would in the service
+ */
+@SpringBootTest
+class StockReservationServiceTest {
+
+    private static final int THREADS = 32;
+    private static final Duration SHORT_TTL = Duration.ofSeconds(1);
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private AvailabilityIndex availabilityIndex;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @AfterEach
+    public void tearDown() {
+        this.transactionTemplate.executeWithoutResult(
+                status -> this.jdbcTemplate.update("DELETE FROM stock_reservations"));
+        this.productRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Held stock should not be available to purchases until it is released")
+    public void should_excludeHeldStock_fromPurchases() {
+        final Product product = this.productRepository.save(createProduct(5));
+        final int productId = product.getProductId();
+
+        final ReservationDTO reservation = this.stockReservationService.reserve(
+                List.of(new PurchaseProductDTO(productId, 3)), null);
+
+        assertThrows(InsufficientStockException.class, () -> this.productService
+                .updateProductsStock(List.of(new PurchaseProductDTO(productId, 3))));
+        assertThrows(InsufficientStockException.class, () -> this.stockReservationService
+                .reserve(List.of(new PurchaseProductDTO(productId, 3)), null));
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(productId, 2)));
+        assertEquals(3, reservedCount(productId));
+
+        this.stockReservationService.release(reservation.reservationId());
+
+        assertEquals(0, reservedCount(productId));
+        assertEquals(3, stockCount(productId));
+        assertThrows(ReservationNotFoundException.class,
+                () -> this.stockReservationService.commit(reservation.reservationId()));
+    }
+
+    @Test
+    @DisplayName("A product with all of its stock held should read as out of stock until released")
+    public void should_readOutOfStock_whenAllStockHeld() {
+        final Product product = this.productRepository.save(createProduct(5));
+        final int productId = product.getProductId();
+        this.availabilityIndex.rebuild();
+        assertEquals(StockStatus.AVAILABLE,
+                this.productService.retrieveProductById(productId).stockStatus());
+
+        //When
+        final ReservationDTO reservation = this.stockReservationService.reserve(
+                List.of(new PurchaseProductDTO(productId, 5)), null);
+        this.availabilityIndex.refreshPending();
+
+        //Then
+        assertEquals(StockStatus.OUT_OF_STOCK,
+                this.productService.retrieveProductById(productId).stockStatus());
+        assertFalse(this.availabilityIndex.isAvailable(productId));
+
+        //When
+        this.stockReservationService.release(reservation.reservationId());
+        this.availabilityIndex.refreshPending();
+
+        //Then
+        assertEquals(StockStatus.AVAILABLE,
+                this.productService.retrieveProductById(productId).stockStatus());
+        assertTrue(this.availabilityIndex.isAvailable(productId));
+    }
+
+    @Test
+    @DisplayName("Buying the last unheld unit should flag the product as out of stock")
+    public void should_flagOutOfStock_whenLastUnheldUnitPurchased() {
+        final Product product = this.productRepository.save(createProduct(5));
+        final int productId = product.getProductId();
+        this.stockReservationService.reserve(List.of(new PurchaseProductDTO(productId, 3)), null);
+
+        //When
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(productId, 2)));
+
+        //Then
+        assertEquals(3, stockCount(productId));
+        assertEquals(StockStatus.OUT_OF_STOCK,
+                this.productService.retrieveProductById(productId).stockStatus());
+    }
+
+    @Test
+    @DisplayName("Committing a reservation should turn the held stock into a purchase")
+    public void should_decrementStock_whenReservationCommitted() {
+        final Product first = this.productRepository.save(createProduct(4));
+        final Product second = this.productRepository.save(createProduct(10));
+
+        final ReservationDTO reservation = this.stockReservationService.reserve(List.of(
+                new PurchaseProductDTO(second.getProductId(), 1),
+                new PurchaseProductDTO(first.getProductId(), 4),
+                new PurchaseProductDTO(second.getProductId(), 2)), null);
+        this.stockReservationService.commit(reservation.reservationId());
+
+        assertEquals(List.of(new PurchaseProductDTO(first.getProductId(), 4),
+                new PurchaseProductDTO(second.getProductId(), 3)), reservation.lines());
+        assertEquals(0, stockCount(first.getProductId()));
+        assertEquals(StockStatus.OUT_OF_STOCK, this.productRepository
+                .findById(first.getProductId()).orElseThrow().getStockStatus());
+        assertEquals(7, stockCount(second.getProductId()));
+        assertEquals(0, reservedCount(first.getProductId()));
+        assertEquals(0, reservedCount(second.getProductId()));
+        assertThrows(ReservationNotFoundException.class,
+                () -> this.stockReservationService.release(reservation.reservationId()));
+    }
+
+    @Test
+    @DisplayName("A reservation with an unknown product should hold nothing")
+    public void should_holdNothing_whenProductDoesNotExist() {
+        final Product product = this.productRepository.save(createProduct(5));
+
+        assertThrows(ProductDoesNotExistException.class, () -> this.stockReservationService
+                .reserve(List.of(new PurchaseProductDTO(product.getProductId(), 1),
+                        new PurchaseProductDTO(Integer.MAX_VALUE, 1)), null));
+
+        assertEquals(0, reservedCount(product.getProductId()));
+        assertEquals(0, reservationRows());
+    }
+
+    @Test
+    @DisplayName("Tens of thousands of holds expiring together should all be released")
+    public void should_releaseEveryHold_whenManyExpireTogether() throws Exception {
+        final int products = 100;
+        final int stockPerProduct = 500;
+        final int holds = 20_000;
+        final List<Integer> productIds = new ArrayList<>();
+        for (int i = 0; i < products; i++) {
+            productIds.add(this.productRepository.save(createProduct(stockPerProduct))
+                    .getProductId());
+        }
+
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < holds; i++) {
+            final int productId = productIds.get(i % products);
+            tasks.add(() -> {
+                this.stockReservationService.reserve(
+                        List.of(new PurchaseProductDTO(productId, 1)), SHORT_TTL);
+                return null;
+            });
+        }
+        runAll(tasks);
+        awaitNoReservations(Duration.ofSeconds(60));
+
+        assertEquals(0, totalReservedCount());
+        for (final int productId : productIds) {
+            assertEquals(stockPerProduct, stockCount(productId));
+        }
+    }
+
+    @Test
+    @DisplayName("A hold committed as it expires should be either purchased or released, never both")
+    public void should_neverCommitAndRelease_sameHold() throws Exception {
+        final int holds = 2000;
+        final Product product = this.productRepository.save(createProduct(holds));
+        final List<String> reservationIds = new ArrayList<>();
+        for (int i = 0; i < holds; i++) {
+            reservationIds.add(this.stockReservationService.reserve(
+                    List.of(new PurchaseProductDTO(product.getProductId(), 1)), SHORT_TTL)
+                    .reservationId());
+        }
+
+        final AtomicInteger committed = new AtomicInteger();
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (final String reservationId : reservationIds) {
+            tasks.add(() -> {
+                try {
+                    this.stockReservationService.commit(reservationId);
+                    committed.incrementAndGet();
+                } catch (final ReservationNotFoundException e) {
+                    //Expired first
+                }
+                return null;
+            });
+        }
+        //Start committing just before the first holds expire, so commits race the expiry
+        Thread.sleep(SHORT_TTL.toMillis() - 200);
+        runAll(tasks);
+        awaitNoReservations(Duration.ofSeconds(30));
+
+        assertEquals(holds - committed.get(), stockCount(product.getProductId()));
+        assertEquals(0, reservedCount(product.getProductId()));
+    }
+
+    private void awaitNoReservations(final Duration timeout) throws InterruptedException {
+        final Instant deadline = Instant.now().plus(timeout);
+        while (reservationRows() > 0) {
+            assertTrue(Instant.now().isBefore(deadline), "Holds were not released in time");
+            Thread.sleep(50);
+        }
+    }
+
+    private int reservationRows() {
+        return this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM stock_reservations",
+                Integer.class);
+    }
+
+    private long totalReservedCount() {
+        return this.jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(reserved_count), 0) FROM products", Long.class);
+    }
+
+    private int reservedCount(final int productId) {
+        return this.jdbcTemplate.queryForObject(
+                "SELECT reserved_count FROM products WHERE product_id = ?", Integer.class,
+                productId);
+    }
+
+    private int stockCount(final int productId) {
+        return this.productRepository.findById(productId).orElseThrow().getStockCount();
+    }
+
+    private static void runAll(final List<Callable<Void>> tasks) throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (final Future<Void> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+            executorService.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.shop.generic.productservice.services;
+
+import static com.shop.generic.productservice.testing.ProductFixtures.createProduct;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shop.generic.common.dtos.PurchaseProductDTO;
+import com.shop.generic.common.rest.response.RestApiResponseFactory;
+import com.shop.generic.productservice.cache.ProductCache;
+import com.shop.generic.productservice.config.WarmUpProperties;
+import com.shop.generic.productservice.repositories.ProductRepository;
+import com.shop.generic.productservice.repositories.StockChangeRepository;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Warm-up is off in the shared test context, so each test builds its own runner. The stock change
+ * stream is shared with other tests, so the runner is allowed enough hot products to take in
+ * whatever they left behind too.
+ */
+@SpringBootTest
+class WarmUpRunnerTest {
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private StockChangeRepository stockChangeRepository;
+
+    @Autowired
+    private StockChangeRelay stockChangeRelay;
+
+    @Autowired
+    private RestApiResponseFactory restApiResponseFactory;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @AfterEach
+    public void tearDown() {
+        this.productRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Warm-up should load the best selling products into the cache")
+    public void should_cacheBestSellingProducts() {
+        final int bestSeller = this.productRepository.save(createProduct(100)).getProductId();
+        final int unsold = this.productRepository.save(createProduct(100)).getProductId();
+        for (int i = 0; i < 5; i++) {
+            this.productService.updateProductsStock(
+                    List.of(new PurchaseProductDTO(bestSeller, 1)));
+        }
+        this.stockChangeRelay.relay();
+        this.productCache.invalidateAll(List.of(bestSeller, unsold));
+
+        //When
+        createRunner(100_000).run(null);
+
+        //Then
+        assertTrue(this.productCache.get(bestSeller).isPresent());
+        assertTrue(this.productCache.get(unsold).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Warm-up should carry on when best selling products have since been removed")
+    public void should_skipRemovedProducts() {
+        final int removed = this.productRepository.save(createProduct(100)).getProductId();
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(removed, 1)));
+        this.stockChangeRelay.relay();
+        this.productRepository.deleteById(removed);
+        final int remaining = this.productRepository.save(createProduct(100)).getProductId();
+        this.productService.updateProductsStock(List.of(new PurchaseProductDTO(remaining, 1)));
+        this.stockChangeRelay.relay();
+        this.productCache.invalidateAll(List.of(removed, remaining));
+
+        //When
+        createRunner(100_000).run(null);
+
+        //Then
+        assertTrue(this.productCache.get(remaining).isPresent());
+    }
+
+    private WarmUpRunner createRunner(final int hotProducts) {
+        return new WarmUpRunner(this.productService, this.stockChangeRepository,
+                this.restApiResponseFactory, this.objectMapper,
+                new WarmUpProperties(true, hotProducts, 50, Duration.ofSeconds(10)));
+    }
+}
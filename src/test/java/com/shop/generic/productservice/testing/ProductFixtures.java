@@ -0,0 +1,26 @@
+package com.shop.generic.productservice.testing;
+
+import com.shop.generic.common.entities.Product;
+import com.shop.generic.common.enums.StockStatus;
+import java.math.BigDecimal;
+
+/**
+ * Products for the tests that run against the real (H2) database to save
+ */
+public final class ProductFixtures {
+
+    private ProductFixtures() {
+    }
+
+    /**
+     * @return an unsaved, available product with the given stock
+     */
+    public static Product createProduct(final int stockCount) {
+        final Product product = new Product();
+        product.setName("Test product");
+        product.setPrice(BigDecimal.TEN);
+        product.setStockStatus(StockStatus.AVAILABLE);
+        product.setStockCount(stockCount);
+        return product;
+    }
+}
@@ -0,0 +1,154 @@
+package com.shop.generic.productservice.testing;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Counts the statements prepared on the current thread, whether through Hibernate or JdbcTemplate,
+ * by wrapping the application's data source. Import {@link Config} into a test to put it in place.
+ * The count is per thread, so the scheduled jobs running alongside a test are left out of it.
+ * <p>
+ * Also counts the rows read from query results on the thread, and remembers the last fetch size
+ * a statement was given, so a test can see how rows are pulled from the database.
+ */
+public class StatementCountingDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private static final ThreadLocal<Counts> COUNTS = ThreadLocal.withInitial(Counts::new);
+
+    public StatementCountingDataSource(final DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    public static void reset() {
+        COUNTS.set(new Counts());
+    }
+
+    /**
+     * @return the statements prepared on the current thread since the last {@link #reset()}
+     */
+    public static int count() {
+        return COUNTS.get().statements;
+    }
+
+    /**
+     * @return the rows read from query results on the current thread since the last
+     * {@link #reset()}
+     */
+    public static int rowsRead() {
+        return COUNTS.get().rowsRead;
+    }
+
+    /**
+     * @return the fetch size last given to a statement on the current thread since the last
+     * {@link #reset()}, or 0 if none was
+     */
+    public static int fetchSize() {
+        return COUNTS.get().fetchSize;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return counting(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password)
+            throws SQLException {
+        return counting(super.getConnection(username, password));
+    }
+
+    /**
+     * Closes the pool behind, as Spring only knows to close the data source it was given
+     */
+    @Override
+    public void close() throws Exception {
+        if (getTargetDataSource() instanceof final AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private static Connection counting(final Connection connection) {
+        return proxy(Connection.class, connection, (method, args, result) -> {
+            //prepareStatement, prepareCall and createStatement
+            if (method.getName().startsWith("prepare")
+                    || method.getName().equals("createStatement")) {
+                COUNTS.get().statements++;
+                return proxy(method.getReturnType(), result,
+                        StatementCountingDataSource::onStatement);
+            }
+            return result;
+        });
+    }
+
+    private static Object onStatement(final Method method, final Object[] args,
+            final Object result) {
+        if (method.getName().equals("setFetchSize")) {
+            COUNTS.get().fetchSize = (Integer) args[0];
+        } else if (result instanceof final ResultSet resultSet) {
+            return proxy(ResultSet.class, resultSet, (resultSetMethod, resultSetArgs, row) -> {
+                if (resultSetMethod.getName().equals("next") && (Boolean) row) {
+                    COUNTS.get().rowsRead++;
+                }
+                return row;
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Wraps the target in a proxy of the given interface, which passes every call on and then lets
+     * the handler see, and replace, what came back
+     */
+    private static <T> T proxy(final Class<T> type, final Object target,
+            final AfterCall afterCall) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    final Object result;
+                    try {
+                        result = method.invoke(target, args);
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    return afterCall.apply(method, args, result);
+                }));
+    }
+
+    @FunctionalInterface
+    private interface AfterCall {
+
+        Object apply(Method method, Object[] args, Object result);
+    }
+
+    private static final class Counts {
+
+        private int statements;
+        private int rowsRead;
+        private int fetchSize;
+    }
+
+    @TestConfiguration(proxyBeanMethods = false)
+    public static class Config {
+
+        @Bean
+        static BeanPostProcessor statementCountingDataSourcePostProcessor() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(final Object bean,
+                        final String beanName) {
+                    return bean instanceof final DataSource dataSource
+                            && !(bean instanceof StatementCountingDataSource)
+                            ? new StatementCountingDataSource(dataSource) : bean;
+                }
+            };
+        }
+    }
+}
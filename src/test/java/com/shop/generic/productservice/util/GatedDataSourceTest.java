@@ -0,0 +1,94 @@
+package com.shop.generic.productservice.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+
+@ExtendWith(MockitoExtension.class)
+class GatedDataSourceTest {
+
+    @Mock
+    private DataSource dataSource;
+
+    @Mock
+    private Connection connection;
+
+    @Test
+    @DisplayName("Gate should give up on a connection once every permit has been out too long")
+    public void should_timeOut_whenNoPermitIsFree() throws Exception {
+        given(this.dataSource.getConnection()).willReturn(this.connection);
+        final GatedDataSource gatedDataSource = new GatedDataSource(this.dataSource, 1,
+                Duration.ofMillis(20));
+        gatedDataSource.getConnection();
+
+        assertThrows(SQLTransientConnectionException.class, gatedDataSource::getConnection);
+        verify(this.dataSource, times(1)).getConnection();
+    }
+
+    @Test
+    @DisplayName("Gate should hand a waiting thread the connection permit once one is closed")
+    public void should_admitWaitingThread_whenConnectionIsClosed() throws Exception {
+        given(this.dataSource.getConnection()).willReturn(this.connection);
+        final GatedDataSource gatedDataSource = new GatedDataSource(this.dataSource, 1,
+                Duration.ofSeconds(10));
+        final Connection first = gatedDataSource.getConnection();
+
+        final CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return gatedDataSource.getConnection();
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (gatedDataSource.waiting() == 0) {
+            Thread.onSpinWait();
+        }
+        first.close();
+
+        final Connection second = waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(this.connection, ((ConnectionProxy) second).getTargetConnection());
+        assertEquals(0, gatedDataSource.availablePermits());
+    }
+
+    @Test
+    @DisplayName("Gate should give the permit back once however many times a connection is closed")
+    public void should_releasePermitOnce_whenClosedTwice() throws Exception {
+        given(this.dataSource.getConnection()).willReturn(this.connection);
+        final GatedDataSource gatedDataSource = new GatedDataSource(this.dataSource, 2,
+                Duration.ofMillis(20));
+
+        final Connection gated = gatedDataSource.getConnection();
+        gated.close();
+        gated.close();
+
+        assertEquals(2, gatedDataSource.availablePermits());
+        verify(this.connection, times(1)).close();
+    }
+
+    @Test
+    @DisplayName("Gate should give the permit back when the pool fails to hand out a connection")
+    public void should_releasePermit_whenPoolFails() throws Exception {
+        given(this.dataSource.getConnection()).willThrow(new SQLException("Pool is closed"));
+        final GatedDataSource gatedDataSource = new GatedDataSource(this.dataSource, 1,
+                Duration.ofMillis(20));
+
+        assertThrows(SQLException.class, gatedDataSource::getConnection);
+        assertEquals(1, gatedDataSource.availablePermits());
+    }
+}
@@ -0,0 +1,79 @@
+package com.shop.generic.productservice.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import com.shop.generic.productservice.repositories.IdempotencyKeyRepository;
+import com.shop.generic.productservice.repositories.IdempotencyKeyRepository.RecordedResponse;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs against the context's real data source, so other work going on in the context, such as the
+ * scheduled jobs, could in principle take a pooled connection while a test is counting them
+ */
+@SpringBootTest
+class LazyConnectionDataSourceTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Test
+    @DisplayName("JDBC writes made outside any transaction should be kept")
+    public void should_keepWrites_madeOutsideTransactions() {
+        final String idempotencyKey = UUID.randomUUID().toString();
+        final Instant now = Instant.now();
+
+        //When, each statement on its own connection from the pool
+        this.idempotencyKeyRepository.claim(idempotencyKey, "hash", now,
+                now.plus(Duration.ofHours(1)));
+        this.idempotencyKeyRepository.saveResponse(idempotencyKey, "Done");
+
+        //Then
+        assertEquals(Optional.of(new RecordedResponse("hash", "Done")),
+                this.idempotencyKeyRepository.findResponse(idempotencyKey, now));
+    }
+
+    @Test
+    @DisplayName("A transaction should only take a pooled connection when it runs its first statement")
+    public void should_takeConnection_atFirstStatement() throws SQLException {
+        assertInstanceOf(LazyConnectionDataSource.class, this.dataSource);
+        final HikariPoolMXBean pool = this.dataSource.unwrap(HikariDataSource.class)
+                .getHikariPoolMXBean();
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(
+                this.transactionManager);
+        //Like stock updates, which set the isolation level on the connection as they begin
+        transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        final int activeBefore = pool.getActiveConnections();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            assertEquals(activeBefore, pool.getActiveConnections());
+            this.jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+            assertEquals(activeBefore + 1, pool.getActiveConnections());
+        });
+        assertEquals(activeBefore, pool.getActiveConnections());
+    }
+}
@@ -0,0 +1,50 @@
+package com.shop.generic.productservice.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ProductIdIndexTest {
+
+    @Test
+    @DisplayName("Index should de-duplicate IDs and keep the order they were first seen in")
+    public void should_deduplicateIds_inFirstSeenOrder() {
+        final ProductIdIndex index = ProductIdIndex.of(List.of(5, 3, 5, 9, 3));
+
+        assertEquals(3, index.size());
+        assertEquals(5, index.idAt(0));
+        assertEquals(3, index.idAt(1));
+        assertEquals(9, index.idAt(2));
+        assertEquals(0, index.indexOf(5));
+        assertEquals(1, index.indexOf(3));
+        assertEquals(2, index.indexOf(9));
+    }
+
+    @Test
+    @DisplayName("Index should return -1 for IDs it does not contain")
+    public void should_returnNotFound_forUnknownIds() {
+        final ProductIdIndex index = ProductIdIndex.of(List.of(1, 2, 3));
+
+        assertEquals(-1, index.indexOf(4));
+        assertEquals(-1, ProductIdIndex.of(List.of()).indexOf(1));
+    }
+
+    @Test
+    @DisplayName("Index should find every ID in a large request")
+    public void should_findEveryId_inLargeRequest() {
+        final List<Integer> productIds = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            productIds.add(i * 7);
+        }
+
+        final ProductIdIndex index = ProductIdIndex.of(productIds);
+
+        assertEquals(10_000, index.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, index.indexOf(i * 7));
+        }
+    }
+}
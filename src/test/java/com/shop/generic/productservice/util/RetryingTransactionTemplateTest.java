@@ -0,0 +1,116 @@
+package com.shop.generic.productservice.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.shop.generic.productservice.config.TransactionProperties;
+import com.shop.generic.productservice.metrics.ProductMetrics;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+@ExtendWith(MockitoExtension.class)
+class RetryingTransactionTemplateTest {
+
+    private static final TransactionProperties PROPERTIES = new TransactionProperties(
+            Isolation.SERIALIZABLE, Duration.ofSeconds(3), 3, Duration.ofMillis(1),
+            Duration.ofMillis(5));
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private ProductMetrics productMetrics;
+
+    @Test
+    @DisplayName("Template should run transactions at the configured isolation level and timeout")
+    public void should_applyConfiguredIsolationAndTimeout() {
+        final RetryingTransactionTemplate template = createTemplate();
+
+        assertEquals(TransactionDefinition.ISOLATION_SERIALIZABLE, template.getIsolationLevel());
+        assertEquals(3, template.getTimeout());
+    }
+
+    @Test
+    @DisplayName("Template should run a transaction again after a deadlock")
+    public void should_retry_afterDeadlock() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        final String result = createTemplate().execute(status -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new DeadlockLoserDataAccessException("Deadlock", null);
+            }
+            return "done";
+        });
+
+        assertEquals("done", result);
+        assertEquals(2, attempts.get());
+        verify(this.transactionManager, times(1)).rollback(any());
+        verify(this.productMetrics, times(1)).transactionRetried();
+    }
+
+    @Test
+    @DisplayName("Template should give up once every attempt has failed")
+    public void should_giveUp_afterMaxAttempts() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(CannotAcquireLockException.class, () -> createTemplate().execute(status -> {
+            attempts.incrementAndGet();
+            throw new CannotAcquireLockException("Lock timeout");
+        }));
+
+        assertEquals(3, attempts.get());
+        verify(this.productMetrics, times(2)).transactionRetried();
+    }
+
+    @Test
+    @DisplayName("Template should not retry failures that are not caused by other transactions")
+    public void should_notRetry_otherFailures() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> createTemplate().execute(status -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("Broken");
+        }));
+
+        assertEquals(1, attempts.get());
+        verify(this.productMetrics, never()).transactionRetried();
+    }
+
+    @Test
+    @DisplayName("Template should leave retries to the caller when joining its transaction")
+    public void should_notRetry_whenJoiningCallersTransaction() {
+        final AtomicInteger attempts = new AtomicInteger();
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertThrows(DeadlockLoserDataAccessException.class,
+                    () -> createTemplate().execute(status -> {
+                        attempts.incrementAndGet();
+                        throw new DeadlockLoserDataAccessException("Deadlock", null);
+                    }));
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+
+        assertEquals(1, attempts.get());
+    }
+
+    private RetryingTransactionTemplate createTemplate() {
+        return new RetryingTransactionTemplate(this.transactionManager, PROPERTIES,
+                this.productMetrics);
+    }
+}